@@ -0,0 +1,161 @@
+package org.jenkinsci.plugins.rundeck;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Rundeck job selectors, used by the {@link RundeckTrigger} to filter notifications. A selector could be either :
+ * <ul>
+ * <li>an exact job identifier : a job's UUID, or a reference in the format "project:group/job". Any character is
+ * literal, including "*" and "?"</li>
+ * <li>a glob, prefixed with "glob:", matched against the UUID and the reference : "*" matches any sequence of
+ * characters (including "/"), and "?" matches a single character. Example : "glob:prod:deploy/*"</li>
+ * <li>a regular expression, prefixed with "regex:". Example : "regex:prod:(deploy|rollback)/.+"</li>
+ * </ul>
+ * An exact identifier which starts with one of these prefixes (a job of a project named "glob" or "regex") is escaped
+ * with the "literal:" prefix. Example : "literal:glob:deploy". All selectors are case-insensitive, but not the
+ * prefixes.
+ */
+public final class JobSelector {
+
+    public static final String GLOB_PREFIX = "glob:";
+
+    public static final String REGEX_PREFIX = "regex:";
+
+    public static final String LITERAL_PREFIX = "literal:";
+
+    private JobSelector() {
+    }
+
+    /**
+     * @param selector job selector
+     * @return true if the selector is a regular expression ("regex:...")
+     */
+    public static boolean isRegex(String selector) {
+        return selector.startsWith(REGEX_PREFIX) && selector.length() > REGEX_PREFIX.length();
+    }
+
+    /**
+     * @param selector job selector
+     * @return true if the selector is a glob ("glob:...")
+     */
+    public static boolean isGlob(String selector) {
+        return selector.startsWith(GLOB_PREFIX) && selector.length() > GLOB_PREFIX.length();
+    }
+
+    /**
+     * @param selector job selector
+     * @return true if the selector is a glob, or a regular expression - false for an exact identifier
+     */
+    public static boolean isPattern(String selector) {
+        return isRegex(selector) || isGlob(selector);
+    }
+
+    /**
+     * @param selector exact selector (not a pattern)
+     * @return the job identifier of the selector, without its "literal:" escape
+     */
+    public static String toIdentifier(String selector) {
+        return selector.startsWith(LITERAL_PREFIX) ? selector.substring(LITERAL_PREFIX.length()) : selector;
+    }
+
+    /**
+     * @param selector glob or regex selector
+     * @return the regular expression equivalent to the selector
+     */
+    public static String toRegex(String selector) {
+        if (isRegex(selector)) {
+            return selector.substring(REGEX_PREFIX.length());
+        }
+        String glob = selector.substring(GLOB_PREFIX.length());
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return regex.toString();
+    }
+
+    /**
+     * Compile the given selectors into a single case-insensitive pattern
+     *
+     * @param selectors glob or regex selectors
+     * @return a pattern matching a key if any of the selectors matches it, or null if there is no selector
+     * @throws java.util.regex.PatternSyntaxException if one of the regular expressions is invalid
+     */
+    public static Pattern compile(Iterable<String> selectors) {
+        StringBuilder regex = new StringBuilder();
+        for (String selector : selectors) {
+            if (regex.length() > 0) {
+                regex.append('|');
+            }
+            regex.append("(?:").append(toRegex(selector)).append(')');
+        }
+        if (regex.length() == 0) {
+            return null;
+        }
+        return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+    }
+
+    /**
+     * Every key matched by the selector starts with the returned prefix, which is used to index the selector in a
+     * {@link JobSelectorIndex}.
+     *
+     * @param selector job selector
+     * @return the lower-cased literal prefix of the selector - the whole identifier for an exact one, and an empty
+     *         string for a regular expression
+     */
+    public static String literalPrefix(String selector) {
+        if (isRegex(selector)) {
+            return "";
+        }
+        if (!isGlob(selector)) {
+            return toIdentifier(selector).toLowerCase(Locale.ENGLISH);
+        }
+        String glob = selector.substring(GLOB_PREFIX.length());
+        int wildcard = StringUtils.indexOfAny(glob, "*?");
+        String prefix = wildcard < 0 ? glob : glob.substring(0, wildcard);
+        return prefix.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Convert selectors written before the prefixes were introduced, when any identifier containing "*" or "?" was a
+     * glob, and any identifier surrounded by slashes a regular expression. They keep their meaning : these ones get
+     * their prefix, and the exact identifiers which now look like a prefixed selector are escaped.
+     *
+     * @param selectors job selectors in the previous syntax
+     * @return the same selectors, in the current syntax
+     */
+    public static List<String> migrate(List<String> selectors) {
+        List<String> migrated = new ArrayList<String>(selectors.size());
+        for (String selector : selectors) {
+            String trimmed = StringUtils.trimToEmpty(selector);
+            if (trimmed.length() > 2 && trimmed.startsWith("/") && trimmed.endsWith("/")) {
+                migrated.add(REGEX_PREFIX + trimmed.substring(1, trimmed.length() - 1));
+            } else if (StringUtils.containsAny(trimmed, "*?")) {
+                migrated.add(GLOB_PREFIX + trimmed);
+            } else if (trimmed.startsWith(GLOB_PREFIX) || trimmed.startsWith(REGEX_PREFIX)
+                       || trimmed.startsWith(LITERAL_PREFIX)) {
+                migrated.add(LITERAL_PREFIX + trimmed);
+            } else {
+                migrated.add(selector);
+            }
+        }
+        return migrated;
+    }
+}
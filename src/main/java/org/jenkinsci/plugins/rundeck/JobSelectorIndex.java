@@ -0,0 +1,144 @@
+package org.jenkinsci.plugins.rundeck;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Prefix tree of the literal prefixes of job selectors (see {@link JobSelector#literalPrefix(String)}), used to find
+ * the few subscribers (triggers) that may be interested in a notification without testing all of them : a key can
+ * only be matched by the selectors whose prefix is a prefix of the key, so the lookup is bounded by the length of the
+ * key, and not by the number of selectors.
+ * <p>
+ * The returned subscribers are only candidates : they still have to check their selectors against the keys.
+ * Subscribers registered with an empty prefix (no filter, or regular expressions) are always candidates.
+ *
+ * @param <T> type of the subscribers
+ */
+public class JobSelectorIndex<T> {
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Node<T> root = new Node<T>();
+
+    /** prefixes under which each subscriber is registered, for the unregistration */
+    private final Map<T, Set<String>> registrations = new HashMap<T, Set<String>>();
+
+    /**
+     * Register (or re-register) a subscriber
+     *
+     * @param subscriber to register
+     * @param prefixes lower-cased literal prefixes of its selectors
+     */
+    public void register(T subscriber, Collection<String> prefixes) {
+        lock.writeLock().lock();
+        try {
+            doUnregister(subscriber);
+            Set<String> registered = new HashSet<String>(prefixes);
+            for (String prefix : registered) {
+                Node<T> node = root;
+                for (int i = 0; i < prefix.length(); i++) {
+                    Node<T> child = node.children.get(prefix.charAt(i));
+                    if (child == null) {
+                        child = new Node<T>();
+                        node.children.put(prefix.charAt(i), child);
+                    }
+                    node = child;
+                }
+                node.subscribers.add(subscriber);
+            }
+            registrations.put(subscriber, registered);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param subscriber to unregister (ignored if it is not registered)
+     */
+    public void unregister(T subscriber) {
+        lock.writeLock().lock();
+        try {
+            doUnregister(subscriber);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void doUnregister(T subscriber) {
+        Set<String> prefixes = registrations.remove(subscriber);
+        if (prefixes != null) {
+            for (String prefix : prefixes) {
+                remove(root, prefix, 0, subscriber);
+            }
+        }
+    }
+
+    /**
+     * @return true if the node is now empty, and can be removed from its parent
+     */
+    private boolean remove(Node<T> node, String prefix, int depth, T subscriber) {
+        if (depth == prefix.length()) {
+            node.subscribers.remove(subscriber);
+        } else {
+            Node<T> child = node.children.get(prefix.charAt(depth));
+            if (child != null && remove(child, prefix, depth + 1, subscriber)) {
+                node.children.remove(prefix.charAt(depth));
+            }
+        }
+        return node.subscribers.isEmpty() && node.children.isEmpty();
+    }
+
+    /**
+     * Find the subscribers that may be interested in one of the given keys
+     *
+     * @param keys lower-cased keys of a Rundeck job (null keys are ignored)
+     * @return the candidate subscribers, without duplicates
+     */
+    public Set<T> candidates(String... keys) {
+        Set<T> candidates = new LinkedHashSet<T>();
+        lock.readLock().lock();
+        try {
+            candidates.addAll(root.subscribers);
+            for (String key : keys) {
+                if (key == null) {
+                    continue;
+                }
+                Node<T> node = root;
+                for (int i = 0; i < key.length() && node != null; i++) {
+                    node = node.children.get(key.charAt(i));
+                    if (node != null) {
+                        candidates.addAll(node.subscribers);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return candidates;
+    }
+
+    /**
+     * @return number of registered subscribers
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return registrations.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static class Node<T> {
+
+        private final Map<Character, Node<T>> children = new HashMap<Character, Node<T>>(4);
+
+        private final Set<T> subscribers = new HashSet<T>(2);
+    }
+}
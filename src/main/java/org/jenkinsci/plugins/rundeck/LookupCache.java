@@ -0,0 +1,104 @@
+package org.jenkinsci.plugins.rundeck;
+
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Short-lived cache of the results of slow lookups (calls to the Rundeck API), by key. Concurrent lookups of the same
+ * key are collapsed : the first caller runs the lookup, and the other ones wait for its result instead of running it
+ * again. A result is kept for the given TTL, counted from the end of the lookup.
+ *
+ * @param <V> type of the results
+ */
+public class LookupCache<V> {
+
+    /** expired entries are purged when the cache grows beyond this size */
+    private static final int PURGE_THRESHOLD = 1000;
+
+    private final long ttl;
+
+    private final ConcurrentMap<String, Lookup> lookups = new ConcurrentHashMap<String, Lookup>();
+
+    /**
+     * @param ttl time to live of a result, in milliseconds
+     */
+    public LookupCache(long ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * Get the cached result for the given key, or run the lookup (unless the same lookup is already in progress, in
+     * which case its result is awaited).
+     *
+     * @param key of the lookup
+     * @param lookup to run if there is no fresh result for the key
+     * @return the result of the lookup
+     * @throws ExecutionException if the lookup failed (failures are not cached)
+     * @throws InterruptedException if interrupted while waiting for a lookup in progress
+     */
+    public V get(String key, Callable<V> lookup) throws ExecutionException, InterruptedException {
+        Lookup current = lookups.get(key);
+        while (current == null || current.isExpired()) {
+            Lookup created = new Lookup(lookup);
+            boolean claimed = current == null ? lookups.putIfAbsent(key, created) == null
+                    : lookups.replace(key, current, created);
+            if (claimed) {
+                purge();
+                created.run();
+                current = created;
+                break;
+            } else {
+                // someone else started the same lookup
+                current = lookups.get(key);
+            }
+        }
+        try {
+            return current.get();
+        } catch (ExecutionException e) {
+            lookups.remove(key, current);
+            throw e;
+        }
+    }
+
+    /**
+     * Forget all the cached results
+     */
+    public void clear() {
+        lookups.clear();
+    }
+
+    private void purge() {
+        if (lookups.size() <= PURGE_THRESHOLD) {
+            return;
+        }
+        for (Iterator<Lookup> it = lookups.values().iterator(); it.hasNext();) {
+            if (it.next().isExpired()) {
+                it.remove();
+            }
+        }
+    }
+
+    private class Lookup extends FutureTask<V> {
+
+        /** 0 while the lookup is in progress */
+        private volatile long expiresAt;
+
+        private Lookup(Callable<V> callable) {
+            super(callable);
+        }
+
+        @Override
+        protected void done() {
+            expiresAt = System.currentTimeMillis() + ttl;
+        }
+
+        private boolean isExpired() {
+            long expiration = expiresAt;
+            return expiration != 0 && System.currentTimeMillis() >= expiration;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package org.jenkinsci.plugins.rundeck;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import org.rundeck.api.domain.RundeckExecution;
+
+/**
+ * Bounded, time-windowed set of the (execution id, status) pairs already dispatched, used to drop the notifications
+ * that Rundeck retries or sends twice (HA setups).
+ * <p>
+ * Keys are packed into a single long, and stored in two primitive arrays : a FIFO ring (insertion order, with the
+ * insertion time of each key) used for expiration and eviction, and an open-addressing hash table (linear probing,
+ * backward-shift deletion) used for lookups. No object is allocated per notification, except for the few keys being
+ * dispatched (see {@link #reserve(RundeckExecution)}).
+ */
+public class NotificationDeduplicator {
+
+    /** Default number of keys remembered */
+    public static final int DEFAULT_CAPACITY = 16 * 1024;
+
+    /** Default time window, in milliseconds */
+    public static final long DEFAULT_WINDOW_MILLIS = 10 * 60 * 1000L;
+
+    /** marks an empty slot of the hash table (keys are never negative) */
+    private static final long EMPTY = -1L;
+
+    private final long windowMillis;
+
+    private final long[] ringKeys;
+
+    private final long[] ringTimes;
+
+    private int ringHead;
+
+    private int ringSize;
+
+    private final long[] table;
+
+    private final int mask;
+
+    /** keys reserved by a dispatch in progress, not recorded yet */
+    private final Set<Long> inFlight = new HashSet<Long>();
+
+    public NotificationDeduplicator() {
+        this(DEFAULT_CAPACITY, DEFAULT_WINDOW_MILLIS);
+    }
+
+    /**
+     * @param capacity maximum number of keys remembered (the oldest ones are evicted first)
+     * @param windowMillis how long a key is remembered
+     */
+    public NotificationDeduplicator(int capacity, long windowMillis) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity should be positive : " + capacity);
+        }
+        this.windowMillis = windowMillis;
+        this.ringKeys = new long[capacity];
+        this.ringTimes = new long[capacity];
+        // load factor <= 0.5
+        int tableSize = Integer.highestOneBit(capacity) << 2;
+        this.table = new long[tableSize];
+        this.mask = tableSize - 1;
+        Arrays.fill(table, EMPTY);
+    }
+
+    /**
+     * Record the given execution, and tell if it was already seen in the time window.
+     *
+     * @param execution at the origin of the notification
+     * @return true the first time an (execution id, status) pair is seen, false for a duplicate
+     */
+    public boolean firstSeen(RundeckExecution execution) {
+        if (execution.getId() == null || execution.getStatus() == null) {
+            return true;
+        }
+        return firstSeen(execution.getId(), execution.getStatus().ordinal(), System.currentTimeMillis());
+    }
+
+    /**
+     * @param executionId of the Rundeck execution
+     * @param status ordinal of the execution status
+     * @param now current time, in milliseconds
+     * @return true the first time an (execution id, status) pair is seen, false for a duplicate
+     */
+    synchronized boolean firstSeen(long executionId, int status, long now) {
+        long key = (executionId << 4) | (status & 0xF);
+        if (key < 0) {
+            // not representable, never deduplicated
+            return true;
+        }
+        expire(now);
+        if (contains(key)) {
+            return false;
+        }
+        if (ringSize == ringKeys.length) {
+            evictOldest();
+        }
+        int tail = (ringHead + ringSize) % ringKeys.length;
+        ringKeys[tail] = key;
+        ringTimes[tail] = now;
+        ringSize++;
+        insert(key);
+        return true;
+    }
+
+    /**
+     * Reserve the given execution before dispatching it : a concurrent dispatch of the same (execution id, status)
+     * can't reserve it until it is released. Once dispatched (or if it failed), it must be released with
+     * {@link #release(RundeckExecution, boolean)}.
+     *
+     * @param execution at the origin of the notification
+     * @return true if the execution was reserved, false for a duplicate (already seen in the time window, or being
+     *         dispatched)
+     */
+    public boolean reserve(RundeckExecution execution) {
+        if (execution.getId() == null || execution.getStatus() == null) {
+            return true;
+        }
+        return reserve(execution.getId(), execution.getStatus().ordinal(), System.currentTimeMillis());
+    }
+
+    synchronized boolean reserve(long executionId, int status, long now) {
+        long key = (executionId << 4) | (status & 0xF);
+        if (key < 0) {
+            return true;
+        }
+        expire(now);
+        return !contains(key) && inFlight.add(key);
+    }
+
+    /**
+     * Release an execution reserved with {@link #reserve(RundeckExecution)}
+     *
+     * @param execution at the origin of the notification
+     * @param dispatched true to record it as seen, false if its dispatch failed (so that it can be dispatched again)
+     */
+    public void release(RundeckExecution execution, boolean dispatched) {
+        if (execution.getId() == null || execution.getStatus() == null) {
+            return;
+        }
+        release(execution.getId(), execution.getStatus().ordinal(), dispatched, System.currentTimeMillis());
+    }
+
+    synchronized void release(long executionId, int status, boolean dispatched, long now) {
+        long key = (executionId << 4) | (status & 0xF);
+        if (key < 0 || !inFlight.remove(key)) {
+            return;
+        }
+        if (dispatched) {
+            firstSeen(executionId, status, now);
+        }
+    }
+
+    /** @return number of keys currently remembered */
+    public synchronized int size() {
+        return ringSize;
+    }
+
+    private void expire(long now) {
+        while (ringSize > 0 && now - ringTimes[ringHead] >= windowMillis) {
+            evictOldest();
+        }
+    }
+
+    private void evictOldest() {
+        remove(ringKeys[ringHead]);
+        ringHead = (ringHead + 1) % ringKeys.length;
+        ringSize--;
+    }
+
+    private static int hash(long key) {
+        // variant of the MurmurHash3 finalizer
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private boolean contains(long key) {
+        for (int i = hash(key) & mask; table[i] != EMPTY; i = (i + 1) & mask) {
+            if (table[i] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void insert(long key) {
+        int i = hash(key) & mask;
+        while (table[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        table[i] = key;
+    }
+
+    private void remove(long key) {
+        int i = hash(key) & mask;
+        while (table[i] != key) {
+            if (table[i] == EMPTY) {
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        // backward-shift the following entries of the cluster, so that lookups never stop on a hole
+        int hole = i;
+        for (int j = (i + 1) & mask; table[j] != EMPTY; j = (j + 1) & mask) {
+            int home = hash(table[j]) & mask;
+            // move the entry if its home slot is not in the cyclic range (hole, j]
+            boolean movable = hole <= j ? (home <= hole || home > j) : (home <= hole && home > j);
+            if (movable) {
+                table[hole] = table[j];
+                hole = j;
+            }
+        }
+        table[hole] = EMPTY;
+    }
+}
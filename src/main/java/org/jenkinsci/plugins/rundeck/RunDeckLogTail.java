@@ -1,8 +1,12 @@
 package org.jenkinsci.plugins.rundeck;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -12,6 +16,7 @@ import org.rundeck.api.RundeckClientBuilder;
 import org.rundeck.api.domain.RundeckOutput;
 import org.rundeck.api.domain.RundeckOutputEntry;
 import org.rundeck.api.domain.RundeckExecution.ExecutionStatus;
+import org.jenkinsci.plugins.rundeck.RundeckApiCapabilities.Capability;
 
 /**
  * This class implements logtailing for Rundeck.
@@ -22,13 +27,19 @@ public class RunDeckLogTail implements Iterable<List<RundeckOutputEntry>> {
 
     private static final Logger log = Logger.getLogger(RunDeckLogTail.class.getName());
 
+    /** Default number of pages fetched ahead of the caller by a {@link PipelinedIterator} */
+    public static final int DEFAULT_PIPELINE_CAPACITY = 4;
+
     private final RundeckClient rundeckClient;
     private final Long executionId;
+    private final String nodeName;
     private final int maxlines;
     private final int maxRetries;
     private final long sleepRetry;
     private final long sleepUnmodified;
     private final long sleepModified;
+    private final RundeckApiCapabilities capabilities;
+    private volatile RundeckOutputFetcher outputFetcher;
 
     /**
      * Standard constructor that contains sensible defaults for handling the API calls correctly.
@@ -59,13 +70,30 @@ public class RunDeckLogTail implements Iterable<List<RundeckOutputEntry>> {
      *            sleep time in ms when the results are modified.
      */
     public RunDeckLogTail(RundeckClient rundeckClient, Long executionId, int maxlines, int maxRetries, long sleepRetry, long sleepUnmodified, long sleepModified) {
+        this(rundeckClient, executionId, null, maxlines, maxRetries, sleepRetry, sleepUnmodified, sleepModified);
+    }
+
+    /**
+     * Constructor for tailing the output of a single node of the execution.
+     * 
+     * @param nodeName
+     *            the node whose output is tailed, or null for the output of the whole execution
+     * @see #RunDeckLogTail(RundeckClient, Long, int, int, long, long, long)
+     * @see RunDeckParallelLogTail
+     */
+    public RunDeckLogTail(RundeckClient rundeckClient, Long executionId, String nodeName, int maxlines, int maxRetries, long sleepRetry, long sleepUnmodified, long sleepModified) {
         this.rundeckClient = rundeckClient;
         this.executionId = executionId;
+        this.nodeName = nodeName;
         this.maxlines = maxlines;
         this.maxRetries = maxRetries;
         this.sleepRetry = sleepRetry;
         this.sleepUnmodified = sleepUnmodified;
         this.sleepModified = sleepModified;
+        this.capabilities = RundeckApiCapabilities.forClient(rundeckClient);
+        if (RundeckOutputFetcher.supports(rundeckClient)) {
+            this.outputFetcher = new RundeckOutputFetcher(rundeckClient, capabilities.getApiVersion());
+        }
 
     }
 
@@ -73,9 +101,31 @@ public class RunDeckLogTail implements Iterable<List<RundeckOutputEntry>> {
         return new RunDeckLogTailIterator();
     }
 
+    /**
+     * Iterate over the output with a background thread fetching the pages, so that a page is available as soon as it
+     * has been fetched (and not after the pause between two API calls), and the next one is fetched while the caller
+     * writes it. The API is not called more often than with {@link #iterator()}.
+     * 
+     * @param capacity
+     *            the maximum number of pages fetched ahead of the caller : the fetching thread waits for the caller
+     *            when it falls behind
+     */
+    public PipelinedIterator pipelined(int capacity) {
+        return new PipelinedIterator(capacity);
+    }
+
+    /**
+     * Format an entry of the log, as written in the build log.
+     */
+    public static String format(RundeckOutputEntry rundeckOutputEntry) {
+        return String.format("[%s] [%s] %s", new Object[] { rundeckOutputEntry.getTime(), rundeckOutputEntry.getLevel(), rundeckOutputEntry.getMessage() });
+    }
+
     protected class RunDeckLogTailIterator implements Iterator<List<RundeckOutputEntry>> {
 
         protected int offset;
+        /** last modification of the log, sent back once all of it has been read (-1 otherwise) */
+        protected long lastmod = -1;
         protected boolean completed;
         protected int retries = 0;
 
@@ -85,7 +135,8 @@ public class RunDeckLogTail implements Iterable<List<RundeckOutputEntry>> {
          * This will clear and update the result set for the @link {@link #next()} call using the RunDeck Client to perform an API call, it will also update the
          * offset and last modification date for the next API call. If there are no changes since the last call, this method will sleep for 5 seconds. If there
          * are changes, it will sleep for 2 seconds so it won't overload the API. Once the API call returns with 'completed' the next call to this method will
-         * return false.</br> If for some reason the sleep is interrupted, the next call to this method will return false.</br>
+         * return false. A failed API call is retried after a single sleep of {@link RunDeckLogTail#sleepRetry}.</br> If for some reason the sleep is
+         * interrupted, the next call to this method will return false, and the interrupt status of the thread is restored.</br>
          */
         public boolean hasNext() {
 
@@ -93,34 +144,106 @@ public class RunDeckLogTail implements Iterable<List<RundeckOutputEntry>> {
                 return false;
             }
 
-            next = new ArrayList<RundeckOutputEntry>(maxlines);
-
             try {
-                try {
-                    log.log(Level.FINE, "Performing API call for executionId [{0}], using offset [{1}]. fetching a maximum of [{2}] lines.", new Object[] {
-                            executionId, offset, maxlines });
-                    RundeckOutput rundeckOutput = rundeckClient.getExecutionOutputState(executionId, false, offset, -1, maxlines);
-
-                    completed = checkCompletionState(rundeckOutput);
-                    boolean offsetChanged = updateIterationState(rundeckOutput);
-                    addRunDeckOutputEntriesToResults(rundeckOutput);
-                    if (!completed) {
-                        log.log(Level.FINE, "RunDecks Execution Output is not yet completed. Initializing pause to prevent API hammering");
-                        handleSleep(offsetChanged);
-                    }
-                    retries = 0;
-                } catch (RundeckApiException e) {
-                    log.log(Level.WARNING, "Caught RuntimeException while handling API call for logs. Will retry for max [{0}] times or rethrow exception.", new Object[] {
-                            maxRetries, e });
-                    sleepOrThrowException(e);
+                boolean offsetChanged = fetchNext();
+                if (!completed) {
+                    log.log(Level.FINE, "RunDecks Execution Output is not yet completed. Initializing pause to prevent API hammering");
+                    handleSleep(offsetChanged);
                 }
             } catch (InterruptedException e) {
                 log.warning("Caught InterruptedException, will set completed to 'true'.");
+                Thread.currentThread().interrupt();
                 completed = true;
             }
             return true;
         }
 
+        /**
+         * Fetch the next page of output into {@link #next}. If the API call fails, the page is empty and the next
+         * {@link #handleSleep(boolean)} waits before the retry, or the exception is rethrown once the retries are
+         * exhausted.
+         * 
+         * @return true if the offset has changed
+         */
+        protected boolean fetchNext() {
+            try {
+                return fetchPage();
+            } catch (RundeckApiException e) {
+                log.log(Level.WARNING, "Caught RuntimeException while handling API call for logs. Will retry for max [{0}] times or rethrow exception.", new Object[] {
+                        maxRetries, e });
+                retryOrThrowException(e);
+                return false;
+            }
+        }
+
+        /**
+         * Fetch the next page of output into {@link #next}, without retrying nor sleeping : the failures are handled by
+         * the caller ({@link #fetchNext()}, or {@link RunDeckParallelLogTail} which must not sleep on the shared pool).
+         * 
+         * @return true if the offset has changed
+         * @throws RundeckApiException
+         *             if the API call failed (the page is then empty)
+         */
+        protected boolean fetchPage() {
+            next = new ArrayList<RundeckOutputEntry>(maxlines);
+            log.log(Level.FINE, "Performing API call for executionId [{0}], using offset [{1}]. fetching a maximum of [{2}] lines.", new Object[] {
+                    executionId, offset, maxlines });
+            RundeckOutput rundeckOutput = fetchOutput();
+
+            completed = checkCompletionState(rundeckOutput);
+            if (Boolean.TRUE.equals(rundeckOutput.isUnmodified())) {
+                log.log(Level.FINE, "Output is unmodified since [{0}].", lastmod);
+                if (Boolean.TRUE.equals(rundeckOutput.isExecCompleted()) && !completed) {
+                    // should not happen : don't wait for a modification which will never come
+                    lastmod = -1;
+                }
+                retries = 0;
+                return false;
+            }
+            boolean offsetChanged = updateIterationState(rundeckOutput);
+            int entries = addRunDeckOutputEntriesToResults(rundeckOutput);
+            updateLastModified(rundeckOutput, entries);
+            retries = 0;
+            return offsetChanged;
+        }
+
+        /**
+         * Fetch the next lines of output, from the "output state" endpoint if Rundeck supports it (with a compressed
+         * response if possible, see {@link RundeckOutputFetcher}), or from the plain output endpoint otherwise. The
+         * output of a single node is fetched from its own endpoint.
+         */
+        private RundeckOutput fetchOutput() {
+            RundeckOutputFetcher fetcher = outputFetcher;
+            if (fetcher != null && (nodeName != null || capabilities.supports(Capability.EXECUTION_OUTPUT_STATE))) {
+                try {
+                    if (nodeName != null) {
+                        return fetcher.getExecutionOutputForNode(executionId, nodeName, offset, lastmod, maxlines);
+                    }
+                    return fetcher.getExecutionOutputState(executionId, offset, lastmod, maxlines);
+                } catch (RundeckApiException e) {
+                    if (RundeckCluster.isUnreachable(e, true)) {
+                        throw e;
+                    }
+                    // Rundeck answered, but not as expected : use the client from now on
+                    log.log(Level.WARNING, "Failed to fetch the compressed output, falling back to the Rundeck client : {0}", e.getMessage());
+                    outputFetcher = null;
+                }
+            }
+            if (nodeName != null) {
+                return rundeckClient.getExecutionOutputForNode(executionId, nodeName, offset, lastmod, maxlines);
+            }
+            if (capabilities.supports(Capability.EXECUTION_OUTPUT_STATE)) {
+                try {
+                    return rundeckClient.getExecutionOutputState(executionId, false, offset, lastmod, maxlines);
+                } catch (RundeckApiException e) {
+                    if (!capabilities.fallback(Capability.EXECUTION_OUTPUT_STATE, e)) {
+                        throw e;
+                    }
+                }
+            }
+            return rundeckClient.getJobExecutionOutput(executionId, offset, Math.max(lastmod, 0), maxlines);
+        }
+
         private boolean checkCompletionState(RundeckOutput rundeckOutput) {
 
             boolean outputCompleted = Boolean.TRUE.equals(rundeckOutput.isCompleted());
@@ -129,13 +252,12 @@ public class RunDeckLogTail implements Iterable<List<RundeckOutputEntry>> {
             return outputCompleted && execCompleted;
         }
 
-        private void sleepOrThrowException(RuntimeException e) throws InterruptedException {
+        private void retryOrThrowException(RuntimeException e) {
             if (retries >= maxRetries) {
                 log.log(Level.SEVERE, "Giving up after [{0}] retries...", new Object[] { maxRetries, e });
                 throw e;
             }
             retries++;
-            Thread.sleep(sleepRetry);
         }
 
         private boolean updateIterationState(RundeckOutput rundeckOutput) {
@@ -148,21 +270,45 @@ public class RunDeckLogTail implements Iterable<List<RundeckOutputEntry>> {
             return false;
         }
 
-        private void addRunDeckOutputEntriesToResults(RundeckOutput rundeckOutput) {
+        /**
+         * Rundeck answers "unmodified" to a call with a "lastmod" as long as the log has not been modified since, even
+         * if it has not been read until the end : it is only sent back once a page has not been filled.
+         */
+        private void updateLastModified(RundeckOutput rundeckOutput, int entries) {
+            Long lastModified = rundeckOutput.getLastModified();
+            if (lastModified != null && lastModified > 0 && entries < maxlines) {
+                lastmod = lastModified;
+            } else {
+                lastmod = -1;
+            }
+        }
+
+        /**
+         * @return the number of entries in the output (including the empty ones, which are filtered out)
+         */
+        private int addRunDeckOutputEntriesToResults(RundeckOutput rundeckOutput) {
 
             List<RundeckOutputEntry> runDeckOutputEntries = rundeckOutput.getLogEntries();
-            if (runDeckOutputEntries != null) {
-                log.log(Level.FINE, "Got [{0}] rundeckOutputEntries, filtering out empty results and appending resultset.", runDeckOutputEntries.size());
-                for (RundeckOutputEntry rundeckOutputEntry : runDeckOutputEntries) {
-                    if (rundeckOutputEntry.getMessage() != null) {
-                        next.add(rundeckOutputEntry);
-                    }
+            if (runDeckOutputEntries == null) {
+                return 0;
+            }
+            log.log(Level.FINE, "Got [{0}] rundeckOutputEntries, filtering out empty results and appending resultset.", runDeckOutputEntries.size());
+            for (RundeckOutputEntry rundeckOutputEntry : runDeckOutputEntries) {
+                if (rundeckOutputEntry.getMessage() != null) {
+                    next.add(rundeckOutputEntry);
                 }
             }
+            return runDeckOutputEntries.size();
         }
 
+        /**
+         * Sleep before the next API call : once per call, whether it failed (see {@link #fetchNext()}) or not
+         */
         private void handleSleep(boolean offsetChanged) throws InterruptedException {
-            if (offsetChanged) {
+            if (retries > 0) {
+                log.log(Level.FINE, "API call failed, sleeping for [{0}] ms before retrying.", sleepRetry);
+                Thread.sleep(sleepRetry);
+            } else if (offsetChanged) {
                 log.log(Level.FINE, "Offset has changed, sleeping for [{0}] ms.", sleepModified);
                 Thread.sleep(sleepModified);
             } else {
@@ -184,4 +330,130 @@ public class RunDeckLogTail implements Iterable<List<RundeckOutputEntry>> {
 
     }
 
+    /**
+     * Iterator fed by a background thread (see {@link RunDeckLogTail#pipelined(int)}). Only the pages with some
+     * output are returned. Call {@link #cancel()} if the iteration is stopped before the end.
+     */
+    public class PipelinedIterator implements Iterator<List<RundeckOutputEntry>> {
+
+        /** marks the end of the output */
+        private final Page end = new Page(null, null);
+
+        private final BlockingQueue<Page> pages;
+
+        private final Thread fetcher;
+
+        private Page current;
+
+        private boolean done;
+
+        protected PipelinedIterator(int capacity) {
+            this.pages = new ArrayBlockingQueue<Page>(Math.max(capacity, 1));
+            this.fetcher = new Thread(new Runnable() {
+
+                public void run() {
+                    fetchAll();
+                }
+            }, "Rundeck log tail of execution #" + executionId);
+            this.fetcher.setDaemon(true);
+            this.fetcher.start();
+        }
+
+        private void fetchAll() {
+            RunDeckLogTailIterator iterator = iterator();
+            try {
+                try {
+                    while (!iterator.completed) {
+                        boolean offsetChanged = iterator.fetchNext();
+                        if (!iterator.next.isEmpty()) {
+                            // blocks while the caller is behind : no API call until it catches up
+                            pages.put(new Page(iterator.next, null));
+                        }
+                        if (!iterator.completed) {
+                            iterator.handleSleep(offsetChanged);
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    pages.put(new Page(null, e));
+                    return;
+                }
+                pages.put(end);
+            } catch (InterruptedException e) {
+                log.log(Level.FINE, "Log tail of execution [{0}] has been cancelled.", executionId);
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Wait for the next page with some output.
+         * 
+         * @throws RundeckApiException
+         *             if the output could not be fetched, after all the retries
+         */
+        public boolean hasNext() {
+            if (current != null) {
+                return true;
+            }
+            if (done) {
+                return false;
+            }
+            Page page;
+            try {
+                page = pages.take();
+            } catch (InterruptedException e) {
+                log.warning("Caught InterruptedException, will set completed to 'true'.");
+                Thread.currentThread().interrupt();
+                cancel();
+                return false;
+            }
+            if (page.failure != null) {
+                done = true;
+                throw page.failure;
+            }
+            if (page == end) {
+                done = true;
+                return false;
+            }
+            current = page;
+            return true;
+        }
+
+        public List<RundeckOutputEntry> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            List<RundeckOutputEntry> entries = current.entries;
+            current = null;
+            return entries;
+        }
+
+        /**
+         * Stop fetching the output.
+         */
+        public void cancel() {
+            done = true;
+            current = null;
+            fetcher.interrupt();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * A page of output, or the failure which stopped the tail.
+     */
+    private static class Page {
+
+        private final List<RundeckOutputEntry> entries;
+
+        private final RuntimeException failure;
+
+        private Page(List<RundeckOutputEntry> entries, RuntimeException failure) {
+            this.entries = entries != null ? entries : Collections.<RundeckOutputEntry> emptyList();
+            this.failure = failure;
+        }
+    }
+
 }
@@ -0,0 +1,88 @@
+package org.jenkinsci.plugins.rundeck;
+
+import hudson.model.TaskListener;
+import hudson.remoting.Callable;
+import java.io.PrintStream;
+import java.util.List;
+import org.apache.commons.lang.StringUtils;
+import org.rundeck.api.RundeckApiException;
+import org.rundeck.api.RundeckClient;
+import org.rundeck.api.domain.RundeckOutputEntry;
+
+/**
+ * Tails the log of a Rundeck execution on the node running the build (see {@link RundeckNotifier#getTailOnAgent()}) :
+ * the output is fetched and formatted there, and each page is sent back to the build log as a single batch, so that the
+ * controller only relays the console stream.
+ * <p>
+ * The {@link RundeckClient} is not serializable : it is built again on the agent, from the URL (of the node of a
+ * cluster chosen by the controller), the token and the API version of the controller's client. The token is sent to
+ * the agent : only the instances using a token are supported (see {@link #supports(RundeckClient)}), so that a login
+ * and password are never sent.
+ */
+public class RunDeckLogTailCallable implements Callable<Integer, RundeckApiException> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String url;
+
+    private final String token;
+
+    private final int apiVersion;
+
+    private final Long executionId;
+
+    private final TaskListener listener;
+
+    /**
+     * @param rundeck client used by the controller (using a token)
+     * @param executionId of the execution to tail
+     * @param listener of the build (remoted to the agent)
+     * @throws IllegalArgumentException if the client does not use a token
+     */
+    public RunDeckLogTailCallable(RundeckClient rundeck, Long executionId, TaskListener listener) {
+        if (!supports(rundeck)) {
+            throw new IllegalArgumentException("The log can only be tailed on the build node with a token authentication");
+        }
+        this.url = rundeck.getUrl();
+        this.token = rundeck.getToken();
+        this.apiVersion = RundeckApiCapabilities.forClient(rundeck).getApiVersion();
+        this.executionId = executionId;
+        this.listener = listener;
+    }
+
+    /**
+     * @param rundeck client of a Rundeck instance
+     * @return true if its log can be tailed on the build node : only the token is sent there, never a password
+     */
+    public static boolean supports(RundeckClient rundeck) {
+        return rundeck != null && StringUtils.isNotBlank(rundeck.getToken());
+    }
+
+    /**
+     * @return the number of lines written to the build log
+     */
+    public Integer call() throws RundeckApiException {
+        RundeckClient rundeck = RundeckClient.builder().url(url).token(token).version(apiVersion).build();
+        // the agent has its own JVM : tell it what the controller negotiated
+        RundeckApiCapabilities.record(url, apiVersion);
+
+        PrintStream logger = listener.getLogger();
+        int lines = 0;
+        RunDeckLogTail.PipelinedIterator iterator = new RunDeckLogTail(rundeck, executionId).pipelined(RunDeckLogTail.DEFAULT_PIPELINE_CAPACITY);
+        try {
+            while (iterator.hasNext()) {
+                List<RundeckOutputEntry> entries = iterator.next();
+                StringBuilder batch = new StringBuilder();
+                for (RundeckOutputEntry entry : entries) {
+                    batch.append(RunDeckLogTail.format(entry)).append('\n');
+                }
+                logger.print(batch);
+                logger.flush();
+                lines += entries.size();
+            }
+        } finally {
+            iterator.cancel();
+        }
+        return lines;
+    }
+}
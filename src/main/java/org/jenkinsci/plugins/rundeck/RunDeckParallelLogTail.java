@@ -0,0 +1,437 @@
+package org.jenkinsci.plugins.rundeck;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.rundeck.api.RundeckApiException;
+import org.rundeck.api.RundeckClient;
+import org.rundeck.api.domain.RundeckExecutionState;
+import org.rundeck.api.domain.RundeckNodeIdentity;
+import org.rundeck.api.domain.RundeckOutputEntry;
+import org.jenkinsci.plugins.rundeck.RundeckApiCapabilities.Capability;
+
+/**
+ * Tails the output of each node of an execution separately, with its own offset : on a large multi-node execution,
+ * the nodes are followed in parallel instead of reading their interleaved output one page at a time.
+ * <p>
+ * The polls of all the nodes run on the shared pool of {@link RundeckAsyncClient} (no thread is busy between 2 polls,
+ * nor while waiting to retry a failed poll).
+ * A node is polled again once its last page has been written, so the pages waiting to be written are limited to one
+ * per node. The pages received together are merged by time before being written to the {@link Sink} : the absolute
+ * time of the lines when Rundeck provides it (see {@link RundeckOutputFetcher.TimedOutputEntry}), otherwise their time
+ * of the day (a line earlier than the previous line of its node, by more than 12 hours, is on the next day).
+ */
+public class RunDeckParallelLogTail {
+
+    private static final Logger log = Logger.getLogger(RunDeckParallelLogTail.class.getName());
+
+    /** Delay during which the pages of the other nodes are waited for, to be merged with the first one, in ms */
+    static final long MERGE_WINDOW = 500;
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    private static final Comparator<NodeEntry> BY_TIME = new Comparator<NodeEntry>() {
+
+        public int compare(NodeEntry a, NodeEntry b) {
+            return a.time < b.time ? -1 : (a.time == b.time ? 0 : 1);
+        }
+    };
+
+    /**
+     * Destination of the output of the nodes
+     */
+    public interface Sink {
+
+        void write(String node, RundeckOutputEntry entry) throws IOException;
+    }
+
+    private final RundeckClient rundeckClient;
+    private final Long executionId;
+    private final int maxlines;
+    private final int maxRetries;
+    private final long sleepRetry;
+    private final long sleepUnmodified;
+    private final long sleepModified;
+    private final RundeckApiCapabilities capabilities;
+
+    private volatile boolean cancelled;
+
+    public RunDeckParallelLogTail(RundeckClient rundeckClient, Long executionId) {
+        this(rundeckClient, executionId, 50, 5, 15000L, 5000L, 2000L);
+    }
+
+    /**
+     * @see RunDeckLogTail#RunDeckLogTail(RundeckClient, Long, int, int, long, long, long)
+     */
+    public RunDeckParallelLogTail(RundeckClient rundeckClient, Long executionId, int maxlines, int maxRetries, long sleepRetry, long sleepUnmodified, long sleepModified) {
+        this.rundeckClient = rundeckClient;
+        this.executionId = executionId;
+        this.maxlines = maxlines;
+        this.maxRetries = maxRetries;
+        this.sleepRetry = sleepRetry;
+        this.sleepUnmodified = sleepUnmodified;
+        this.sleepModified = sleepModified;
+        this.capabilities = RundeckApiCapabilities.forClient(rundeckClient);
+    }
+
+    /**
+     * @return true if Rundeck can provide the output of each node
+     */
+    public boolean isSupported() {
+        return capabilities.supports(Capability.EXECUTION_OUTPUT_PER_NODE);
+    }
+
+    /**
+     * Get the target nodes of the execution : they may not be known yet when it has just started, in which case the
+     * state of the execution is read again (at most maxRetries times). The state is read on the shared pool (through
+     * the healthiest node of a cluster), and a failed read is retried like the polls of the nodes.
+     *
+     * @return the names of the nodes (empty if they are not known, or if Rundeck does not support it)
+     * @throws RundeckApiException if the state could not be read, after all the retries
+     */
+    public List<String> getNodes() throws InterruptedException {
+        NodesLookup lookup = new NodesLookup();
+        lookup.schedule(0);
+        try {
+            Object result = lookup.result.take();
+            if (result instanceof RuntimeException) {
+                throw (RuntimeException) result;
+            }
+            @SuppressWarnings("unchecked")
+            List<String> nodes = (List<String>) result;
+            return nodes;
+        } finally {
+            lookup.cancelled = true;
+        }
+    }
+
+    /**
+     * Follow the output of the given nodes until it has been completely read
+     *
+     * @throws RundeckApiException if the output of a node could not be fetched, after all the retries
+     * @throws IOException if the output could not be written
+     */
+    public void tail(List<String> nodes, Sink sink) throws InterruptedException, IOException {
+        BlockingQueue<NodePage> pages = new LinkedBlockingQueue<NodePage>();
+        for (String node : nodes) {
+            RunDeckLogTail nodeTail = new RunDeckLogTail(rundeckClient, executionId, node, maxlines, maxRetries, sleepRetry, sleepUnmodified, sleepModified);
+            new NodePoll(node, nodeTail.iterator(), pages).schedule(0);
+        }
+        int remaining = nodes.size();
+        try {
+            while (remaining > 0) {
+                List<NodePage> received = new ArrayList<NodePage>();
+                received.add(pages.take());
+                // the pages of the other nodes are merged with this one
+                long deadline = System.currentTimeMillis() + MERGE_WINDOW;
+                for (long wait = MERGE_WINDOW; wait > 0; wait = deadline - System.currentTimeMillis()) {
+                    NodePage page = pages.poll(wait, TimeUnit.MILLISECONDS);
+                    if (page == null) {
+                        break;
+                    }
+                    received.add(page);
+                }
+                pages.drainTo(received);
+
+                List<NodeEntry> entries = new ArrayList<NodeEntry>();
+                for (NodePage page : received) {
+                    if (page.failure != null) {
+                        throw page.failure;
+                    }
+                    for (RundeckOutputEntry entry : page.entries) {
+                        entries.add(new NodeEntry(page.poll.node, entry, page.poll.timeOf(entry)));
+                    }
+                }
+                // stable : the order of the lines of each node is kept
+                Collections.sort(entries, BY_TIME);
+                for (NodeEntry entry : entries) {
+                    sink.write(entry.node, entry.entry);
+                }
+                for (NodePage page : received) {
+                    if (page.completed) {
+                        remaining--;
+                    } else {
+                        page.poll.schedule(page.offsetChanged ? sleepModified : sleepUnmodified);
+                    }
+                }
+            }
+        } finally {
+            cancelled = true;
+        }
+    }
+
+    /**
+     * One read of the state of the execution, to get its nodes : run on the shared pool, and scheduled again until
+     * the nodes are known
+     */
+    private class NodesLookup implements Runnable, RundeckCluster.Call<RundeckExecutionState> {
+
+        /** the nodes, or the failure */
+        private final BlockingQueue<Object> result = new LinkedBlockingQueue<Object>();
+
+        private volatile boolean cancelled;
+
+        private int retries;
+
+        private int attempts;
+
+        private void schedule(long delay) {
+            RundeckAsyncClient.schedule(this, delay);
+        }
+
+        public RundeckExecutionState call(RundeckClient rundeck) throws RundeckApiException {
+            return rundeck.getExecutionState(executionId);
+        }
+
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            RundeckExecutionState state;
+            try {
+                state = RundeckCluster.call(rundeckClient, this, true);
+            } catch (RundeckApiException e) {
+                if (capabilities.fallback(Capability.EXECUTION_OUTPUT_PER_NODE, e)) {
+                    result.add(Collections.<String> emptyList());
+                } else if (retries >= maxRetries) {
+                    result.add(e);
+                } else {
+                    retries++;
+                    log.log(Level.WARNING, "Failed to get the nodes of execution [{0}], will retry in [{1}] ms : {2}", new Object[] { executionId, sleepRetry, e.getMessage() });
+                    schedule(sleepRetry);
+                }
+                return;
+            } catch (RuntimeException e) {
+                result.add(e);
+                return;
+            }
+            if (state != null && state.getTargetNodes() != null && !state.getTargetNodes().isEmpty()) {
+                List<String> nodes = new ArrayList<String>(state.getTargetNodes().size());
+                for (RundeckNodeIdentity node : state.getTargetNodes()) {
+                    nodes.add(node.getName());
+                }
+                Collections.sort(nodes);
+                result.add(nodes);
+            } else if (attempts++ >= maxRetries) {
+                result.add(Collections.<String> emptyList());
+            } else {
+                // not known yet
+                schedule(sleepModified);
+            }
+        }
+    }
+
+    /**
+     * One poll of the output of a node : run on the shared pool, and scheduled again once its page has been written
+     * (or right away if the page is empty)
+     */
+    private class NodePoll implements Runnable {
+
+        private final String node;
+
+        private final RunDeckLogTail.RunDeckLogTailIterator iterator;
+
+        private final BlockingQueue<NodePage> pages;
+
+        /** time of the last line written, in ms (only used by the thread writing the output) */
+        private long lastTime;
+
+        private NodePoll(String node, RunDeckLogTail.RunDeckLogTailIterator iterator, BlockingQueue<NodePage> pages) {
+            this.node = node;
+            this.iterator = iterator;
+            this.pages = pages;
+        }
+
+        private void schedule(long delay) {
+            RundeckAsyncClient.schedule(this, delay);
+        }
+
+        /**
+         * @return the time of the given line, in ms, to be merged with the lines of the other nodes (a line without
+         *         time is kept after the previous line of its node)
+         */
+        private long timeOf(RundeckOutputEntry entry) {
+            if (entry instanceof RundeckOutputFetcher.TimedOutputEntry
+                && ((RundeckOutputFetcher.TimedOutputEntry) entry).getAbsoluteTime() >= 0) {
+                lastTime = ((RundeckOutputFetcher.TimedOutputEntry) entry).getAbsoluteTime();
+                return lastTime;
+            }
+            long timeOfDay = parseTimeOfDay(entry.getTime());
+            if (timeOfDay >= 0) {
+                long time = lastTime - lastTime % DAY + timeOfDay;
+                // past midnight
+                if (time < lastTime - DAY / 2) {
+                    time += DAY;
+                }
+                lastTime = time;
+            }
+            return lastTime;
+        }
+
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            boolean offsetChanged;
+            try {
+                offsetChanged = iterator.fetchPage();
+            } catch (RundeckApiException e) {
+                // retried later : sleeping here would hold a thread of the shared pool
+                if (iterator.retries >= maxRetries) {
+                    log.log(Level.SEVERE, "Giving up the log tail of node [{0}] after [{1}] retries...", new Object[] { node, maxRetries, e });
+                    pages.add(new NodePage(this, e));
+                } else {
+                    iterator.retries++;
+                    log.log(Level.WARNING, "Failed to fetch the log of node [{0}], will retry in [{1}] ms : {2}", new Object[] { node, sleepRetry, e.getMessage() });
+                    schedule(sleepRetry);
+                }
+                return;
+            } catch (RuntimeException e) {
+                pages.add(new NodePage(this, e));
+                return;
+            }
+            if (iterator.next.isEmpty() && !iterator.completed) {
+                schedule(offsetChanged ? sleepModified : sleepUnmodified);
+            } else {
+                pages.add(new NodePage(this, iterator.next, offsetChanged, iterator.completed));
+            }
+        }
+    }
+
+    /**
+     * @param time of a line ("HH:mm:ss")
+     * @return the time of the day, in ms, or -1 if it is not valid
+     */
+    static long parseTimeOfDay(String time) {
+        String[] fields = time != null ? time.trim().split(":") : new String[0];
+        if (fields.length != 3) {
+            return -1;
+        }
+        try {
+            return TimeUnit.HOURS.toMillis(Integer.parseInt(fields[0]))
+                   + TimeUnit.MINUTES.toMillis(Integer.parseInt(fields[1]))
+                   + TimeUnit.SECONDS.toMillis(Integer.parseInt(fields[2]));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * A page of output of a node, or the failure which stopped its tail
+     */
+    private static class NodePage {
+
+        private final NodePoll poll;
+
+        private final List<RundeckOutputEntry> entries;
+
+        private final boolean offsetChanged;
+
+        private final boolean completed;
+
+        private final RuntimeException failure;
+
+        private NodePage(NodePoll poll, List<RundeckOutputEntry> entries, boolean offsetChanged, boolean completed) {
+            this.poll = poll;
+            this.entries = entries;
+            this.offsetChanged = offsetChanged;
+            this.completed = completed;
+            this.failure = null;
+        }
+
+        private NodePage(NodePoll poll, RuntimeException failure) {
+            this.poll = poll;
+            this.entries = Collections.emptyList();
+            this.offsetChanged = false;
+            this.completed = true;
+            this.failure = failure;
+        }
+    }
+
+    private static class NodeEntry {
+
+        private final String node;
+
+        private final RundeckOutputEntry entry;
+
+        private final long time;
+
+        private NodeEntry(String node, RundeckOutputEntry entry, long time) {
+            this.node = node;
+            this.entry = entry;
+            this.time = time;
+        }
+    }
+
+    /**
+     * Writes the output of all the nodes to a stream (the build log), each line prefixed with its node
+     */
+    public static class ConsoleSink implements Sink {
+
+        private final PrintStream logger;
+
+        public ConsoleSink(PrintStream logger) {
+            this.logger = logger;
+        }
+
+        public void write(String node, RundeckOutputEntry entry) {
+            logger.println("[" + node + "] " + RunDeckLogTail.format(entry));
+        }
+    }
+
+    /**
+     * Writes the output of each node to its own file ("NODE.log"), in a directory
+     */
+    public static class FileSink implements Sink, Closeable {
+
+        private final File directory;
+
+        private final Map<String, PrintWriter> files = new LinkedHashMap<String, PrintWriter>();
+
+        public FileSink(File directory) {
+            this.directory = directory;
+        }
+
+        public void write(String node, RundeckOutputEntry entry) throws IOException {
+            PrintWriter file = files.get(node);
+            if (file == null) {
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    throw new IOException("Failed to create the directory " + directory);
+                }
+                file = new PrintWriter(new OutputStreamWriter(new FileOutputStream(new File(directory, getFileName(node))), "UTF-8"));
+                files.put(node, file);
+            }
+            file.println(RunDeckLogTail.format(entry));
+        }
+
+        /**
+         * @return the name of the file of the node (without the characters which are not safe in a file name)
+         */
+        static String getFileName(String node) {
+            return node.replaceAll("[^a-zA-Z0-9._-]", "_") + ".log";
+        }
+
+        public void close() {
+            for (PrintWriter file : files.values()) {
+                file.close();
+            }
+            files.clear();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.jenkinsci.plugins.rundeck;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+import org.rundeck.api.RundeckApiException;
+import org.rundeck.api.RundeckClient;
+
+/**
+ * API capabilities of a Rundeck server, derived from the API version negotiated with it (see
+ * {@link RundeckNotifier.RundeckDescriptor#negotiateApiVersion}). The plugin uses the cheaper endpoints when the server
+ * supports them, and falls back to the older ones otherwise. A capability which fails at runtime with an "unsupported
+ * API version" error is disabled for the server, so that the fallback is used from then on.
+ */
+public final class RundeckApiCapabilities {
+
+    private static final Logger log = Logger.getLogger(RundeckApiCapabilities.class.getName());
+
+    /**
+     * Optional endpoints, with the API version which introduced them
+     */
+    public enum Capability {
+
+        /** incremental output, with the state of the execution ("/execution/ID/output/state") */
+        EXECUTION_OUTPUT_STATE(10),
+
+        /** state of the execution on each node ("/execution/ID/state"), and output of a single node */
+        EXECUTION_OUTPUT_PER_NODE(10);
+
+        private final int minApiVersion;
+
+        private Capability(int minApiVersion) {
+            this.minApiVersion = minApiVersion;
+        }
+
+        public int getMinApiVersion() {
+            return minApiVersion;
+        }
+    }
+
+    private static final ConcurrentMap<String, RundeckApiCapabilities> CAPABILITIES = new ConcurrentHashMap<String, RundeckApiCapabilities>();
+
+    private final int apiVersion;
+
+    private final Set<Capability> disabled = Collections.synchronizedSet(EnumSet.noneOf(Capability.class));
+
+    RundeckApiCapabilities(int apiVersion) {
+        this.apiVersion = apiVersion;
+    }
+
+    /**
+     * Record the API version used with a Rundeck server (replaces its previous capabilities)
+     *
+     * @param url of the Rundeck server
+     * @param apiVersion negotiated (or configured) with the server
+     */
+    public static void record(String url, int apiVersion) {
+        CAPABILITIES.put(String.valueOf(url), new RundeckApiCapabilities(apiVersion));
+    }
+
+    /**
+     * @param rundeck client of a Rundeck server
+     * @return the capabilities of the server (all of them, if its API version has not been recorded)
+     */
+    public static RundeckApiCapabilities forClient(RundeckClient rundeck) {
+        String url = String.valueOf(rundeck.getUrl());
+        RundeckApiCapabilities capabilities = CAPABILITIES.get(url);
+        if (capabilities == null) {
+            // unknown server : be optimistic, the first failure will disable the capability
+            capabilities = new RundeckApiCapabilities(RundeckClient.API_VERSION);
+            RundeckApiCapabilities existing = CAPABILITIES.putIfAbsent(url, capabilities);
+            if (existing != null) {
+                capabilities = existing;
+            }
+        }
+        return capabilities;
+    }
+
+    /**
+     * @return the API version used with the server
+     */
+    public int getApiVersion() {
+        return apiVersion;
+    }
+
+    /**
+     * @param capability to check
+     * @return true if the server supports it (and it has not failed)
+     */
+    public boolean supports(Capability capability) {
+        return apiVersion >= capability.getMinApiVersion() && !disabled.contains(capability);
+    }
+
+    /**
+     * Handle the failure of a call which used the given capability
+     *
+     * @param capability used by the call
+     * @param e error returned by the call
+     * @return true if the capability has been disabled (and the call should be retried with the fallback endpoint),
+     *         false if the error is not related to the API version (and should be handled as usual)
+     */
+    public boolean fallback(Capability capability, RundeckApiException e) {
+        if (!RundeckNotifier.RundeckDescriptor.isUnsupportedApiVersion(e)) {
+            return false;
+        }
+        if (disabled.add(capability)) {
+            log.warning("Rundeck does not support " + capability + " (API " + apiVersion + "), falling back : "
+                        + e.getMessage());
+        }
+        return true;
+    }
+}
@@ -0,0 +1,291 @@
+package org.jenkinsci.plugins.rundeck;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.rundeck.api.RunJob;
+import org.rundeck.api.RundeckApiException;
+import org.rundeck.api.RundeckClient;
+import org.rundeck.api.domain.RundeckExecution;
+import org.rundeck.api.domain.RundeckExecution.ExecutionStatus;
+import org.rundeck.api.domain.RundeckJob;
+import org.rundeck.api.domain.RundeckOutput;
+
+/**
+ * Asynchronous facade of a {@link RundeckClient} : every call returns a {@link Future}, and runs on a small pool
+ * shared by all the builds (the Rundeck client itself is blocking). Waiting for the end of an execution does not hold
+ * a thread at all between two polls : a single timer schedules the polls of all the executions being waited for.
+ * <p>
+ * The calls are routed through {@link RundeckCluster}, like the blocking ones.
+ */
+public class RundeckAsyncClient {
+
+    /** Number of threads running the calls to Rundeck, for all the builds */
+    static final int THREADS = Integer.getInteger(RundeckAsyncClient.class.getName() + ".threads", 8);
+
+    /** Capacity of the queue of the calls waiting for a thread */
+    static final int QUEUE_CAPACITY = 10000;
+
+    /** Delay before a scheduled task is handed to the pool again, when its queue was full, in milliseconds */
+    static final long RESUBMIT_DELAY = 1000;
+
+    /** Default delay between 2 polls of a running execution, in milliseconds */
+    public static final long DEFAULT_POLL_INTERVAL = 5000;
+
+    private static final Runnable NOTHING = new Runnable() {
+
+        public void run() {
+        }
+    };
+
+    private static final ThreadPoolExecutor CALLS = createCallPool();
+
+    private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("Rundeck execution poller"));
+
+    private final RundeckClient rundeck;
+
+    /**
+     * @param rundeck client used for the calls (or the first node of its cluster)
+     */
+    public RundeckAsyncClient(RundeckClient rundeck) {
+        this.rundeck = rundeck;
+    }
+
+    private static ThreadPoolExecutor createCallPool() {
+        // when the queue is full, the caller makes the call itself : slower, but nothing is lost
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, 60L, TimeUnit.SECONDS,
+                                                             new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY),
+                                                             new DaemonThreadFactory("Rundeck API call"),
+                                                             new RejectionPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Run a blocking task (usually made of several calls to Rundeck) on the shared pool
+     *
+     * @param task to run
+     * @return the result of the task
+     */
+    public static <T> Future<T> submit(Callable<T> task) {
+        return CALLS.submit(task);
+    }
+
+    /**
+     * Run a blocking task on the shared pool after a delay, without holding a thread in between. The task never runs
+     * on the timer thread : if the pool is saturated, it is handed to the pool again a bit later.
+     *
+     * @param task to run
+     * @param delay in milliseconds
+     */
+    static void schedule(Runnable task, long delay) {
+        new ScheduledTask(task).schedule(delay);
+    }
+
+    /**
+     * @return the client of the node which answered
+     */
+    public Future<RundeckClient> ping() {
+        return call(new RundeckCluster.Call<RundeckClient>() {
+
+            public RundeckClient call(RundeckClient node) {
+                node.ping();
+                return node;
+            }
+        }, true);
+    }
+
+    public Future<RundeckExecution> triggerJob(final RunJob job) {
+        return call(new RundeckCluster.Call<RundeckExecution>() {
+
+            public RundeckExecution call(RundeckClient node) {
+                return node.triggerJob(job);
+            }
+        }, false);
+    }
+
+    public Future<RundeckExecution> getExecution(final Long executionId) {
+        return call(new GetExecution(executionId), true);
+    }
+
+    public Future<RundeckOutput> getExecutionOutputState(final Long executionId, final boolean stateOnly,
+            final int offset, final long lastmod, final int maxlines) {
+        return call(new RundeckCluster.Call<RundeckOutput>() {
+
+            public RundeckOutput call(RundeckClient node) {
+                return node.getExecutionOutputState(executionId, stateOnly, offset, lastmod, maxlines);
+            }
+        }, true);
+    }
+
+    /**
+     * @param jobIdentifier either a simple ID, an UUID or a reference (project:group/name)
+     * @see RundeckNotifier.RundeckDescriptor#findJob(String, RundeckClient)
+     */
+    public Future<RundeckJob> findJob(final String jobIdentifier) {
+        return call(new RundeckCluster.Call<RundeckJob>() {
+
+            public RundeckJob call(RundeckClient node) {
+                return RundeckNotifier.RundeckDescriptor.findJob(jobIdentifier, node);
+            }
+        }, true);
+    }
+
+    /**
+     * Wait for the end of an execution, without holding a thread between the polls
+     *
+     * @param executionId of a running execution
+     * @param pollInterval delay between 2 polls, in milliseconds
+     * @return the finished execution (cancel it to stop polling)
+     */
+    public Future<RundeckExecution> waitForCompletion(Long executionId, long pollInterval) {
+        Completion<RundeckExecution> completion = new Completion<RundeckExecution>();
+        new Poll(completion, executionId, pollInterval).schedule();
+        return completion;
+    }
+
+    private <T> Future<T> call(final RundeckCluster.Call<T> call, final boolean idempotent) {
+        return CALLS.submit(new Callable<T>() {
+
+            public T call() throws RundeckApiException {
+                return RundeckCluster.call(rundeck, call, idempotent);
+            }
+        });
+    }
+
+    private static class GetExecution implements RundeckCluster.Call<RundeckExecution> {
+
+        private final Long executionId;
+
+        private GetExecution(Long executionId) {
+            this.executionId = executionId;
+        }
+
+        public RundeckExecution call(RundeckClient node) {
+            return node.getExecution(executionId);
+        }
+    }
+
+    /**
+     * One poll of a running execution : scheduled by the timer, run on the pool, and scheduled again until the
+     * execution is finished
+     */
+    private class Poll implements Runnable {
+
+        private final Completion<RundeckExecution> completion;
+
+        private final Long executionId;
+
+        private final long pollInterval;
+
+        private Poll(Completion<RundeckExecution> completion, Long executionId, long pollInterval) {
+            this.completion = completion;
+            this.executionId = executionId;
+            this.pollInterval = pollInterval;
+        }
+
+        private void schedule() {
+            RundeckAsyncClient.schedule(this, pollInterval);
+        }
+
+        public void run() {
+            if (completion.isDone()) {
+                // cancelled
+                return;
+            }
+            try {
+                RundeckExecution execution = RundeckCluster.call(rundeck, new GetExecution(executionId), true);
+                if (ExecutionStatus.RUNNING.equals(execution.getStatus())) {
+                    schedule();
+                } else {
+                    completion.complete(execution);
+                }
+            } catch (RuntimeException e) {
+                completion.fail(e);
+            }
+        }
+    }
+
+    /**
+     * {@link Future} completed from the outside
+     */
+    private static class Completion<V> extends FutureTask<V> {
+
+        private Completion() {
+            super(NOTHING, null);
+        }
+
+        private void complete(V value) {
+            set(value);
+        }
+
+        private void fail(Throwable t) {
+            setException(t);
+        }
+    }
+
+    /**
+     * Task handed by the timer to the pool (see {@link #schedule(Runnable, long)})
+     */
+    private static class ScheduledTask implements Runnable {
+
+        private final Runnable task;
+
+        private ScheduledTask(Runnable task) {
+            this.task = task;
+        }
+
+        private void schedule(long delay) {
+            TIMER.schedule(new Runnable() {
+
+                public void run() {
+                    CALLS.execute(ScheduledTask.this);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+
+        public void run() {
+            task.run();
+        }
+    }
+
+    /**
+     * Runs the rejected calls in the caller thread, except the scheduled tasks : the timer would otherwise stop polling
+     * the executions of all the builds while running them
+     */
+    private static class RejectionPolicy implements RejectedExecutionHandler {
+
+        private final RejectedExecutionHandler callerRuns = new ThreadPoolExecutor.CallerRunsPolicy();
+
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            if (runnable instanceof ScheduledTask) {
+                if (!executor.isShutdown()) {
+                    ((ScheduledTask) runnable).schedule(RESUBMIT_DELAY);
+                }
+            } else {
+                callerRuns.rejectedExecution(runnable, executor);
+            }
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        private final String name;
+
+        private DaemonThreadFactory(String name) {
+            this.name = name;
+        }
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
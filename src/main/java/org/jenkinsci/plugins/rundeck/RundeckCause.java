@@ -7,45 +7,75 @@ import hudson.model.Cause;
 import org.apache.commons.lang.StringUtils;
 import org.rundeck.api.domain.RundeckExecution;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
- * The cause of a Rundeck initiated build (encapsulates the {@link RundeckExecution} at the origin of the Rundeck
- * notification).
- * 
+ * The cause of a Rundeck initiated build (encapsulates a {@link RundeckExecutionSnapshot} of the
+ * {@link RundeckExecution} at the origin of the Rundeck notification).
+ *
  * @author Vincent Behar
  */
 public class RundeckCause extends Cause {
 
-    private static final Pattern ARG_STRING_PATTERN = Pattern.compile("(\\S+)\\s\"?(.+)");
+    private RundeckExecutionSnapshot snapshot;
 
-    private final RundeckExecution execution;
+    /**
+     * Full execution, persisted by the previous versions of the plugin : only read to migrate the old builds
+     *
+     * @deprecated replaced by {@link #snapshot}
+     */
+    @Deprecated
+    private RundeckExecution execution;
 
     /**
      * Instantiate a new cause for the given execution
-     * 
+     *
      * @param execution at the origin of the Rundeck notification
      */
     public RundeckCause(RundeckExecution execution) {
+        this(execution != null ? new RundeckExecutionSnapshot(execution) : null);
+    }
+
+    /**
+     * Instantiate a new cause for the given execution
+     *
+     * @param snapshot of the execution at the origin of the Rundeck notification
+     */
+    public RundeckCause(RundeckExecutionSnapshot snapshot) {
         super();
-        this.execution = execution;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Migrate the builds persisted with a full {@link RundeckExecution}
+     */
+    protected Object readResolve() {
+        if (snapshot == null && execution != null) {
+            snapshot = new RundeckExecutionSnapshot(execution);
+        }
+        execution = null;
+        return this;
     }
 
     @Override
     public String getShortDescription() {
         StringBuilder description = new StringBuilder();
-        if (execution != null) {
+        if (snapshot != null) {
             description.append("Started by <a href=\"");
-            description.append(execution.getUrl());
+            description.append(snapshot.getUrl());
             description.append("\">Rundeck Execution #");
-            description.append(execution.getId());
+            description.append(snapshot.getId());
             description.append("</a>");
-            if (execution.getJob() != null) {
+            if (snapshot.hasJob()) {
                 description.append(" [");
-                description.append(execution.getJob().getProject());
+                description.append(snapshot.getProject());
                 description.append("] ");
-                description.append(execution.getJob().getFullName());
+                description.append(snapshot.getJobFullName());
             }
         } else {
             description.append("Started by a Rundeck Notification");
@@ -53,17 +83,28 @@ public class RundeckCause extends Cause {
         return description.toString();
     }
 
+    /**
+     * @return the snapshot of the execution at the origin of the Rundeck notification
+     */
+    public RundeckExecutionSnapshot getExecution() {
+        return snapshot;
+    }
+
     @Override
     public void onAddedTo(AbstractBuild build) {
         super.onAddedTo(build);
-        build.addAction(new RundeckExecutionEnvironmentContributingAction(execution));
+        // a build could be started by several aggregated notifications : the first one contributes the environment
+        if (build.getAction(RundeckExecutionEnvironmentContributingAction.class) == null) {
+            // shares the same snapshot, persisted only once in the build record
+            build.addAction(new RundeckExecutionEnvironmentContributingAction(snapshot));
+        }
     }
 
     @Override
     public int hashCode() {
         final int prime = 31;
         int result = 1;
-        result = prime * result + ((execution == null) ? 0 : execution.hashCode());
+        result = prime * result + ((snapshot == null) ? 0 : snapshot.hashCode());
         return result;
     }
 
@@ -76,89 +117,221 @@ public class RundeckCause extends Cause {
         if (getClass() != obj.getClass())
             return false;
         RundeckCause other = (RundeckCause) obj;
-        if (execution == null) {
-            if (other.execution != null)
+        if (snapshot == null) {
+            if (other.snapshot != null)
                 return false;
-        } else if (!execution.equals(other.execution))
+        } else if (!snapshot.equals(other.snapshot))
             return false;
         return true;
     }
 
     @Override
     public String toString() {
-        return "RundeckCause [execution=" + execution + "]";
+        return "RundeckCause [execution=" + snapshot + "]";
+    }
+
+    /**
+     * Parse the arguments of a Rundeck execution ("-name value -other 'quoted value'"), in a single pass. Values may
+     * be quoted with double quotes (with backslash escapes) or single quotes, and unquoted values end at the next
+     * option (keeping the spacing between their words). Options without a value are ignored.
+     *
+     * @param argstring of the execution (could be null)
+     * @return the values of the options, by name (in the order of the argstring)
+     */
+    static Map<String, String> parseArgstring(String argstring) {
+        Map<String, String> args = new LinkedHashMap<String, String>();
+        if (StringUtils.isEmpty(argstring)) {
+            return args;
+        }
+        String name = null;
+        boolean hasValue = false;
+        StringBuilder value = new StringBuilder();
+        StringBuilder token = new StringBuilder();
+        int length = argstring.length();
+        int i = 0;
+        while (i < length) {
+            // skip the whitespaces between tokens (kept as is between the words of a value)
+            int separator = i;
+            while (i < length && Character.isWhitespace(argstring.charAt(i))) {
+                i++;
+            }
+            if (i >= length) {
+                break;
+            }
+            int start = i;
+            token.setLength(0);
+            boolean quoted = false;
+            char c = argstring.charAt(i);
+            if (c == '"' || c == '\'') {
+                quoted = true;
+                i++;
+                while (i < length && argstring.charAt(i) != c) {
+                    if (c == '"' && argstring.charAt(i) == '\\' && i + 1 < length) {
+                        i++;
+                    }
+                    token.append(argstring.charAt(i++));
+                }
+                // closing quote
+                i++;
+            } else {
+                while (i < length && !Character.isWhitespace(argstring.charAt(i))) {
+                    token.append(argstring.charAt(i++));
+                }
+            }
+            if (!quoted && token.length() > 1 && token.charAt(0) == '-') {
+                if (name != null && hasValue) {
+                    args.put(name, value.toString());
+                }
+                name = token.substring(1);
+                hasValue = false;
+                value.setLength(0);
+            } else if (name != null) {
+                if (hasValue) {
+                    value.append(argstring, separator, start);
+                }
+                value.append(token);
+                hasValue = true;
+            }
+        }
+        if (name != null && hasValue) {
+            args.put(name, value.toString());
+        }
+        return args;
     }
 
     /**
      * {@link EnvironmentContributingAction} used to make information about the {@link RundeckExecution} available to
-     * the build (as environment variables)
+     * the build (as environment variables). When the build was started by several notifications, RDECK_EXEC_COUNT and
+     * RDECK_EXEC_IDS (comma-separated) describe all of them.
      */
     public static class RundeckExecutionEnvironmentContributingAction implements EnvironmentContributingAction {
 
-        private final RundeckExecution execution;
+        private RundeckExecutionSnapshot snapshot;
+
+        /**
+         * Full execution, persisted by the previous versions of the plugin : only read to migrate the old builds
+         *
+         * @deprecated replaced by {@link #snapshot}
+         */
+        @Deprecated
+        private RundeckExecution execution;
+
+        /** RDECK_* variables, computed on the first call of {@link #buildEnvVars(AbstractBuild, EnvVars)} */
+        private transient volatile Map<String, String> environment;
 
         /**
          * Instantiate a new action, which will use the data from the given execution
-         * 
+         *
          * @param execution at the origin of the Rundeck notification
          */
         public RundeckExecutionEnvironmentContributingAction(RundeckExecution execution) {
+            this(execution != null ? new RundeckExecutionSnapshot(execution) : null);
+        }
+
+        /**
+         * Instantiate a new action, which will use the data from the given execution
+         *
+         * @param snapshot of the execution at the origin of the Rundeck notification
+         */
+        public RundeckExecutionEnvironmentContributingAction(RundeckExecutionSnapshot snapshot) {
             super();
-            this.execution = execution;
+            this.snapshot = snapshot;
+        }
+
+        /**
+         * Migrate the builds persisted with a full {@link RundeckExecution}
+         */
+        protected Object readResolve() {
+            if (snapshot == null && execution != null) {
+                snapshot = new RundeckExecutionSnapshot(execution);
+            }
+            execution = null;
+            return this;
         }
 
         public void buildEnvVars(AbstractBuild<?, ?> build, EnvVars env) {
-            if (execution != null) {
-                if (execution.getJob() != null) {
-                    env.put("RDECK_JOB_ID", String.valueOf(execution.getJob().getId()));
-                    env.put("RDECK_JOB_NAME", String.valueOf(execution.getJob().getName()));
-                    env.put("RDECK_JOB_GROUP", String.valueOf(execution.getJob().getGroup()));
-                    env.put("RDECK_JOB_DESCRIPTION", String.valueOf(execution.getJob().getDescription()));
-                    env.put("RDECK_PROJECT", String.valueOf(execution.getJob().getProject()));
+            if (snapshot != null) {
+                env.putAll(getEnvironment(build));
+            }
+        }
+
+        /**
+         * The environment only depends on the (immutable) snapshot and on the causes of the build : it is computed
+         * once, and then shared by all the calls of {@link #buildEnvVars(AbstractBuild, EnvVars)}.
+         *
+         * @param build to which the action is attached (could be null)
+         * @return immutable map of the RDECK_* variables
+         */
+        private Map<String, String> getEnvironment(AbstractBuild<?, ?> build) {
+            Map<String, String> result = environment;
+            if (result == null) {
+                result = computeEnvironment(build);
+                if (build != null) {
+                    environment = result;
                 }
-                env.put("RDECK_EXEC_ID", String.valueOf(execution.getId()));
-                env.put("RDECK_EXEC_STATUS", String.valueOf(execution.getStatus()));
-                env.put("RDECK_EXEC_STARTED_BY", String.valueOf(execution.getStartedBy()));
-                env.put("RDECK_EXEC_STARTED_AT", String.valueOf(execution.getStartedAt()));
-                env.put("RDECK_EXEC_ENDED_AT", String.valueOf(execution.getEndedAt()));
-                env.put("RDECK_EXEC_ABORTED_BY", String.valueOf(execution.getAbortedBy()));
-                env.put("RDECK_EXEC_DURATION_MILLIS", String.valueOf(execution.getDurationInMillis()));
-                env.put("RDECK_EXEC_DURATION_SECONDS", String.valueOf(execution.getDurationInSeconds()));
-                env.put("RDECK_EXEC_DURATION", String.valueOf(execution.getDuration()));
-                env.put("RDECK_EXEC_SHORT_DURATION", String.valueOf(execution.getShortDuration()));
-                env.put("RDECK_EXEC_URL", String.valueOf(execution.getUrl()));
-                env.put("RDECK_EXEC_DESCRIPTION", String.valueOf(execution.getDescription()));
-
-                if ( StringUtils.isNotEmpty(execution.getArgstring())) {
-                    // Split argstring around hyphens at the beginning or a combination of whitespace and hyphen
-                    String[] args = execution.getArgstring().split("^-|\\s-");
-                    for (int i = 1; i < args.length; i++) {
-                        final Matcher matcher = ARG_STRING_PATTERN.matcher(args[i]);
-                        if (matcher.matches()) {
-                            final String key = matcher.group(1);
-                            String value = StringUtils.trim(matcher.group(2));
-                            if (value.endsWith("\"")) {
-                                value = value.substring(0, value.length()-1);
-                            }
-
-                            env.put("RDECK_EXEC_ARG_" + key, value);
-                        }
+            }
+            return result;
+        }
+
+        private Map<String, String> computeEnvironment(AbstractBuild<?, ?> build) {
+            Map<String, String> env = new HashMap<String, String>();
+            if (snapshot.hasJob()) {
+                env.put("RDECK_JOB_ID", String.valueOf(snapshot.getJobId()));
+                env.put("RDECK_JOB_NAME", String.valueOf(snapshot.getJobName()));
+                env.put("RDECK_JOB_GROUP", String.valueOf(snapshot.getJobGroup()));
+                env.put("RDECK_JOB_DESCRIPTION", String.valueOf(snapshot.getJobDescription()));
+                env.put("RDECK_PROJECT", String.valueOf(snapshot.getProject()));
+            }
+            env.put("RDECK_EXEC_ID", String.valueOf(snapshot.getId()));
+            env.put("RDECK_EXEC_STATUS", String.valueOf(snapshot.getStatus()));
+            env.put("RDECK_EXEC_STARTED_BY", String.valueOf(snapshot.getStartedBy()));
+            env.put("RDECK_EXEC_STARTED_AT", String.valueOf(snapshot.getStartedAt()));
+            env.put("RDECK_EXEC_ENDED_AT", String.valueOf(snapshot.getEndedAt()));
+            env.put("RDECK_EXEC_ABORTED_BY", String.valueOf(snapshot.getAbortedBy()));
+            env.put("RDECK_EXEC_DURATION_MILLIS", String.valueOf(snapshot.getDurationInMillis()));
+            env.put("RDECK_EXEC_DURATION_SECONDS", String.valueOf(snapshot.getDurationInSeconds()));
+            env.put("RDECK_EXEC_DURATION", String.valueOf(snapshot.getDuration()));
+            env.put("RDECK_EXEC_SHORT_DURATION", String.valueOf(snapshot.getShortDuration()));
+            env.put("RDECK_EXEC_URL", String.valueOf(snapshot.getUrl()));
+            env.put("RDECK_EXEC_DESCRIPTION", String.valueOf(snapshot.getDescription()));
+
+            List<String> executionIds = new ArrayList<String>();
+            if (build != null) {
+                for (Cause cause : build.getCauses()) {
+                    if (cause instanceof RundeckCause && ((RundeckCause) cause).getExecution() != null) {
+                        executionIds.add(String.valueOf(((RundeckCause) cause).getExecution().getId()));
                     }
                 }
+            }
+            if (executionIds.isEmpty()) {
+                executionIds.add(String.valueOf(snapshot.getId()));
+            }
+            env.put("RDECK_EXEC_COUNT", String.valueOf(executionIds.size()));
+            env.put("RDECK_EXEC_IDS", StringUtils.join(executionIds, ","));
 
+            for (Map.Entry<String, String> arg : parseArgstring(snapshot.getArgstring()).entrySet()) {
+                env.put("RDECK_EXEC_ARG_" + arg.getKey(), arg.getValue());
             }
+            return Collections.unmodifiableMap(env);
+        }
+
+        /**
+         * @return the snapshot of the execution at the origin of the Rundeck notification
+         */
+        public RundeckExecutionSnapshot getExecution() {
+            return snapshot;
         }
 
         public String getDisplayName() {
-            return execution != null ? "Started by Rundeck Execution #" + execution.getId() : null;
+            return snapshot != null ? "Started by Rundeck Execution #" + snapshot.getId() : null;
         }
 
         public String getIconFileName() {
-            return execution != null ? "/plugin/rundeck/images/rundeck_24x24.png" : null;
+            return snapshot != null ? "/plugin/rundeck/images/rundeck_24x24.png" : null;
         }
 
         public String getUrlName() {
-            return execution != null ? execution.getUrl() : null;
+            return snapshot != null ? snapshot.getUrl() : null;
         }
     }
 
@@ -0,0 +1,356 @@
+package org.jenkinsci.plugins.rundeck;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.apache.commons.lang.StringUtils;
+import org.rundeck.api.RundeckApiException;
+import org.rundeck.api.RundeckClient;
+import org.rundeck.api.RundeckClientBuilder;
+
+/**
+ * The nodes of a Rundeck instance running as a cluster : the same instance, reachable through several URLs. The
+ * latency and the error rate of each node are tracked with exponentially weighted moving averages, so that the calls
+ * are routed to the healthiest node, and fail over to the next one when a node does not respond.
+ * <p>
+ * The clusters are registered by URL (see {@link RundeckNotifier.RundeckDescriptor}) : any client of one of their
+ * nodes can be routed with {@link #route(RundeckClient)} or {@link #call(RundeckClient, Call, boolean)}.
+ */
+public class RundeckCluster {
+
+    private static final Logger log = Logger.getLogger(RundeckCluster.class.getName());
+
+    /** weight of the last sample in the moving averages */
+    static final double ALPHA = 0.3;
+
+    /** latency (in milliseconds) added to the score of a node whose calls all fail */
+    static final double ERROR_PENALTY = TimeUnit.SECONDS.toMillis(30);
+
+    /** Delay between 2 probes of the nodes, in milliseconds */
+    public static final long DEFAULT_PROBE_PERIOD = Long.getLong(RundeckCluster.class.getName() + ".probePeriod",
+                                                                 TimeUnit.SECONDS.toMillis(30));
+
+    /** registered clusters, by the URLs of their nodes : replaced as a whole (never modified) when registering */
+    private static volatile Map<String, RundeckCluster> clusters = Collections.emptyMap();
+
+    /** client of the instance, used as a model for the clients of the nodes */
+    private final RundeckClient instance;
+
+    /** immutable list of the nodes, replaced by the ones of the previous clusters when registering */
+    private volatile List<Node> nodes;
+
+    /**
+     * A call to Rundeck, which may be sent to any node
+     */
+    public interface Call<T> {
+
+        T call(RundeckClient rundeck) throws RundeckApiException;
+    }
+
+    /**
+     * @param instance client of the instance (its URL is the first node)
+     * @param urls of the other nodes
+     */
+    public RundeckCluster(RundeckClient instance, List<String> urls) {
+        this.instance = instance;
+        Map<String, Node> nodesByUrl = new LinkedHashMap<String, Node>();
+        nodesByUrl.put(instance.getUrl(), new Node(instance.getUrl()));
+        for (String url : urls) {
+            if (StringUtils.isNotBlank(url) && !nodesByUrl.containsKey(url.trim())) {
+                nodesByUrl.put(url.trim(), new Node(url.trim()));
+            }
+        }
+        this.nodes = Collections.unmodifiableList(new ArrayList<Node>(nodesByUrl.values()));
+    }
+
+    /**
+     * Replace all the registered clusters
+     *
+     * @param clusters to register, by the URLs of their nodes
+     */
+    public static void register(List<RundeckCluster> clusters) {
+        Map<String, RundeckCluster> previous = RundeckCluster.clusters;
+        Map<String, RundeckCluster> byUrl = new LinkedHashMap<String, RundeckCluster>();
+        for (RundeckCluster cluster : clusters) {
+            cluster.keepHealth(previous);
+            for (String url : cluster.getUrls()) {
+                byUrl.put(url, cluster);
+            }
+        }
+        // the lookups see either the previous clusters or the new ones, never a mix of both
+        RundeckCluster.clusters = Collections.unmodifiableMap(byUrl);
+    }
+
+    /**
+     * Reuse the nodes of the previous clusters which have the same URL, so that their health (moving averages) is not
+     * lost when the configuration is saved
+     *
+     * @param previous registered clusters, by the URLs of their nodes
+     */
+    private void keepHealth(Map<String, RundeckCluster> previous) {
+        List<Node> kept = new ArrayList<Node>(nodes.size());
+        for (Node node : nodes) {
+            RundeckCluster cluster = previous.get(node.url);
+            Node known = cluster != null ? cluster.getNode(node.url) : null;
+            kept.add(known != null ? known : node);
+        }
+        this.nodes = Collections.unmodifiableList(kept);
+    }
+
+    private Node getNode(String url) {
+        for (Node node : nodes) {
+            if (node.url.equals(url)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param url of a node
+     * @return the cluster of the node, or null if the URL is not part of a cluster
+     */
+    public static RundeckCluster forUrl(String url) {
+        return url != null ? clusters.get(url) : null;
+    }
+
+    /**
+     * @param rundeck client of a node (or of a standalone Rundeck)
+     * @return a client of the healthiest node of the cluster, with the same credentials (or the given client if it is
+     *         not part of a cluster, or already targets the healthiest node)
+     */
+    public static RundeckClient route(RundeckClient rundeck) {
+        RundeckCluster cluster = rundeck != null ? forUrl(rundeck.getUrl()) : null;
+        if (cluster == null) {
+            return rundeck;
+        }
+        return withUrl(rundeck, cluster.getHealthiestUrl());
+    }
+
+    /**
+     * Run a call on the healthiest node, and fail over to the next nodes if it does not respond
+     *
+     * @param rundeck client of a node (or of a standalone Rundeck)
+     * @param call to run
+     * @param idempotent true if the call can be sent again after any I/O error (a read), false if it can only be sent
+     *            again when the node could not be reached at all (a job trigger)
+     * @return the result of the call
+     * @throws RundeckApiException the error of the last node tried
+     */
+    public static <T> T call(RundeckClient rundeck, Call<T> call, boolean idempotent) throws RundeckApiException {
+        RundeckCluster cluster = forUrl(rundeck.getUrl());
+        if (cluster == null) {
+            return call.call(rundeck);
+        }
+        return cluster.execute(rundeck, call, idempotent);
+    }
+
+    <T> T execute(RundeckClient rundeck, Call<T> call, boolean idempotent) throws RundeckApiException {
+        RundeckApiException failure = null;
+        for (Node node : getNodesByHealth()) {
+            long start = System.currentTimeMillis();
+            try {
+                T result = call.call(withUrl(rundeck, node.url));
+                node.success(System.currentTimeMillis() - start);
+                return result;
+            } catch (RundeckApiException e) {
+                if (!isUnreachable(e, idempotent)) {
+                    if (isUnreachable(e, true)) {
+                        // no answer (a read timeout) : the call can't be sent again, but the node is not healthy
+                        node.failure();
+                    } else {
+                        // the node answered (with an error) : it is alive, but the error does not make it healthier
+                        node.answered(System.currentTimeMillis() - start);
+                    }
+                    throw e;
+                }
+                node.failure();
+                log.fine("Rundeck node " + node.url + " did not respond, failing over : " + e.getMessage());
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * @param e error of a call
+     * @param idempotent true if any I/O error should be retried, false if only the connection errors should
+     * @return true if the node could not be reached
+     */
+    static boolean isUnreachable(RundeckApiException e, boolean idempotent) {
+        for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+            // the node can't have received the request
+            if (cause instanceof ConnectException || cause instanceof UnknownHostException
+                || cause instanceof NoRouteToHostException) {
+                return true;
+            }
+            if (idempotent && cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return a client of the given URL, with the same credentials and API version as the given client
+     */
+    static RundeckClient withUrl(RundeckClient rundeck, String url) {
+        if (StringUtils.equals(rundeck.getUrl(), url)) {
+            return rundeck;
+        }
+        RundeckClientBuilder builder = RundeckClient.builder();
+        builder.url(url);
+        if (StringUtils.isNotBlank(rundeck.getToken())) {
+            builder.token(rundeck.getToken());
+        } else {
+            builder.login(rundeck.getLogin(), rundeck.getPassword());
+        }
+        builder.version(RundeckApiCapabilities.forClient(rundeck).getApiVersion());
+        return builder.build();
+    }
+
+    /**
+     * @return the configured URL of the instance (its first node), shared by all the nodes
+     */
+    public String getInstanceUrl() {
+        return instance.getUrl();
+    }
+
+    /**
+     * @return the URLs of the nodes, in their configured order
+     */
+    public List<String> getUrls() {
+        List<Node> nodes = this.nodes;
+        List<String> urls = new ArrayList<String>(nodes.size());
+        for (Node node : nodes) {
+            urls.add(node.url);
+        }
+        return urls;
+    }
+
+    /**
+     * @return the URL of the node with the lowest latency and error rate (the first one in case of a tie)
+     */
+    public String getHealthiestUrl() {
+        List<Node> nodes = this.nodes;
+        Node healthiest = nodes.get(0);
+        double best = healthiest.score();
+        for (int i = 1; i < nodes.size(); i++) {
+            double score = nodes.get(i).score();
+            if (score < best) {
+                healthiest = nodes.get(i);
+                best = score;
+            }
+        }
+        return healthiest.url;
+    }
+
+    private List<Node> getNodesByHealth() {
+        List<Node> nodes = this.nodes;
+        final Map<Node, Double> scores = new IdentityHashMap<Node, Double>();
+        for (Node node : nodes) {
+            scores.put(node, node.score());
+        }
+        List<Node> sorted = new ArrayList<Node>(nodes);
+        // stable : the configured order is kept between nodes of the same health
+        Collections.sort(sorted, new Comparator<Node>() {
+
+            public int compare(Node a, Node b) {
+                return Double.compare(scores.get(a), scores.get(b));
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * Ping all the nodes, to keep their health up to date even if no call is routed to them
+     */
+    void probe() {
+        for (Node node : nodes) {
+            long start = System.currentTimeMillis();
+            try {
+                withUrl(instance, node.url).ping();
+                node.success(System.currentTimeMillis() - start);
+            } catch (RundeckApiException e) {
+                node.failure();
+            }
+        }
+    }
+
+    /**
+     * Moving averages of the latency and of the error rate of a node
+     */
+    private static class Node {
+
+        private final String url;
+
+        /** in milliseconds, -1 until the first successful call */
+        private double latency = -1;
+
+        /** between 0 (no errors) and 1 (only errors) */
+        private double errorRate;
+
+        private Node(String url) {
+            this.url = url;
+        }
+
+        private synchronized void success(long millis) {
+            answered(millis);
+            errorRate = (1 - ALPHA) * errorRate;
+        }
+
+        private synchronized void answered(long millis) {
+            latency = latency < 0 ? millis : ALPHA * millis + (1 - ALPHA) * latency;
+        }
+
+        private synchronized void failure() {
+            errorRate = ALPHA + (1 - ALPHA) * errorRate;
+        }
+
+        /**
+         * @return the expected cost of a call to the node : lower is better
+         */
+        private synchronized double score() {
+            return Math.max(latency, 0) + errorRate * ERROR_PENALTY;
+        }
+    }
+
+    /**
+     * Periodically probes the nodes of the registered clusters
+     */
+    @Extension
+    public static class Prober extends AsyncPeriodicWork {
+
+        public Prober() {
+            super("Rundeck cluster probe");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return DEFAULT_PROBE_PERIOD;
+        }
+
+        @Override
+        protected void execute(TaskListener listener) {
+            Map<RundeckCluster, Boolean> probed = new IdentityHashMap<RundeckCluster, Boolean>();
+            for (RundeckCluster cluster : RundeckCluster.clusters.values()) {
+                if (probed.put(cluster, Boolean.TRUE) == null) {
+                    cluster.probe();
+                }
+            }
+        }
+    }
+}
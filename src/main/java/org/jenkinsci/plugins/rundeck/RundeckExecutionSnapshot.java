@@ -0,0 +1,220 @@
+package org.jenkinsci.plugins.rundeck;
+
+import java.util.Date;
+import org.apache.commons.lang.StringUtils;
+import org.rundeck.api.domain.RundeckExecution;
+import org.rundeck.api.domain.RundeckJob;
+
+/**
+ * Immutable and flat copy of the data of a {@link RundeckExecution} used by a {@link RundeckCause} and its
+ * environment action. It is persisted with every triggered build, so it only holds what the build needs (no node
+ * lists, no nested job), and its most repeated values are interned when loaded.
+ */
+public final class RundeckExecutionSnapshot {
+
+    private final Long id;
+
+    private final String url;
+
+    private final String status;
+
+    private final String startedBy;
+
+    private final Long startedAt;
+
+    private final Long endedAt;
+
+    private final String abortedBy;
+
+    private final String description;
+
+    private final String argstring;
+
+    private final Long durationInMillis;
+
+    private final String duration;
+
+    private final String shortDuration;
+
+    private final boolean hasJob;
+
+    private final String jobId;
+
+    private final String jobName;
+
+    private final String jobGroup;
+
+    private final String jobDescription;
+
+    private final String project;
+
+    /**
+     * @param execution to copy
+     */
+    public RundeckExecutionSnapshot(RundeckExecution execution) {
+        this.id = execution.getId();
+        this.url = execution.getUrl();
+        this.status = execution.getStatus() != null ? execution.getStatus().toString() : null;
+        this.startedBy = intern(execution.getStartedBy());
+        this.startedAt = execution.getStartedAt() != null ? execution.getStartedAt().getTime() : null;
+        this.endedAt = execution.getEndedAt() != null ? execution.getEndedAt().getTime() : null;
+        this.abortedBy = intern(execution.getAbortedBy());
+        this.description = execution.getDescription();
+        this.argstring = execution.getArgstring();
+        this.durationInMillis = execution.getDurationInMillis();
+        this.duration = execution.getDuration();
+        this.shortDuration = execution.getShortDuration();
+        RundeckJob job = execution.getJob();
+        this.hasJob = job != null;
+        this.jobId = job != null ? intern(job.getId()) : null;
+        this.jobName = job != null ? intern(job.getName()) : null;
+        this.jobGroup = job != null ? intern(job.getGroup()) : null;
+        this.jobDescription = job != null ? intern(job.getDescription()) : null;
+        this.project = job != null ? intern(job.getProject()) : null;
+    }
+
+    /**
+     * Share the values repeated across builds (job, project, user, ...) between all the loaded snapshots
+     */
+    private Object readResolve() {
+        return new RundeckExecutionSnapshot(this);
+    }
+
+    private RundeckExecutionSnapshot(RundeckExecutionSnapshot loaded) {
+        this.id = loaded.id;
+        this.url = loaded.url;
+        this.status = intern(loaded.status);
+        this.startedBy = intern(loaded.startedBy);
+        this.startedAt = loaded.startedAt;
+        this.endedAt = loaded.endedAt;
+        this.abortedBy = intern(loaded.abortedBy);
+        this.description = loaded.description;
+        this.argstring = loaded.argstring;
+        this.durationInMillis = loaded.durationInMillis;
+        this.duration = loaded.duration;
+        this.shortDuration = loaded.shortDuration;
+        this.hasJob = loaded.hasJob;
+        this.jobId = intern(loaded.jobId);
+        this.jobName = intern(loaded.jobName);
+        this.jobGroup = intern(loaded.jobGroup);
+        this.jobDescription = intern(loaded.jobDescription);
+        this.project = intern(loaded.project);
+    }
+
+    private static String intern(String value) {
+        return value != null ? value.intern() : null;
+    }
+
+    /**
+     * @return true if the execution was started by a Rundeck job (and not an ad-hoc command)
+     */
+    public boolean hasJob() {
+        return hasJob;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public String getStartedBy() {
+        return startedBy;
+    }
+
+    public Date getStartedAt() {
+        return startedAt != null ? new Date(startedAt) : null;
+    }
+
+    public Date getEndedAt() {
+        return endedAt != null ? new Date(endedAt) : null;
+    }
+
+    public String getAbortedBy() {
+        return abortedBy;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public String getArgstring() {
+        return argstring;
+    }
+
+    public Long getDurationInMillis() {
+        return durationInMillis;
+    }
+
+    public Long getDurationInSeconds() {
+        return durationInMillis != null ? durationInMillis / 1000 : null;
+    }
+
+    public String getDuration() {
+        return duration;
+    }
+
+    public String getShortDuration() {
+        return shortDuration;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public String getJobName() {
+        return jobName;
+    }
+
+    public String getJobGroup() {
+        return jobGroup;
+    }
+
+    /**
+     * @return the full name of the job : "group/name", or "name" for a job without a group
+     */
+    public String getJobFullName() {
+        return StringUtils.isBlank(jobGroup) ? jobName : jobGroup + "/" + jobName;
+    }
+
+    public String getJobDescription() {
+        return jobDescription;
+    }
+
+    public String getProject() {
+        return project;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((id == null) ? 0 : id.hashCode());
+        result = prime * result + ((status == null) ? 0 : status.hashCode());
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        RundeckExecutionSnapshot other = (RundeckExecutionSnapshot) obj;
+        return StringUtils.equals(status, other.status) && (id == null ? other.id == null : id.equals(other.id));
+    }
+
+    @Override
+    public String toString() {
+        return "RundeckExecutionSnapshot [id=" + id + ", status=" + status + ", project=" + project + ", job="
+               + getJobFullName() + "]";
+    }
+}
@@ -0,0 +1,346 @@
+package org.jenkinsci.plugins.rundeck;
+
+import hudson.Extension;
+import hudson.Launcher;
+import hudson.model.BuildListener;
+import hudson.model.Result;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Hudson;
+import hudson.tasks.BuildStepDescriptor;
+import hudson.tasks.BuildStepMonitor;
+import hudson.tasks.Notifier;
+import hudson.tasks.Publisher;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import net.sf.json.JSONObject;
+import org.jenkinsci.plugins.rundeck.RundeckNotifier.RundeckDescriptor;
+import org.jenkinsci.plugins.rundeck.RundeckNotifier.RundeckExecutionBuildBadgeAction;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.StaplerRequest;
+import org.rundeck.api.RundeckApiException;
+import org.rundeck.api.RundeckClient;
+import org.rundeck.api.domain.RundeckExecution;
+import org.rundeck.api.domain.RundeckExecution.ExecutionStatus;
+
+/**
+ * Jenkins {@link Notifier} that runs several jobs on Rundeck (possibly on several instances) at the same time : all
+ * the jobs are triggered concurrently (see {@link RundeckAsyncClient}), their executions are then followed by the
+ * shared poller until they are all finished, and their results are combined with a {@link SuccessRule}.
+ */
+public class RundeckFanOutNotifier extends Notifier {
+
+    /**
+     * How the results of the executions are combined
+     */
+    public enum SuccessRule {
+
+        /** all the executions must succeed */
+        ALL {
+
+            @Override
+            public boolean isSatisfied(int succeeded, int total, int quorum) {
+                return succeeded == total;
+            }
+        },
+
+        /** at least one execution must succeed */
+        ANY {
+
+            @Override
+            public boolean isSatisfied(int succeeded, int total, int quorum) {
+                return succeeded > 0;
+            }
+        },
+
+        /** at least "quorum" executions must succeed */
+        QUORUM {
+
+            @Override
+            public boolean isSatisfied(int succeeded, int total, int quorum) {
+                return succeeded >= quorum;
+            }
+        };
+
+        /**
+         * @param succeeded number of successful executions
+         * @param total number of targets
+         * @param quorum number of successful executions required by {@link #QUORUM}
+         * @return true if the build is successful
+         */
+        public abstract boolean isSatisfied(int succeeded, int total, int quorum);
+    }
+
+    private final List<RundeckTarget> targets;
+
+    private final SuccessRule successRule;
+
+    private final Integer quorum;
+
+    private final Boolean shouldFailTheBuild;
+
+    @DataBoundConstructor
+    public RundeckFanOutNotifier(List<RundeckTarget> targets, SuccessRule successRule, Integer quorum,
+            Boolean shouldFailTheBuild) {
+        this.targets = targets != null ? new ArrayList<RundeckTarget>(targets) : new ArrayList<RundeckTarget>();
+        this.successRule = successRule != null ? successRule : SuccessRule.ALL;
+        this.quorum = quorum;
+        this.shouldFailTheBuild = shouldFailTheBuild;
+    }
+
+    @Override
+    public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+            throws InterruptedException, IOException {
+        if (build.getResult() != Result.SUCCESS || targets.isEmpty()) {
+            return true;
+        }
+        PrintStream logger = listener.getLogger();
+        RundeckDescriptor rundeckDescriptor = getRundeckDescriptor();
+
+        // the options are expanded on the build thread, the jobs are triggered on the shared pool
+        List<TargetExecution> executions = new ArrayList<TargetExecution>(targets.size());
+        List<Future<RundeckExecution>> triggers = new ArrayList<Future<RundeckExecution>>(targets.size());
+        for (RundeckTarget target : targets) {
+            RundeckClient rundeck = rundeckDescriptor.getRundeckJobInstance(target.getRundeckInstance(),
+                                                                            target.getJobUser(),
+                                                                            target.getJobPassword());
+            TargetExecution execution = new TargetExecution(target, rundeck);
+            executions.add(execution);
+            if (rundeck == null) {
+                logger.println(target + " : Rundeck configuration is not valid !");
+                triggers.add(null);
+            } else {
+                triggers.add(RundeckAsyncClient.submit(new Trigger(target, rundeck, logger,
+                                                             RundeckNotifier.parseProperties(target.getOptions(), build, listener),
+                                                             RundeckNotifier.parseProperties(target.getNodeFilters(), build, listener))));
+            }
+        }
+        List<TargetExecution> running = new ArrayList<TargetExecution>();
+        for (int i = 0; i < executions.size(); i++) {
+            TargetExecution execution = executions.get(i);
+            if (triggers.get(i) == null) {
+                continue;
+            }
+            try {
+                execution.execution = triggers.get(i).get();
+            } catch (ExecutionException e) {
+                logger.println(execution.target + " : failed to trigger the job : " + e.getCause().getMessage());
+            }
+            if (execution.execution != null) {
+                build.addAction(new RundeckExecutionBuildBadgeAction(execution.execution.getUrl()));
+                if (ExecutionStatus.RUNNING.equals(execution.execution.getStatus())) {
+                    running.add(execution);
+                }
+            }
+        }
+
+        if (!running.isEmpty()) {
+            logger.println("Waiting for " + running.size() + " Rundeck executions to finish...");
+            await(running, logger);
+        }
+
+        int succeeded = 0;
+        for (TargetExecution execution : executions) {
+            if (execution.execution != null && ExecutionStatus.SUCCEEDED.equals(execution.execution.getStatus())) {
+                succeeded++;
+            }
+        }
+        boolean success = successRule.isSatisfied(succeeded, executions.size(), getEffectiveQuorum());
+        logger.println(succeeded + "/" + executions.size() + " Rundeck executions succeeded (success rule : "
+                       + successRule + (successRule == SuccessRule.QUORUM ? " of " + getEffectiveQuorum() : "") + ")");
+        if (!success && Boolean.TRUE.equals(shouldFailTheBuild)) {
+            build.setResult(Result.FAILURE);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Wait for the end of all the running executions, polled together by the shared poller
+     */
+    private void await(List<TargetExecution> running, PrintStream logger) {
+        List<Future<RundeckExecution>> completions = new ArrayList<Future<RundeckExecution>>(running.size());
+        for (TargetExecution execution : running) {
+            completions.add(new RundeckAsyncClient(execution.rundeck).waitForCompletion(execution.execution.getId(),
+                                                                                        RundeckAsyncClient.DEFAULT_POLL_INTERVAL));
+        }
+        for (int i = 0; i < running.size(); i++) {
+            TargetExecution execution = running.get(i);
+            try {
+                execution.execution = completions.get(i).get();
+                logger.println(execution.target + " : Rundeck execution #" + execution.execution.getId()
+                               + " finished in " + execution.execution.getDuration() + ", with status : "
+                               + execution.execution.getStatus());
+            } catch (ExecutionException e) {
+                logger.println(execution.target + " : error while talking to Rundeck's API at "
+                               + execution.rundeck.getUrl() + " : " + e.getCause().getMessage());
+                execution.execution = null;
+            } catch (InterruptedException e) {
+                logger.println("Oops, interrupted ! " + e.getMessage());
+                for (Future<RundeckExecution> completion : completions) {
+                    completion.cancel(false);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the number of successful executions required by {@link SuccessRule#QUORUM} : the configured one, or a
+     *         majority of the targets
+     */
+    public int getEffectiveQuorum() {
+        if (quorum != null && quorum > 0) {
+            return Math.min(quorum, targets.size());
+        }
+        return targets.size() / 2 + 1;
+    }
+
+    private static RundeckDescriptor getRundeckDescriptor() {
+        return Hudson.getInstance().getDescriptorByType(RundeckDescriptor.class);
+    }
+
+    /**
+     * If we should not fail the build, we need to run after finalized, so that the result of "perform" is not used by
+     * Jenkins
+     */
+    @Override
+    public boolean needsToRunAfterFinalized() {
+        return !Boolean.TRUE.equals(shouldFailTheBuild);
+    }
+
+    public BuildStepMonitor getRequiredMonitorService() {
+        return BuildStepMonitor.NONE;
+    }
+
+    public List<RundeckTarget> getTargets() {
+        return Collections.unmodifiableList(targets);
+    }
+
+    public SuccessRule getSuccessRule() {
+        return successRule;
+    }
+
+    public Integer getQuorum() {
+        return quorum;
+    }
+
+    public Boolean getShouldFailTheBuild() {
+        return shouldFailTheBuild;
+    }
+
+    @Override
+    public RundeckFanOutDescriptor getDescriptor() {
+        return (RundeckFanOutDescriptor) super.getDescriptor();
+    }
+
+    /**
+     * Triggers the job of a target (on the pool)
+     */
+    private static class Trigger implements Callable<RundeckExecution> {
+
+        private final RundeckTarget target;
+
+        private final RundeckClient rundeck;
+
+        private final PrintStream logger;
+
+        private final Properties options;
+
+        private final Properties nodeFilters;
+
+        private Trigger(RundeckTarget target, RundeckClient rundeck, PrintStream logger, Properties options,
+                Properties nodeFilters) {
+            this.target = target;
+            this.rundeck = rundeck;
+            this.logger = logger;
+            this.options = options;
+            this.nodeFilters = nodeFilters;
+        }
+
+        public RundeckExecution call() {
+            try {
+                String jobId = RundeckDescriptor.findJobId(target.getJobIdentifier(), rundeck);
+                if (jobId == null) {
+                    logger.println(target + " : could not find a job with the identifier : " + target.getJobIdentifier());
+                    return null;
+                }
+                RundeckExecution execution = RundeckDescriptor.triggerJob(target.getJobIdentifier(), jobId, rundeck,
+                                                                          options, nodeFilters, logger);
+                logger.println(target + " : notification succeeded ! Execution #" + execution.getId() + ", at "
+                               + execution.getUrl() + " (status : " + execution.getStatus() + ")");
+                return execution;
+            } catch (RundeckApiException e) {
+                logger.println(target + " : error while talking to Rundeck's API at " + rundeck.getUrl() + " : "
+                               + e.getMessage());
+            } catch (IllegalArgumentException e) {
+                logger.println(target + " : configuration error : " + e.getMessage());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Execution of a target (updated by the poller)
+     */
+    private static class TargetExecution {
+
+        private final RundeckTarget target;
+
+        private final RundeckClient rundeck;
+
+        private RundeckExecution execution;
+
+        private TargetExecution(RundeckTarget target, RundeckClient rundeck) {
+            this.target = target;
+            this.rundeck = rundeck;
+        }
+    }
+
+    @Extension
+    public static final class RundeckFanOutDescriptor extends BuildStepDescriptor<Publisher> {
+
+        @Override
+        public Publisher newInstance(StaplerRequest req, JSONObject formData) throws FormException {
+            List<RundeckTarget> targets = req.bindJSONToList(RundeckTarget.class, formData.get("targets"));
+            SuccessRule successRule;
+            try {
+                successRule = SuccessRule.valueOf(formData.optString("successRule", SuccessRule.ALL.name()));
+            } catch (IllegalArgumentException e) {
+                throw new FormException("Unknown success rule : " + formData.optString("successRule"), "successRule");
+            }
+            int quorum = formData.optInt("quorum");
+            return new RundeckFanOutNotifier(targets, successRule, quorum > 0 ? quorum : null,
+                                             formData.optBoolean("shouldFailTheBuild"));
+        }
+
+        /**
+         * @return the Rundeck instances configured in the global configuration of {@link RundeckNotifier}
+         */
+        public Map<String, RundeckClient> getRundeckInstances() {
+            return getRundeckDescriptor().getRundeckInstances();
+        }
+
+        public SuccessRule[] getSuccessRules() {
+            return SuccessRule.values();
+        }
+
+        @Override
+        public boolean isApplicable(Class<? extends AbstractProject> jobType) {
+            return true;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Rundeck (several jobs in parallel)";
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package org.jenkinsci.plugins.rundeck;
+
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.AbstractProject;
+import hudson.model.Hudson;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.lang.StringUtils;
+import org.rundeck.api.RundeckApiException;
+import org.rundeck.api.RundeckClient;
+import org.rundeck.api.domain.RundeckJob;
+
+/**
+ * Non-blocking view over the {@link RundeckJobCatalog}, for the Rundeck jobs displayed on the Jenkins pages (see
+ * {@link RundeckJobProjectLinkerAction}). Lookups return the job of the catalogue, which is kept up to date by its
+ * refresher. A missing job is loaded in the background and added to the catalogue, so the first render may not have
+ * it yet.
+ * <p>
+ * A job reference ("project:group/name") is loaded with the whole job list of its project, so that rendering a view
+ * with hundreds of linked Jenkins jobs costs one API call per Rundeck project, instead of one per Jenkins job. A failed
+ * lookup is not retried before {@link #ERROR_TTL}.
+ */
+public class RundeckJobCache {
+
+    private static final Logger log = Logger.getLogger(RundeckJobCache.class.getName());
+
+    /** Time during which a failed lookup is not retried, in milliseconds */
+    public static final long ERROR_TTL = TimeUnit.MINUTES.toMillis(1);
+
+    /** Number of lookups above which the failed ones are dropped once they can be retried */
+    private static final int MAX_LOOKUPS = 1000;
+
+    private static final RundeckJobCache INSTANCE = new RundeckJobCache();
+
+    /** lookups in progress (mapped to Long.MAX_VALUE) and failed ones (mapped to the time they can be retried) */
+    private final ConcurrentMap<String, Long> lookups = new ConcurrentHashMap<String, Long>();
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @return the cache shared by all the Jenkins jobs
+     */
+    public static RundeckJobCache getInstance() {
+        return INSTANCE;
+    }
+
+    public RundeckJobCache() {
+        this.executor = new ThreadPoolExecutor(2, 2, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1000),
+                                               new ThreadFactory() {
+
+                                                   public Thread newThread(Runnable runnable) {
+                                                       Thread thread = new Thread(runnable, "Rundeck job lookup");
+                                                       thread.setDaemon(true);
+                                                       return thread;
+                                                   }
+                                               });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Get the job from the catalogue, without blocking. Schedules a background lookup if the job is missing.
+     *
+     * @param rundeck client used to load the job
+     * @param jobIdentifier either a simple ID, an UUID or a reference (project:group/name)
+     * @return the job, or null if it has not been loaded yet (or was not found)
+     */
+    public RundeckJob get(RundeckClient rundeck, String jobIdentifier) {
+        RundeckJobCatalog catalog = getCatalog(rundeck);
+        RundeckJob job = catalog.find(jobIdentifier);
+        if (job == null && StringUtils.isNotBlank(jobIdentifier)) {
+            lookup(catalog, rundeck, jobIdentifier);
+        }
+        return job;
+    }
+
+    private void lookup(final RundeckJobCatalog catalog, final RundeckClient rundeck, final String jobIdentifier) {
+        // a job reference is looked up with the job list of its project
+        final String project = RundeckNotifier.RundeckDescriptor.getJobReferenceProject(jobIdentifier);
+        final String key = key(rundeck, project != null ? project + ":" : jobIdentifier);
+        if (!claim(key)) {
+            // already in progress, or failed recently
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+
+                public void run() {
+                    boolean found = false;
+                    try {
+                        if (project != null) {
+                            catalog.update(project, loadProject(rundeck, project));
+                        } else {
+                            catalog.put(load(rundeck, jobIdentifier));
+                        }
+                        found = catalog.find(jobIdentifier) != null;
+                    } catch (RuntimeException e) {
+                        log.log(Level.FINE, "Failed to load the Rundeck job " + jobIdentifier, e);
+                    }
+                    if (found) {
+                        lookups.remove(key);
+                    } else {
+                        lookups.put(key, System.currentTimeMillis() + ERROR_TTL);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // too many pending lookups : retry on the next one
+            lookups.remove(key);
+        }
+    }
+
+    /**
+     * @return true if the lookup of the given key can start : it is not in progress, and did not fail recently
+     */
+    private boolean claim(String key) {
+        long now = System.currentTimeMillis();
+        Long retryAt = lookups.get(key);
+        if (retryAt == null) {
+            if (lookups.size() >= MAX_LOOKUPS) {
+                for (Iterator<Long> it = lookups.values().iterator(); it.hasNext();) {
+                    if (now >= it.next()) {
+                        it.remove();
+                    }
+                }
+            }
+            return lookups.putIfAbsent(key, Long.MAX_VALUE) == null;
+        }
+        return now >= retryAt && lookups.replace(key, retryAt, Long.MAX_VALUE);
+    }
+
+    /**
+     * @return the catalogue of the jobs of the given client
+     */
+    protected RundeckJobCatalog getCatalog(RundeckClient rundeck) {
+        return RundeckJobCatalog.forClient(rundeck);
+    }
+
+    /**
+     * Load the job from Rundeck (called on a background thread)
+     */
+    protected RundeckJob load(RundeckClient rundeck, String jobIdentifier) throws RundeckApiException {
+        return RundeckNotifier.RundeckDescriptor.findJob(jobIdentifier, RundeckCluster.route(rundeck));
+    }
+
+    /**
+     * Load all the jobs of a Rundeck project (called on a background thread)
+     */
+    protected List<RundeckJob> loadProject(RundeckClient rundeck, String project) throws RundeckApiException {
+        return RundeckCluster.route(rundeck).getJobs(project);
+    }
+
+    /**
+     * Create the catalogues of the users of all the Jenkins jobs once they are loaded, so that they are refreshed (see
+     * {@link RundeckJobCatalog.Refresher}) before the jobs are displayed
+     */
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void prefetchAll() {
+        for (AbstractProject<?, ?> project : Hudson.getInstance().getAllItems(AbstractProject.class)) {
+            RundeckNotifier notifier = project.getPublishersList().get(RundeckNotifier.class);
+            if (notifier == null) {
+                continue;
+            }
+            RundeckClient rundeck = notifier.getDescriptor().getRundeckJobInstance(notifier.getRundeckInstance(),
+                                                                                   notifier.getJobUser(),
+                                                                                   notifier.getJobPassword());
+            if (rundeck != null) {
+                RundeckJobCatalog.forClient(rundeck);
+            }
+        }
+    }
+
+    private static String key(RundeckClient rundeck, String jobIdentifier) {
+        return rundeck.getUrl() + '\n' + rundeck.getLogin() + '\n' + jobIdentifier;
+    }
+}
@@ -0,0 +1,470 @@
+package org.jenkinsci.plugins.rundeck;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.XmlFile;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Hudson;
+import hudson.model.TaskListener;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.lang.StringUtils;
+import org.rundeck.api.RundeckApiException;
+import org.rundeck.api.RundeckClient;
+import org.rundeck.api.domain.RundeckJob;
+import org.rundeck.api.domain.RundeckProject;
+
+/**
+ * Local mirror of the jobs of a Rundeck instance (for a given user), indexed by UUID and by lower-cased reference
+ * ("project:group/name"). All the job lookups of the plugin go through it, and only hit the Rundeck API on a miss.
+ * <p>
+ * All the catalogues (of the configured Rundeck instances, and of the users of the jobs) are refreshed incrementally by
+ * the {@link Refresher} : each run only reloads the jobs of the projects which were not refreshed for
+ * {@link #DEFAULT_REFRESH_PERIOD} (a few of them at a time), and diffs them with the current ones. They are persisted
+ * in JENKINS_HOME/rundeck/job-catalog, so that they are available right after a restart : the file is written in the
+ * background, at most once per {@link #SAVE_DELAY}, whatever the number of changes. A job which Rundeck does not know
+ * anymore is evicted as soon as a call reports it (see {@link #remove(String)}), without waiting for the next refresh.
+ */
+public class RundeckJobCatalog {
+
+    private static final Logger log = Logger.getLogger(RundeckJobCatalog.class.getName());
+
+    /** Default refresh period, in milliseconds */
+    public static final long DEFAULT_REFRESH_PERIOD = Long.getLong(RundeckJobCatalog.class.getName()
+                                                                   + ".refreshPeriod", TimeUnit.MINUTES.toMillis(10));
+
+    /** Maximum number of projects of a catalogue refreshed by a run of the {@link Refresher} */
+    public static final int MAX_PROJECTS_PER_REFRESH = Integer.getInteger(RundeckJobCatalog.class.getName()
+                                                                          + ".maxProjectsPerRefresh", 10);
+
+    /** Delay between a change of a catalogue and its save, in milliseconds (the changes in between are saved at once) */
+    public static final long SAVE_DELAY = TimeUnit.SECONDS.toMillis(5);
+
+    private static final ConcurrentMap<String, RundeckJobCatalog> CATALOGS = new ConcurrentHashMap<String, RundeckJobCatalog>();
+
+    /** jobs by UUID (read without locking, updated while holding the lock of the catalogue) */
+    private final Map<String, RundeckJob> byId = new ConcurrentHashMap<String, RundeckJob>();
+
+    /** jobs by lower-cased reference (read without locking, updated while holding the lock of the catalogue) */
+    private final Map<String, RundeckJob> byReference = new ConcurrentHashMap<String, RundeckJob>();
+
+    /** time of the last refresh of the jobs of each project, by project name (guarded by itself) */
+    private final Map<String, Long> projectRefreshes = new HashMap<String, Long>();
+
+    /** time of the last refresh of the list of projects */
+    private long projectsRefreshed;
+
+    private final XmlFile file;
+
+    /** true while a save of the catalogue is scheduled */
+    private final AtomicBoolean saveScheduled = new AtomicBoolean();
+
+    /**
+     * last client of the instance seen for this catalogue (with the configured URL of the instance, not the one of
+     * the node of a cluster it was routed to), used to refresh it (null until {@link #forClient(RundeckClient)})
+     */
+    private volatile RundeckClient client;
+
+    /**
+     * @param rundeck client of a Rundeck instance (or of any node of a cluster, see {@link RundeckCluster})
+     * @return the (shared) catalogue of the jobs visible by the client user on its Rundeck instance : the nodes of a
+     *         cluster share the catalogue of the instance
+     */
+    public static RundeckJobCatalog forClient(RundeckClient rundeck) {
+        RundeckCluster cluster = RundeckCluster.forUrl(rundeck.getUrl());
+        String url = cluster != null ? cluster.getInstanceUrl() : rundeck.getUrl();
+        String key = url + '\n' + rundeck.getLogin();
+        RundeckJobCatalog catalog = CATALOGS.get(key);
+        if (catalog == null) {
+            catalog = new RundeckJobCatalog(getFile(key));
+            RundeckJobCatalog existing = CATALOGS.putIfAbsent(key, catalog);
+            if (existing != null) {
+                catalog = existing;
+            } else {
+                catalog.load();
+            }
+        }
+        if (StringUtils.equals(url, rundeck.getUrl())) {
+            catalog.client = rundeck;
+        } else if (catalog.client == null) {
+            catalog.client = RundeckCluster.withUrl(rundeck, url);
+        }
+        return catalog;
+    }
+
+    /**
+     * @return the file in which the catalogue is persisted, or null if Jenkins is not running
+     */
+    private static XmlFile getFile(String key) {
+        Hudson hudson = Hudson.getInstance();
+        if (hudson == null) {
+            return null;
+        }
+        File directory = new File(new File(hudson.getRootDir(), "rundeck"), "job-catalog");
+        return new XmlFile(Hudson.XSTREAM, new File(directory, Util.getDigestOf(key) + ".xml"));
+    }
+
+    /**
+     * @param file in which the catalogue is persisted (could be null)
+     */
+    RundeckJobCatalog(XmlFile file) {
+        this.file = file;
+    }
+
+    /**
+     * Find a job, without talking to Rundeck
+     *
+     * @param jobIdentifier either a simple ID, an UUID or a reference (project:group/name)
+     * @return the job, or null if it is not in the catalogue
+     */
+    public RundeckJob find(String jobIdentifier) {
+        if (StringUtils.isBlank(jobIdentifier)) {
+            return null;
+        }
+        String reference = RundeckNotifier.RundeckDescriptor.normalizeJobReference(jobIdentifier);
+        if (reference != null) {
+            return byReference.get(reference);
+        }
+        return byId.get(jobIdentifier);
+    }
+
+    /**
+     * Add a job loaded from the Rundeck API (after a miss), and schedule a save of the catalogue
+     *
+     * @param job to add (ignored if null or without an ID)
+     */
+    public synchronized void put(RundeckJob job) {
+        if (job == null || job.getId() == null) {
+            return;
+        }
+        RundeckJob previous = byId.get(job.getId());
+        if (previous != null && sameJob(previous, job)) {
+            return;
+        }
+        add(job);
+        scheduleSave();
+    }
+
+    /**
+     * Remove a job that Rundeck does not know anymore (deleted, or recreated with a new UUID), and schedule a save of
+     * the catalogue
+     *
+     * @param jobIdentifier either a simple ID, an UUID or a reference (project:group/name)
+     * @return true if the job was in the catalogue
+     */
+    public synchronized boolean remove(String jobIdentifier) {
+        RundeckJob job = find(jobIdentifier);
+        if (job == null) {
+            return false;
+        }
+        delete(job);
+        scheduleSave();
+        return true;
+    }
+
+    /**
+     * @return number of jobs in the catalogue
+     */
+    public int size() {
+        return byId.size();
+    }
+
+    /**
+     * Reload the jobs of the projects which were not refreshed for {@link #DEFAULT_REFRESH_PERIOD} (at most
+     * {@link #MAX_PROJECTS_PER_REFRESH}, the least recently refreshed first), and update the catalogue if they changed.
+     * The list of projects itself is reloaded with the same period : the jobs of the projects which disappeared are
+     * removed.
+     *
+     * @param rundeck client used to load the jobs
+     * @return true if the catalogue changed
+     * @throws RundeckApiException in case of error while talking to Rundeck
+     */
+    public boolean refresh(RundeckClient rundeck) throws RundeckApiException {
+        return refresh(rundeck, System.currentTimeMillis());
+    }
+
+    boolean refresh(RundeckClient rundeck, long now) throws RundeckApiException {
+        // the calls to Rundeck are made without holding the lock of the catalogue, which only guards its updates
+        synchronized (projectRefreshes) {
+            boolean changed = false;
+            if (projectsRefreshed == 0 || now - projectsRefreshed >= DEFAULT_REFRESH_PERIOD) {
+                Set<String> projects = new HashSet<String>();
+                for (RundeckProject project : rundeck.getProjects()) {
+                    projects.add(project.getName());
+                }
+                projectRefreshes.keySet().retainAll(projects);
+                for (String project : projects) {
+                    if (!projectRefreshes.containsKey(project)) {
+                        projectRefreshes.put(project, 0L);
+                    }
+                }
+                changed = retainProjects(projects);
+                projectsRefreshed = now;
+            }
+            List<Map.Entry<String, Long>> due = new ArrayList<Map.Entry<String, Long>>();
+            for (Map.Entry<String, Long> entry : projectRefreshes.entrySet()) {
+                if (entry.getValue() == 0 || now - entry.getValue() >= DEFAULT_REFRESH_PERIOD) {
+                    due.add(entry);
+                }
+            }
+            Collections.sort(due, LEAST_RECENTLY_REFRESHED);
+            List<String> projects = new ArrayList<String>();
+            for (Map.Entry<String, Long> entry : due.subList(0, Math.min(due.size(), MAX_PROJECTS_PER_REFRESH))) {
+                projects.add(entry.getKey());
+            }
+            for (String project : projects) {
+                changed |= update(project, rundeck.getJobs(project));
+                projectRefreshes.put(project, now);
+            }
+            return changed;
+        }
+    }
+
+    /**
+     * Remove the jobs of the projects which do not exist anymore
+     *
+     * @param projects names of all the projects of the Rundeck instance
+     * @return true if the catalogue changed
+     */
+    private synchronized boolean retainProjects(Set<String> projects) {
+        List<RundeckJob> others = new ArrayList<RundeckJob>();
+        for (RundeckJob job : byId.values()) {
+            if (!projects.contains(job.getProject())) {
+                others.add(job);
+            }
+        }
+        return update(others, Collections.<RundeckJob> emptyList());
+    }
+
+    /**
+     * Diff the given jobs with the ones of the catalogue for the same project, and update it if they changed. Unchanged
+     * jobs keep their instance.
+     *
+     * @param project name of the project
+     * @param jobs all the jobs of the project
+     * @return true if the catalogue changed
+     */
+    synchronized boolean update(String project, List<RundeckJob> jobs) {
+        List<RundeckJob> current = new ArrayList<RundeckJob>();
+        for (RundeckJob job : byId.values()) {
+            if (StringUtils.equals(project, job.getProject())) {
+                current.add(job);
+            }
+        }
+        return update(current, jobs);
+    }
+
+    /**
+     * Diff the given jobs with the whole catalogue, and update it if they changed. Unchanged jobs keep their instance.
+     *
+     * @param jobs all the jobs of the Rundeck instance
+     * @return true if the catalogue changed
+     */
+    synchronized boolean update(List<RundeckJob> jobs) {
+        return update(new ArrayList<RundeckJob>(byId.values()), jobs);
+    }
+
+    /**
+     * @param current jobs of the catalogue replaced by the given ones
+     * @param jobs new jobs
+     * @return true if the catalogue changed
+     */
+    private boolean update(Collection<RundeckJob> current, List<RundeckJob> jobs) {
+        Set<String> ids = new HashSet<String>();
+        int added = 0;
+        int changed = 0;
+        for (RundeckJob job : jobs) {
+            if (job.getId() == null) {
+                continue;
+            }
+            ids.add(job.getId());
+            RundeckJob previous = byId.get(job.getId());
+            if (previous == null) {
+                added++;
+                add(job);
+            } else if (!sameJob(previous, job)) {
+                changed++;
+                add(job);
+            }
+        }
+        int removed = 0;
+        for (RundeckJob job : current) {
+            if (!ids.contains(job.getId())) {
+                removed++;
+                delete(job);
+            }
+        }
+        if (added == 0 && changed == 0 && removed == 0) {
+            return false;
+        }
+        log.fine("Rundeck job catalogue updated : " + added + " added, " + changed + " changed, " + removed
+                 + " removed");
+        scheduleSave();
+        return true;
+    }
+
+    /**
+     * Add (or replace) a job in both indexes, and drop the reference of its previous version if it was renamed
+     */
+    private void add(RundeckJob job) {
+        RundeckJob previous = byId.put(job.getId(), job);
+        if (previous != null && byReference.get(getReference(previous)) == previous) {
+            byReference.remove(getReference(previous));
+        }
+        byReference.put(getReference(job), job);
+    }
+
+    private void delete(RundeckJob job) {
+        if (byId.get(job.getId()) == job) {
+            byId.remove(job.getId());
+        }
+        String reference = getReference(job);
+        if (byReference.get(reference) == job) {
+            byReference.remove(reference);
+        }
+    }
+
+    private static String getReference(RundeckJob job) {
+        return (job.getProject() + ":" + job.getFullName()).toLowerCase(Locale.ENGLISH);
+    }
+
+    private static boolean sameJob(RundeckJob a, RundeckJob b) {
+        return StringUtils.equals(a.getName(), b.getName()) && StringUtils.equals(a.getGroup(), b.getGroup())
+               && StringUtils.equals(a.getProject(), b.getProject())
+               && StringUtils.equals(a.getDescription(), b.getDescription());
+    }
+
+    private void load() {
+        if (file == null || !file.exists()) {
+            return;
+        }
+        try {
+            Object data = file.read();
+            if (data instanceof Data) {
+                synchronized (this) {
+                    for (RundeckJob job : ((Data) data).jobs) {
+                        if (job.getId() != null) {
+                            add(job);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to load the Rundeck job catalogue from " + file, e);
+        } catch (RuntimeException e) {
+            log.log(Level.WARNING, "Failed to load the Rundeck job catalogue from " + file, e);
+        }
+    }
+
+    /**
+     * Save the catalogue in the background after {@link #SAVE_DELAY}, unless a save is already scheduled (it will
+     * include the current changes)
+     */
+    private void scheduleSave() {
+        if (file == null || !saveScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        RundeckAsyncClient.schedule(new Runnable() {
+
+            public void run() {
+                // the changes made from now on need another save
+                saveScheduled.set(false);
+                save();
+            }
+        }, SAVE_DELAY);
+    }
+
+    private void save() {
+        synchronized (file) {
+            try {
+                file.write(new Data(new ArrayList<RundeckJob>(byId.values())));
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Failed to save the Rundeck job catalogue to " + file, e);
+            }
+        }
+    }
+
+    private static final Comparator<Map.Entry<String, Long>> LEAST_RECENTLY_REFRESHED = new Comparator<Map.Entry<String, Long>>() {
+
+        public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+            return a.getValue().compareTo(b.getValue());
+        }
+    };
+
+    /**
+     * Persisted form of a catalogue
+     */
+    private static class Data {
+
+        private final List<RundeckJob> jobs;
+
+        private Data(List<RundeckJob> jobs) {
+            this.jobs = jobs;
+        }
+    }
+
+    /**
+     * Periodically refreshes all the catalogues : the ones of the configured Rundeck instances, and the ones created for
+     * the users of the jobs
+     */
+    @Extension
+    public static class Refresher extends AsyncPeriodicWork {
+
+        public Refresher() {
+            super("Rundeck job catalogue refresh");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            // each run only refreshes the projects which are due
+            return Math.min(DEFAULT_REFRESH_PERIOD, TimeUnit.MINUTES.toMillis(1));
+        }
+
+        @Override
+        public long getInitialDelay() {
+            // right after the start, to correct the catalogues loaded from disk
+            return TimeUnit.SECONDS.toMillis(30);
+        }
+
+        @Override
+        protected void execute(TaskListener listener) {
+            RundeckNotifier.RundeckDescriptor descriptor = Hudson.getInstance().getDescriptorByType(RundeckNotifier.RundeckDescriptor.class);
+            if (descriptor == null) {
+                return;
+            }
+            // the catalogues of the instances are created if they were not used yet
+            for (RundeckClient instance : descriptor.getRundeckInstances().values()) {
+                forClient(instance);
+            }
+            for (RundeckJobCatalog catalog : CATALOGS.values()) {
+                RundeckClient rundeck = catalog.client;
+                if (rundeck == null) {
+                    continue;
+                }
+                try {
+                    catalog.refresh(RundeckCluster.route(rundeck));
+                } catch (RuntimeException e) {
+                    listener.error("Failed to refresh the job catalogue of the Rundeck instance " + rundeck.getUrl()
+                                   + (rundeck.getLogin() != null ? " (user " + rundeck.getLogin() + ")" : "") + " : "
+                                   + e.getMessage());
+                }
+            }
+        }
+    }
+}
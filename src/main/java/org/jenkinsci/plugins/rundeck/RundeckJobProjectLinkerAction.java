@@ -3,7 +3,6 @@ package org.jenkinsci.plugins.rundeck;
 import hudson.model.Action;
 import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.export.Exported;
-import org.rundeck.api.RundeckApiException;
 import org.rundeck.api.RundeckClient;
 import org.rundeck.api.domain.RundeckJob;
 
@@ -17,59 +16,90 @@ public class RundeckJobProjectLinkerAction implements Action {
 
     private final RundeckClient rundeck;
 
-    private final RundeckJob rundeckJob;
-
-    private final String rundeckJobUrl;
+    private final String rundeckJobIdentifier;
 
     /**
-     * Load the Rundeck job details (name, description, and so on) using the Rundeck API.
+     * Nothing is loaded here : the Rundeck job details (name, description, and so on) are read from the
+     * {@link RundeckJobCatalog} through the {@link RundeckJobCache}, which loads the missing ones from the Rundeck API
+     * in the background.
      * 
      * @param rundeck client used for talking to the Rundeck API
-     * @param rundeckJobId ID of the Rundeck job
-     * @throws RundeckApiException in case of error while loading the job details from Rundeck API
+     * @param rundeckJobId ID (or reference) of the Rundeck job
      * @throws IllegalArgumentException if rundeck or rundeckJobId is null
      */
-    public RundeckJobProjectLinkerAction(RundeckClient rundeck, String rundeckJobId) throws RundeckApiException,
-            IllegalArgumentException {
+    public RundeckJobProjectLinkerAction(RundeckClient rundeck, String rundeckJobId) throws IllegalArgumentException {
         if (rundeck == null) {
             throw new IllegalArgumentException("rundeckClient should not be null !");
         }
+        if (rundeckJobId == null) {
+            throw new IllegalArgumentException("rundeckJobId should not be null !");
+        }
         this.rundeck = rundeck;
-        this.rundeckJob = RundeckNotifier.RundeckDescriptor.findJob(rundeckJobId, rundeck);
-        this.rundeckJobUrl = buildRundeckJobUrl();
+        this.rundeckJobIdentifier = rundeckJobId;
+        // start loading the job in the background, before the first render
+        getRundeckJob();
     }
 
     /**
      * Build the absolute url to the Rundeck job page.
      * 
-     * @return the absolute url to the Rundeck job page, or null if unable to build it
+     * @param rundeckJobId UUID of the Rundeck job
+     * @return the absolute url to the Rundeck job page
      */
-    private String buildRundeckJobUrl() {
+    private String buildRundeckJobUrl(String rundeckJobId) {
         StringBuilder url = new StringBuilder();
         url.append(rundeck.getUrl());
         if (!StringUtils.endsWith(rundeck.getUrl(), "/")) {
             url.append("/");
         }
         url.append("job/show/");
-        url.append(rundeckJob.getId());
+        url.append(rundeckJobId);
         return url.toString();
     }
 
+    /**
+     * @return the Rundeck job, or null if it has not been loaded yet
+     */
     @Exported
     public RundeckJob getRundeckJob() {
-        return rundeckJob;
+        return RundeckJobCache.getInstance().get(rundeck, rundeckJobIdentifier);
+    }
+
+    /**
+     * @param client Rundeck client
+     * @return true if this action talks to the same Rundeck instance, with the same user, as the given client
+     */
+    boolean uses(RundeckClient client) {
+        return client != null && StringUtils.equals(rundeck.getUrl(), client.getUrl())
+               && StringUtils.equals(rundeck.getLogin(), client.getLogin());
+    }
+
+    public String getRundeckJobIdentifier() {
+        return rundeckJobIdentifier;
     }
 
     public String getIconFileName() {
-        return "/plugin/rundeck/images/rundeck_24x24.png";
+        return getUrlName() != null ? "/plugin/rundeck/images/rundeck_24x24.png" : null;
     }
 
     public String getDisplayName() {
+        RundeckJob rundeckJob = getRundeckJob();
+        if (rundeckJob == null) {
+            return "Job: " + rundeckJobIdentifier;
+        }
         return "Job: [" + rundeckJob.getProject() + "] " + rundeckJob.getName();
     }
 
     public String getUrlName() {
-        return rundeckJobUrl;
+        RundeckJob rundeckJob = getRundeckJob();
+        if (rundeckJob != null) {
+            return buildRundeckJobUrl(rundeckJob.getId());
+        }
+        // not loaded yet : we can only link to a job identified by its UUID
+        if (!RundeckNotifier.RundeckDescriptor.isJobReference(rundeckJobIdentifier)) {
+            return buildRundeckJobUrl(rundeckJobIdentifier);
+        }
+        return null;
     }
 
 }
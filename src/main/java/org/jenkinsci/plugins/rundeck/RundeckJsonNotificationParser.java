@@ -0,0 +1,445 @@
+package org.jenkinsci.plugins.rundeck;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.rundeck.RundeckNotificationParser.LimitedInputStream;
+import org.rundeck.api.domain.RundeckExecution;
+import org.rundeck.api.domain.RundeckJob;
+
+/**
+ * Streaming parser for Rundeck WebHook notifications, in the JSON format. The body is read once, character by
+ * character, without building any intermediate tree : only the fields used by {@link RundeckTrigger} and
+ * {@link RundeckCause} are kept. Accepted shapes are a single execution object, an array of executions, or an object
+ * with an "executions" array. The same limits as the {@link RundeckNotificationParser} are enforced.
+ */
+public class RundeckJsonNotificationParser {
+
+    private final int maxPayloadBytes;
+
+    private final int maxTextLength;
+
+    private final int maxDepth;
+
+    public RundeckJsonNotificationParser() {
+        this(RundeckNotificationParser.DEFAULT_MAX_PAYLOAD_BYTES, RundeckNotificationParser.DEFAULT_MAX_TEXT_LENGTH,
+             RundeckNotificationParser.DEFAULT_MAX_DEPTH);
+    }
+
+    /**
+     * @param maxPayloadBytes maximum number of bytes read from the input stream
+     * @param maxTextLength maximum length of a single string value
+     * @param maxDepth maximum depth of nested objects and arrays
+     */
+    public RundeckJsonNotificationParser(int maxPayloadBytes, int maxTextLength, int maxDepth) {
+        this.maxPayloadBytes = maxPayloadBytes;
+        this.maxTextLength = maxTextLength;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Parse all the executions of the given notification.
+     *
+     * @param input stream of the notification body, encoded in UTF-8 (will not be closed)
+     * @return the {@link RundeckExecution}s, in document order (never empty)
+     * @throws IOException if the payload is malformed, exceeds one of the limits, or does not contain any execution
+     */
+    public List<RundeckExecution> parse(InputStream input) throws IOException {
+        Lexer lexer = new Lexer(new InputStreamReader(new LimitedInputStream(input, maxPayloadBytes), "UTF-8"));
+        List<RundeckExecution> executions = new ArrayList<RundeckExecution>(1);
+        try {
+            int c = lexer.peek();
+            if (c == '[') {
+                parseExecutions(lexer, executions, 1);
+            } else if (c == '{') {
+                RundeckExecution execution = parseObject(lexer, executions, 1);
+                if (executions.isEmpty() && execution != null) {
+                    executions.add(execution);
+                }
+            } else {
+                throw lexer.error("expected an object or an array");
+            }
+            if (lexer.peek() != -1) {
+                throw lexer.error("unexpected content after the end of the notification");
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid Rundeck notification : " + e.getMessage(), e);
+        }
+        if (executions.isEmpty()) {
+            throw new IOException("No execution found in the Rundeck notification !");
+        }
+        return executions;
+    }
+
+    /**
+     * Parse an array of executions.
+     */
+    private void parseExecutions(Lexer lexer, List<RundeckExecution> executions, int depth) throws IOException {
+        checkDepth(depth);
+        lexer.expect('[');
+        if (lexer.peek() == ']') {
+            lexer.expect(']');
+            return;
+        }
+        do {
+            if (executions.size() >= RundeckNotificationParser.MAX_EXECUTIONS) {
+                throw new IOException("Rundeck notification exceeds the maximum of "
+                                      + RundeckNotificationParser.MAX_EXECUTIONS + " executions !");
+            }
+            if (lexer.peek() != '{') {
+                throw lexer.error("expected an execution object");
+            }
+            RundeckExecution execution = parseObject(lexer, null, depth + 1);
+            if (execution != null) {
+                executions.add(execution);
+            }
+        } while (lexer.nextInList(']'));
+    }
+
+    /**
+     * Parse an object which is either an execution, or a wrapper with an "executions" array (only when
+     * wrappedExecutions is not null).
+     *
+     * @return the execution, or null if the object does not look like an execution
+     */
+    private RundeckExecution parseObject(Lexer lexer, List<RundeckExecution> wrappedExecutions, int depth)
+            throws IOException {
+        checkDepth(depth);
+        RundeckExecution execution = new RundeckExecution();
+        boolean isExecution = false;
+        String permalink = null;
+        lexer.expect('{');
+        if (lexer.peek() == '}') {
+            lexer.expect('}');
+            return null;
+        }
+        do {
+            String key = lexer.readString(maxTextLength);
+            lexer.expect(':');
+            if ("id".equals(key)) {
+                execution.setId(RundeckNotificationParser.parseLong(readScalar(lexer)));
+                isExecution = true;
+            } else if ("status".equals(key)) {
+                execution.setStatus(RundeckNotificationParser.parseStatus(readScalar(lexer)));
+                isExecution = true;
+            } else if ("href".equals(key)) {
+                execution.setUrl(readScalar(lexer));
+            } else if ("permalink".equals(key)) {
+                permalink = readScalar(lexer);
+            } else if ("user".equals(key)) {
+                execution.setStartedBy(StringUtils.trimToNull(readScalar(lexer)));
+            } else if ("date-started".equals(key)) {
+                execution.setStartedAt(RundeckNotificationParser.parseDate(readUnixtime(lexer, depth + 1)));
+            } else if ("date-ended".equals(key)) {
+                execution.setEndedAt(RundeckNotificationParser.parseDate(readUnixtime(lexer, depth + 1)));
+            } else if ("abortedby".equals(key)) {
+                execution.setAbortedBy(StringUtils.trimToNull(readScalar(lexer)));
+            } else if ("description".equals(key)) {
+                execution.setDescription(StringUtils.trimToNull(readScalar(lexer)));
+            } else if ("argstring".equals(key)) {
+                execution.setArgstring(StringUtils.trimToNull(readScalar(lexer)));
+            } else if ("job".equals(key) && lexer.peek() == '{') {
+                execution.setJob(parseJob(lexer, depth + 1));
+            } else if ("executions".equals(key) && wrappedExecutions != null && lexer.peek() == '[') {
+                parseExecutions(lexer, wrappedExecutions, depth + 1);
+            } else {
+                skipValue(lexer, depth + 1);
+            }
+        } while (lexer.nextInList('}'));
+
+        if (!isExecution) {
+            return null;
+        }
+        // "permalink" is the GUI url (same as the "href" of the XML format), "href" is the API url
+        if (permalink != null) {
+            execution.setUrl(permalink);
+        }
+        if (execution.getStatus() == null) {
+            throw new IOException("Invalid Rundeck notification : missing execution status");
+        }
+        return execution;
+    }
+
+    private RundeckJob parseJob(Lexer lexer, int depth) throws IOException {
+        checkDepth(depth);
+        RundeckJob job = new RundeckJob();
+        lexer.expect('{');
+        if (lexer.peek() == '}') {
+            lexer.expect('}');
+            return job;
+        }
+        do {
+            String key = lexer.readString(maxTextLength);
+            lexer.expect(':');
+            if ("id".equals(key)) {
+                job.setId(readScalar(lexer));
+            } else if ("name".equals(key)) {
+                job.setName(StringUtils.trimToNull(readScalar(lexer)));
+            } else if ("group".equals(key)) {
+                job.setGroup(StringUtils.trimToNull(readScalar(lexer)));
+            } else if ("project".equals(key)) {
+                job.setProject(StringUtils.trimToNull(readScalar(lexer)));
+            } else if ("description".equals(key)) {
+                job.setDescription(StringUtils.trimToNull(readScalar(lexer)));
+            } else {
+                skipValue(lexer, depth + 1);
+            }
+        } while (lexer.nextInList('}'));
+        return job;
+    }
+
+    /**
+     * Read the "unixtime" of a date object such as {"unixtime":1310159014640,"date":"2011-07-08T21:03:34Z"}.
+     */
+    private String readUnixtime(Lexer lexer, int depth) throws IOException {
+        if (lexer.peek() != '{') {
+            skipValue(lexer, depth);
+            return null;
+        }
+        checkDepth(depth);
+        String unixtime = null;
+        lexer.expect('{');
+        if (lexer.peek() == '}') {
+            lexer.expect('}');
+            return null;
+        }
+        do {
+            String key = lexer.readString(maxTextLength);
+            lexer.expect(':');
+            if ("unixtime".equals(key)) {
+                unixtime = readScalar(lexer);
+            } else {
+                skipValue(lexer, depth + 1);
+            }
+        } while (lexer.nextInList('}'));
+        return unixtime;
+    }
+
+    /**
+     * Read a string, number, boolean or null value, as a string (null for the JSON null).
+     */
+    private String readScalar(Lexer lexer) throws IOException {
+        int c = lexer.peek();
+        if (c == '"') {
+            return lexer.readString(maxTextLength);
+        }
+        if (c == '{' || c == '[') {
+            throw lexer.error("expected a scalar value");
+        }
+        String literal = lexer.readLiteral(maxTextLength);
+        return "null".equals(literal) ? null : literal;
+    }
+
+    private void skipValue(Lexer lexer, int depth) throws IOException {
+        int c = lexer.peek();
+        if (c == '{' || c == '[') {
+            checkDepth(depth);
+            char close = c == '{' ? '}' : ']';
+            lexer.expect((char) c);
+            if (lexer.peek() == close) {
+                lexer.expect(close);
+                return;
+            }
+            do {
+                if (close == '}') {
+                    lexer.skipString();
+                    lexer.expect(':');
+                }
+                skipValue(lexer, depth + 1);
+            } while (lexer.nextInList(close));
+        } else if (c == '"') {
+            lexer.skipString();
+        } else {
+            lexer.readLiteral(maxTextLength);
+        }
+    }
+
+    private void checkDepth(int depth) throws IOException {
+        if (depth > maxDepth) {
+            throw new IOException("Rundeck notification exceeds the maximum depth of " + maxDepth + " levels !");
+        }
+    }
+
+    /**
+     * Minimal JSON lexer over a {@link Reader}, with a single character of look-ahead.
+     */
+    private static class Lexer {
+
+        private final Reader reader;
+
+        private final char[] buffer = new char[4096];
+
+        private int position;
+
+        private int limit;
+
+        private long offset;
+
+        Lexer(Reader reader) {
+            this.reader = reader;
+        }
+
+        /** @return the next non-whitespace character, without consuming it, or -1 at the end of the input */
+        int peek() throws IOException {
+            while (true) {
+                if (position == limit && !fill()) {
+                    return -1;
+                }
+                char c = buffer[position];
+                if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                    position++;
+                    offset++;
+                } else {
+                    return c;
+                }
+            }
+        }
+
+        private int read() throws IOException {
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            offset++;
+            return buffer[position++];
+        }
+
+        private boolean fill() throws IOException {
+            int n = reader.read(buffer, 0, buffer.length);
+            if (n <= 0) {
+                return false;
+            }
+            position = 0;
+            limit = n;
+            return true;
+        }
+
+        void expect(char expected) throws IOException {
+            if (peek() != expected) {
+                throw error("expected '" + expected + "'");
+            }
+            read();
+        }
+
+        /**
+         * Consume the separator after an element of an object or array.
+         *
+         * @return true if another element follows (','), false if the container is closed
+         */
+        boolean nextInList(char close) throws IOException {
+            int c = peek();
+            if (c == ',') {
+                read();
+                return true;
+            }
+            if (c == close) {
+                read();
+                return false;
+            }
+            throw error("expected ',' or '" + close + "'");
+        }
+
+        String readString(int maxLength) throws IOException {
+            StringBuilder value = new StringBuilder();
+            readString(value, maxLength);
+            return value.toString();
+        }
+
+        void skipString() throws IOException {
+            readString(null, Integer.MAX_VALUE);
+        }
+
+        private void readString(StringBuilder value, int maxLength) throws IOException {
+            expect('"');
+            int length = 0;
+            while (true) {
+                int c = read();
+                if (c == -1) {
+                    throw error("unterminated string");
+                }
+                if (c == '"') {
+                    return;
+                }
+                if (c == '\\') {
+                    c = readEscape();
+                }
+                if (++length > maxLength) {
+                    throw new IOException("String value exceeds the limit of " + maxLength + " characters !");
+                }
+                if (value != null) {
+                    value.append((char) c);
+                }
+            }
+        }
+
+        private int readEscape() throws IOException {
+            int c = read();
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    return c;
+                case 'b':
+                    return '\b';
+                case 'f':
+                    return '\f';
+                case 'n':
+                    return '\n';
+                case 'r':
+                    return '\r';
+                case 't':
+                    return '\t';
+                case 'u':
+                    int code = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(read(), 16);
+                        if (digit < 0) {
+                            throw error("invalid unicode escape");
+                        }
+                        code = (code << 4) | digit;
+                    }
+                    return code;
+                default:
+                    throw error("invalid escape sequence");
+            }
+        }
+
+        /** Read a number, true, false or null */
+        String readLiteral(int maxLength) throws IOException {
+            StringBuilder literal = new StringBuilder();
+            peek();
+            while (true) {
+                if (position == limit && !fill()) {
+                    break;
+                }
+                char c = buffer[position];
+                if (!(Character.isLetterOrDigit(c) || c == '-' || c == '+' || c == '.')) {
+                    break;
+                }
+                if (literal.length() >= maxLength) {
+                    throw new IOException("Value exceeds the limit of " + maxLength + " characters !");
+                }
+                literal.append(c);
+                position++;
+                offset++;
+            }
+            if (literal.length() == 0) {
+                throw error("expected a value");
+            }
+            String value = literal.toString();
+            if (Character.isLetter(value.charAt(0)) && !"true".equals(value) && !"false".equals(value)
+                && !"null".equals(value)) {
+                throw error("invalid literal '" + value + "'");
+            }
+            return value;
+        }
+
+        IOException error(String message) {
+            return new IOException("Failed to parse the Rundeck notification at character " + offset + " : "
+                                   + message);
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package org.jenkinsci.plugins.rundeck;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.apache.commons.lang.StringUtils;
+import org.rundeck.api.domain.RundeckExecution;
+import org.rundeck.api.domain.RundeckExecution.ExecutionStatus;
+import org.rundeck.api.domain.RundeckJob;
+
+/**
+ * Streaming (StAX) parser for Rundeck WebHook notifications, in the XML format. Only the fields used by {@link RundeckTrigger} and
+ * {@link RundeckCause} are read, everything else (node lists, options, ...) is skipped without being materialized.
+ * Hard limits are enforced on the payload size, the element depth and the length of each text value.
+ */
+public class RundeckNotificationParser {
+
+    /** Default maximum size of a notification payload, in bytes */
+    public static final int DEFAULT_MAX_PAYLOAD_BYTES = 4 * 1024 * 1024;
+
+    /** Default maximum length of a single text value (argstring, description, ...), in characters */
+    public static final int DEFAULT_MAX_TEXT_LENGTH = 64 * 1024;
+
+    /** Default maximum depth of nested elements */
+    public static final int DEFAULT_MAX_DEPTH = 32;
+
+    /** Maximum number of executions in a single notification */
+    public static final int MAX_EXECUTIONS = 1000;
+
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private final int maxPayloadBytes;
+
+    private final int maxTextLength;
+
+    private final int maxDepth;
+
+    public RundeckNotificationParser() {
+        this(DEFAULT_MAX_PAYLOAD_BYTES, DEFAULT_MAX_TEXT_LENGTH, DEFAULT_MAX_DEPTH);
+    }
+
+    /**
+     * @param maxPayloadBytes maximum number of bytes read from the input stream
+     * @param maxTextLength maximum length of a single text value
+     * @param maxDepth maximum depth of nested elements
+     */
+    public RundeckNotificationParser(int maxPayloadBytes, int maxTextLength, int maxDepth) {
+        this.maxPayloadBytes = maxPayloadBytes;
+        this.maxTextLength = maxTextLength;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Parse all the executions of the given notification (the "notification/executions/execution" nodes).
+     *
+     * @param input stream of the notification body (will not be closed)
+     * @return the {@link RundeckExecution}s, in document order (never empty)
+     * @throws IOException if the payload is malformed, exceeds one of the limits, or does not contain any execution
+     */
+    public List<RundeckExecution> parse(InputStream input) throws IOException {
+        XMLStreamReader reader;
+        try {
+            reader = FACTORY.createXMLStreamReader(new LimitedInputStream(input, maxPayloadBytes));
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to read the Rundeck notification : " + e.getMessage(), e);
+        }
+        try {
+            // notification > executions > execution
+            String[] path = new String[] { "notification", "executions", "execution" };
+            List<RundeckExecution> executions = new ArrayList<RundeckExecution>(1);
+            int matched = 0;
+            int depth = 0;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    checkDepth(depth);
+                    if (matched == depth - 1 && path[matched].equals(reader.getLocalName())) {
+                        matched++;
+                        if (matched == path.length) {
+                            if (executions.size() >= MAX_EXECUTIONS) {
+                                throw new IOException("Rundeck notification exceeds the maximum of " + MAX_EXECUTIONS
+                                                      + " executions !");
+                            }
+                            // positioned on the END_ELEMENT of the execution
+                            executions.add(parseExecution(reader, depth));
+                            matched--;
+                            depth--;
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (matched == depth) {
+                        matched--;
+                    }
+                    depth--;
+                }
+            }
+            if (executions.isEmpty()) {
+                throw new IOException("No execution found in the Rundeck notification !");
+            }
+            return executions;
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to parse the Rundeck notification : " + e.getMessage(), e);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid Rundeck notification : " + e.getMessage(), e);
+        } finally {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                // NOP
+            }
+        }
+    }
+
+    /**
+     * Parse an "execution" element. The reader is positioned on its START_ELEMENT, and will be positioned on its
+     * END_ELEMENT when this method returns.
+     */
+    private RundeckExecution parseExecution(XMLStreamReader reader, int baseDepth) throws XMLStreamException,
+            IOException {
+        RundeckExecution execution = new RundeckExecution();
+        execution.setId(parseLong(reader.getAttributeValue(null, "id")));
+        execution.setUrl(reader.getAttributeValue(null, "href"));
+        execution.setStatus(parseStatus(reader.getAttributeValue(null, "status")));
+
+        int depth = baseDepth;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                return execution;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            checkDepth(depth + 1);
+            String name = reader.getLocalName();
+            if ("user".equals(name)) {
+                execution.setStartedBy(readText(reader));
+            } else if ("date-started".equals(name)) {
+                execution.setStartedAt(parseDate(reader.getAttributeValue(null, "unixtime")));
+                skipElement(reader, depth + 1);
+            } else if ("date-ended".equals(name)) {
+                execution.setEndedAt(parseDate(reader.getAttributeValue(null, "unixtime")));
+                skipElement(reader, depth + 1);
+            } else if ("abortedby".equals(name)) {
+                execution.setAbortedBy(readText(reader));
+            } else if ("description".equals(name)) {
+                execution.setDescription(readText(reader));
+            } else if ("argstring".equals(name)) {
+                execution.setArgstring(readText(reader));
+            } else if ("job".equals(name)) {
+                execution.setJob(parseJob(reader, depth + 1));
+            } else {
+                skipElement(reader, depth + 1);
+            }
+        }
+        throw new IOException("Unexpected end of the Rundeck notification !");
+    }
+
+    /**
+     * Parse a "job" element. The reader is positioned on its START_ELEMENT, and will be positioned on its END_ELEMENT
+     * when this method returns.
+     */
+    private RundeckJob parseJob(XMLStreamReader reader, int baseDepth) throws XMLStreamException, IOException {
+        RundeckJob job = new RundeckJob();
+        job.setId(reader.getAttributeValue(null, "id"));
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                return job;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            checkDepth(baseDepth + 1);
+            String name = reader.getLocalName();
+            if ("name".equals(name)) {
+                job.setName(readText(reader));
+            } else if ("group".equals(name)) {
+                job.setGroup(readText(reader));
+            } else if ("project".equals(name)) {
+                job.setProject(readText(reader));
+            } else if ("description".equals(name)) {
+                job.setDescription(readText(reader));
+            } else {
+                skipElement(reader, baseDepth + 1);
+            }
+        }
+        throw new IOException("Unexpected end of the Rundeck notification !");
+    }
+
+    /**
+     * Read the text content of a simple element, enforcing the text length limit. The reader is positioned on its
+     * START_ELEMENT, and will be positioned on its END_ELEMENT when this method returns.
+     */
+    private String readText(XMLStreamReader reader) throws XMLStreamException, IOException {
+        String name = reader.getLocalName();
+        StringBuilder text = new StringBuilder();
+        int depth = 0;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            switch (event) {
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (depth == 0) {
+                        if (text.length() + reader.getTextLength() > maxTextLength) {
+                            throw new IOException("Text value of element '" + name + "' exceeds the limit of " + maxTextLength + " characters !");
+                        }
+                        text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    }
+                    break;
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (depth == 0) {
+                        return StringUtils.trimToNull(text.toString());
+                    }
+                    depth--;
+                    break;
+                default:
+                    break;
+            }
+        }
+        throw new IOException("Unexpected end of the Rundeck notification !");
+    }
+
+    /**
+     * Skip the current element and all its children. The reader is positioned on its START_ELEMENT, and will be
+     * positioned on its END_ELEMENT when this method returns.
+     */
+    private void skipElement(XMLStreamReader reader, int baseDepth) throws XMLStreamException, IOException {
+        int depth = 0;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+                checkDepth(baseDepth + depth);
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (depth == 0) {
+                    return;
+                }
+                depth--;
+            }
+        }
+        throw new IOException("Unexpected end of the Rundeck notification !");
+    }
+
+    private void checkDepth(int depth) throws IOException {
+        if (depth > maxDepth) {
+            throw new IOException("Rundeck notification exceeds the maximum depth of " + maxDepth + " elements !");
+        }
+    }
+
+    static Long parseLong(String value) {
+        if (StringUtils.isBlank(value)) {
+            return null;
+        }
+        return Long.valueOf(value.trim());
+    }
+
+    static Date parseDate(String unixtime) {
+        Long time = parseLong(unixtime);
+        return time != null ? new Date(time) : null;
+    }
+
+    /**
+     * Same mapping as the Rundeck API client : "succeeded" => SUCCEEDED, "failed" => FAILED, and so on.
+     */
+    static ExecutionStatus parseStatus(String status) {
+        if (StringUtils.isBlank(status)) {
+            throw new IllegalArgumentException("Missing execution status");
+        }
+        return ExecutionStatus.valueOf(StringUtils.upperCase(status.trim()).replace('-', '_'));
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // notifications are plain data : no DTD, no external entities
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+        return factory;
+    }
+
+    /**
+     * {@link InputStream} that fails once more than a given number of bytes has been read.
+     */
+    static class LimitedInputStream extends FilterInputStream {
+
+        private final long limit;
+
+        private long count;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void count(long n) throws IOException {
+            count += n;
+            if (count > limit) {
+                throw new IOException("Rundeck notification exceeds the maximum size of " + limit + " bytes !");
+            }
+        }
+    }
+}
@@ -23,16 +23,28 @@ import hudson.tasks.Notifier;
 import hudson.tasks.Publisher;
 import hudson.util.FormValidation;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -40,7 +52,7 @@ import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
 
 import org.apache.commons.lang.StringUtils;
-import org.jenkinsci.plugins.rundeck.RunDeckLogTail.RunDeckLogTailIterator;
+import org.jenkinsci.plugins.rundeck.RunDeckLogTail.PipelinedIterator;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
@@ -62,6 +74,8 @@ import org.rundeck.api.domain.RundeckOutputEntry;
  */
 public class RundeckNotifier extends Notifier {
 
+    private static final Logger log = Logger.getLogger(RundeckNotifier.class.getName());
+
     /** Pattern used for the token expansion of $ARTIFACT_NAME{regex} */
     private static final transient Pattern TOKEN_ARTIFACT_NAME_PATTERN = Pattern.compile("\\$ARTIFACT_NAME\\{(.+)\\}");
 
@@ -87,6 +101,18 @@ public class RundeckNotifier extends Notifier {
     private final Boolean includeRundeckLogs;
     
     private final Boolean tailLog;
+
+    /** tail the log on the node running the build, instead of the controller */
+    private final Boolean tailOnAgent;
+
+    /** tail the log of each Rundeck node separately */
+    private final Boolean tailPerNode;
+
+    /** write the log of each Rundeck node to its own file (in the artifacts of the build) */
+    private final Boolean perNodeLogFiles;
+
+    /** action displayed on the project page, which caches the Rundeck job details */
+    private transient volatile RundeckJobProjectLinkerAction projectAction;
     
     /** for multiple rundeck users */
     private String jobUser;
@@ -100,10 +126,22 @@ public class RundeckNotifier extends Notifier {
        this(rundeckInstance, jobId, options, nodeFilters, tag, shouldWaitForRundeckJob, shouldFailTheBuild, false, false, jobUser, jobPassword);
     }
     
-    @DataBoundConstructor
     public RundeckNotifier(String rundeckInstance, String jobId, String options, String nodeFilters, String tags,
             Boolean shouldWaitForRundeckJob, Boolean shouldFailTheBuild, Boolean includeRundeckLogs, Boolean tailLog,
             String jobUser, String jobPassword) {
+        this(rundeckInstance, jobId, options, nodeFilters, tags, shouldWaitForRundeckJob, shouldFailTheBuild, includeRundeckLogs, tailLog, false, jobUser, jobPassword);
+    }
+
+    public RundeckNotifier(String rundeckInstance, String jobId, String options, String nodeFilters, String tags,
+            Boolean shouldWaitForRundeckJob, Boolean shouldFailTheBuild, Boolean includeRundeckLogs, Boolean tailLog,
+            Boolean tailOnAgent, String jobUser, String jobPassword) {
+        this(rundeckInstance, jobId, options, nodeFilters, tags, shouldWaitForRundeckJob, shouldFailTheBuild, includeRundeckLogs, tailLog, tailOnAgent, false, false, jobUser, jobPassword);
+    }
+
+    @DataBoundConstructor
+    public RundeckNotifier(String rundeckInstance, String jobId, String options, String nodeFilters, String tags,
+            Boolean shouldWaitForRundeckJob, Boolean shouldFailTheBuild, Boolean includeRundeckLogs, Boolean tailLog,
+            Boolean tailOnAgent, Boolean tailPerNode, Boolean perNodeLogFiles, String jobUser, String jobPassword) {
         this.rundeckInstance = rundeckInstance;
         this.jobId = jobId;
         this.options = options;
@@ -114,6 +152,9 @@ public class RundeckNotifier extends Notifier {
         this.shouldFailTheBuild = shouldFailTheBuild;
         this.includeRundeckLogs = includeRundeckLogs;
         this.tailLog = tailLog;
+        this.tailOnAgent = tailOnAgent;
+        this.tailPerNode = tailPerNode;
+        this.perNodeLogFiles = perNodeLogFiles;
         this.jobUser = jobUser;
         this.jobPassword = jobPassword;
 
@@ -145,14 +186,21 @@ public class RundeckNotifier extends Notifier {
         }
         this.performUser = rundeck.getLogin();
         try {
-            rundeck.ping();
+            // on a cluster : the healthiest node which answers
+            rundeck = RundeckCluster.call(rundeck, new RundeckCluster.Call<RundeckClient>() {
+
+                public RundeckClient call(RundeckClient node) {
+                    node.ping();
+                    return node;
+                }
+            }, true);
         } catch (RundeckApiException e) {
             listener.getLogger().println("Rundeck is not running !");
             return false;
         }
 
         if (shouldNotifyRundeck(build, listener)) {
-            return notifyRundeck(rundeck, build, listener);
+            return notifyRundeck(rundeck, build, launcher, listener);
         }
 
         return true;
@@ -217,10 +265,12 @@ public class RundeckNotifier extends Notifier {
      * 
      * @param rundeck instance to notify
      * @param build for adding actions
+     * @param launcher for tailing the log on the node running the build
      * @param listener for logging the result
      * @return true if successful, false otherwise
      */
-    private boolean notifyRundeck(RundeckClient rundeck, AbstractBuild<?, ?> build, BuildListener listener) {
+    private boolean notifyRundeck(RundeckClient rundeck, AbstractBuild<?, ?> build, Launcher launcher,
+            BuildListener listener) {
         //if the jobId is in the form "project:[group/*]name", find the actual job ID first.
         String foundJobId = null;
         try {
@@ -236,12 +286,12 @@ public class RundeckNotifier extends Notifier {
             listener.getLogger().println("Could not find a job with the identifier : " + jobId);
             return false;
         }
+        Properties jobOptions = parseProperties(options, build, listener);
+        Properties jobNodeFilters = parseProperties(nodeFilters, build, listener);
         try {
-            RundeckExecution execution = rundeck.triggerJob(RunJobBuilder.builder()
-                    .setJobId(foundJobId)
-                    .setOptions(parseProperties(options, build, listener))
-                    .setNodeFilters(parseProperties(nodeFilters, build, listener))
-                    .build());
+            RundeckExecution execution = RundeckDescriptor.triggerJob(jobId, foundJobId, rundeck, jobOptions,
+                                                                      jobNodeFilters, listener.getLogger());
+            rundeck = RundeckCluster.route(rundeck);
 
             listener.getLogger().println("Notification succeeded ! Execution #" + execution.getId() + ", at "
                     + execution.getUrl() + " (status : " + execution.getStatus() + ")");
@@ -251,27 +301,48 @@ public class RundeckNotifier extends Notifier {
                 listener.getLogger().println("Waiting for Rundeck execution to finish...");
                 if (Boolean.TRUE.equals(includeRundeckLogs) && Boolean.TRUE.equals(tailLog)){
                     listener.getLogger().println("------------------------- BEGIN RUNDECK TAILED LOG OUTPUT -----------------------");
-                    RunDeckLogTail runDeckLogTail = new RunDeckLogTail(rundeck, execution.getId());
-                    RunDeckLogTailIterator runDeckLogTailIterator = runDeckLogTail.iterator();
-                    while(runDeckLogTailIterator.hasNext()){
-                        for (RundeckOutputEntry rundeckOutputEntry : runDeckLogTailIterator.next()) {
-                            listener.getLogger().println(String.format("[%s] [%s] %s", new Object[] {rundeckOutputEntry.getTime(), rundeckOutputEntry.getLevel(), rundeckOutputEntry.getMessage()}));
-                        }
+                    boolean tailed = true;
+                    boolean onAgent = Boolean.TRUE.equals(tailOnAgent) && launcher != null && launcher.getChannel() != null;
+                    if (onAgent && !RunDeckLogTailCallable.supports(rundeck)) {
+                        // the credentials would be sent to the build node : only a token is
+                        listener.getLogger().println("The log can only be tailed on the build node with a Rundeck token, tailing it from here...");
+                        onAgent = false;
                     }
-                    listener.getLogger().println("------------------------- END RUNDECK TAILED LOG OUTPUT -------------------------");
-
-                    execution = rundeck.getExecution(execution.getId());
-                    logExecutionStatus(listener, execution);
-                } else {
-                    while (ExecutionStatus.RUNNING.equals(execution.getStatus())) {
+                    if (Boolean.TRUE.equals(tailPerNode) && tailPerNode(rundeck, execution.getId(), build, listener)) {
+                        // the output of each node has been followed separately
+                    } else if (onAgent) {
                         try {
-                            Thread.sleep(5000);
+                            launcher.getChannel().call(new RunDeckLogTailCallable(rundeck, execution.getId(), listener));
+                        } catch (IOException e) {
+                            // most likely the agent went offline : the execution is still followed from here
+                            listener.getLogger().println("Failed to tail the log on the build node : " + e.getMessage());
+                            tailed = false;
                         } catch (InterruptedException e) {
                             listener.getLogger().println("Oops, interrupted ! " + e.getMessage());
-                            break;
                         }
-                        execution = rundeck.getExecution(execution.getId());
+                    } else {
+                        RunDeckLogTail runDeckLogTail = new RunDeckLogTail(rundeck, execution.getId());
+                        // the next page is fetched while this one is written
+                        PipelinedIterator runDeckLogTailIterator = runDeckLogTail.pipelined(RunDeckLogTail.DEFAULT_PIPELINE_CAPACITY);
+                        try {
+                            while(runDeckLogTailIterator.hasNext()){
+                                for (RundeckOutputEntry rundeckOutputEntry : runDeckLogTailIterator.next()) {
+                                    listener.getLogger().println(RunDeckLogTail.format(rundeckOutputEntry));
+                                }
+                            }
+                        } finally {
+                            runDeckLogTailIterator.cancel();
+                        }
                     }
+                    listener.getLogger().println("------------------------- END RUNDECK TAILED LOG OUTPUT -------------------------");
+
+                    execution = getExecution(rundeck, execution.getId());
+                    if (!tailed) {
+                        execution = waitForCompletion(rundeck, execution, listener);
+                    }
+                    logExecutionStatus(listener, execution);
+                } else {
+                    execution = waitForCompletion(rundeck, execution, listener);
                     logExecutionStatus(listener, execution);
 
                     if (Boolean.TRUE.equals(includeRundeckLogs)) {
@@ -322,6 +393,89 @@ public class RundeckNotifier extends Notifier {
         }
     }
 
+    /**
+     * Tail the log of each node of the execution separately (see {@link RunDeckParallelLogTail})
+     *
+     * @return false if the nodes of the execution are not known (the log should then be tailed as usual)
+     */
+    private boolean tailPerNode(RundeckClient rundeck, Long executionId, AbstractBuild<?, ?> build,
+            BuildListener listener) {
+        RunDeckParallelLogTail tail = new RunDeckParallelLogTail(rundeck, executionId);
+        RunDeckParallelLogTail.FileSink files = null;
+        try {
+            List<String> nodes = Collections.emptyList();
+            try {
+                if (tail.isSupported()) {
+                    nodes = tail.getNodes();
+                }
+            } catch (RundeckApiException e) {
+                listener.getLogger().println("Failed to get the nodes of the Rundeck execution : " + e.getMessage());
+            }
+            if (nodes.isEmpty()) {
+                listener.getLogger().println("The nodes of the Rundeck execution are not known, tailing its whole log...");
+                return false;
+            }
+            RunDeckParallelLogTail.Sink sink;
+            if (Boolean.TRUE.equals(perNodeLogFiles)) {
+                File directory = new File(build.getArtifactsDir(), "rundeck-" + executionId);
+                listener.getLogger().println("Writing the log of the " + nodes.size() + " Rundeck nodes to the artifacts of the build (rundeck-" + executionId + "/NODE.log)...");
+                files = new RunDeckParallelLogTail.FileSink(directory);
+                sink = files;
+            } else {
+                listener.getLogger().println("Tailing the log of the " + nodes.size() + " Rundeck nodes...");
+                sink = new RunDeckParallelLogTail.ConsoleSink(listener.getLogger());
+            }
+            tail.tail(nodes, sink);
+        } catch (InterruptedException e) {
+            listener.getLogger().println("Oops, interrupted ! " + e.getMessage());
+        } catch (IOException e) {
+            listener.getLogger().println("Failed to write the log of the Rundeck nodes : " + e.getMessage());
+        } finally {
+            if (files != null) {
+                files.close();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Wait for the end of an execution, polled by the shared poller : no thread is busy between 2 polls
+     *
+     * @return the finished execution (or the given one if it is not running, or if we have been interrupted)
+     */
+    private static RundeckExecution waitForCompletion(RundeckClient rundeck, RundeckExecution execution,
+            BuildListener listener) {
+        if (!ExecutionStatus.RUNNING.equals(execution.getStatus())) {
+            return execution;
+        }
+        Future<RundeckExecution> completion = new RundeckAsyncClient(rundeck).waitForCompletion(execution.getId(),
+                                                                                                RundeckAsyncClient.DEFAULT_POLL_INTERVAL);
+        try {
+            return completion.get();
+        } catch (InterruptedException e) {
+            completion.cancel(false);
+            listener.getLogger().println("Oops, interrupted ! " + e.getMessage());
+            return execution;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RundeckApiException) {
+                throw (RundeckApiException) e.getCause();
+            }
+            throw new RundeckApiException("Failed to get the status of execution #" + execution.getId(), e.getCause());
+        }
+    }
+
+    /**
+     * Read the status of an execution (from any node of a cluster)
+     */
+    private static RundeckExecution getExecution(RundeckClient rundeck, final Long executionId) {
+        return RundeckCluster.call(rundeck, new RundeckCluster.Call<RundeckExecution>() {
+
+            public RundeckExecution call(RundeckClient node) {
+                return node.getExecution(executionId);
+            }
+        }, true);
+    }
+
     private void logExecutionStatus(BuildListener listener, RundeckExecution execution) {
         listener.getLogger().println("Rundeck execution #" + execution.getId() + " finished in "
                 + execution.getDuration() + ", with status : " + execution.getStatus());
@@ -335,7 +489,7 @@ public class RundeckNotifier extends Notifier {
      * @param listener for retrieving Jenkins environment variables and logging the errors
      * @return A {@link Properties} instance (may be empty), or null if unable to parse the options
      */
-    private Properties parseProperties(String input, AbstractBuild<?, ?> build, BuildListener listener) {
+    static Properties parseProperties(String input, AbstractBuild<?, ?> build, BuildListener listener) {
         if (StringUtils.isBlank(input)) {
             return new Properties();
         }
@@ -377,13 +531,18 @@ public class RundeckNotifier extends Notifier {
 
     @Override
     public Action getProjectAction(AbstractProject<?, ?> project) {
-        try {
-            return new RundeckJobProjectLinkerAction(getDescriptor().getRundeckJobInstance(this.rundeckInstance, jobUser, jobPassword), jobId);
-        } catch (RundeckApiException e) {
-            return null;
-        } catch (IllegalArgumentException e) {
-            return null;
+        // called on each render of the project page : never talk to Rundeck here
+        RundeckClient rundeck = getDescriptor().getRundeckJobInstance(this.rundeckInstance, jobUser, jobPassword);
+        RundeckJobProjectLinkerAction action = projectAction;
+        if (action == null || !action.uses(rundeck)) {
+            try {
+                action = new RundeckJobProjectLinkerAction(rundeck, jobId);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+            projectAction = action;
         }
+        return action;
     }
 
     /**
@@ -452,6 +611,18 @@ public class RundeckNotifier extends Notifier {
     public Boolean getTailLog() {
         return tailLog;
     }
+
+    public Boolean getTailOnAgent() {
+        return tailOnAgent;
+    }
+
+    public Boolean getTailPerNode() {
+        return tailPerNode;
+    }
+
+    public Boolean getPerNodeLogFiles() {
+        return perNodeLogFiles;
+    }
     
     /**
      * optional non default rundeck user for actual job
@@ -479,6 +650,40 @@ public class RundeckNotifier extends Notifier {
         @CopyOnWrite
         private volatile Map<String, RundeckClient> rundeckInstances = new LinkedHashMap<String, RundeckClient>();
 
+        /**
+         * API versions used with the instances, by instance name : the configured one, or the highest one supported
+         * by both the server and the client, negotiated when the configuration is saved
+         */
+        @CopyOnWrite
+        private volatile Map<String, Integer> apiVersions = new LinkedHashMap<String, Integer>();
+
+        /**
+         * API versions set by the user, by instance name : the other instances use a negotiated version (null until
+         * {@link #load()} for the configurations saved before the negotiation)
+         */
+        @CopyOnWrite
+        private volatile Map<String, Integer> configuredApiVersions;
+
+        /** URLs of the other nodes of the instances running as a cluster, by instance name */
+        @CopyOnWrite
+        private volatile Map<String, List<String>> clusterUrls = new LinkedHashMap<String, List<String>>();
+
+        /** API versions negotiated with the Rundeck servers since the start, by URL */
+        private static final ConcurrentMap<String, Integer> NEGOTIATED_API_VERSIONS = new ConcurrentHashMap<String, Integer>();
+
+        /** current API version reported by Rundeck when it rejects a version ("... Current version: 11") */
+        private static final Pattern CURRENT_API_VERSION_PATTERN = Pattern.compile("current version:\\s*(\\d+)", Pattern.CASE_INSENSITIVE);
+
+        /** accessor of the (private) version of a {@link RundeckClient}, resolved once */
+        private static final Method API_VERSION_ACCESSOR = getApiVersionAccessor();
+
+        /** Time to live of a job identifier validation, in milliseconds */
+        private static final long VALIDATION_TTL = Long.getLong(RundeckNotifier.class.getName() + ".validationTtl",
+                                                                TimeUnit.SECONDS.toMillis(30));
+
+        /** results of {@link #doCheckJobIdentifier}, by instance, user and identifier */
+        private final transient LookupCache<FormValidation> jobValidations = new LookupCache<FormValidation>(VALIDATION_TTL);
+
         public RundeckDescriptor() {
             super();
             load();
@@ -486,6 +691,21 @@ public class RundeckNotifier extends Notifier {
 
 		public synchronized void load() {
             super.load();
+            if (configuredApiVersions == null) {
+                // saved before the negotiation : all the versions were set by the user
+                Map<String, Integer> configured = new LinkedHashMap<String, Integer>();
+                if (rundeckInstances != null) {
+                    for (String name : rundeckInstances.keySet()) {
+                        try {
+                            configured.put(name, Integer.valueOf(getUsedApiVersion(name)));
+                        } catch (RuntimeException e) {
+                            // unknown version : negotiated on the next save
+                        }
+                    }
+                }
+                this.configuredApiVersions = configured;
+            }
+            recordApiVersions();
         }
         
         // support backward compatibility
@@ -512,6 +732,10 @@ public class RundeckNotifier extends Notifier {
             }
             
             Map<String, RundeckClient> newInstances = new LinkedHashMap<String, RundeckClient>(instances.size());
+            Map<String, Integer> newApiVersions = new LinkedHashMap<String, Integer>(instances.size());
+            Map<String, Integer> newConfiguredApiVersions = new LinkedHashMap<String, Integer>(instances.size());
+            Map<String, List<String>> newClusterUrls = new LinkedHashMap<String, List<String>>();
+            Map<String, RundeckClient> toNegotiate = new LinkedHashMap<String, RundeckClient>();
             
             try {
                 for (int i=0; i< instances.size(); i++) {
@@ -526,22 +750,88 @@ public class RundeckNotifier extends Notifier {
                             builder.login(instance.getString("login"), instance.getString("password"));
                         }
         
+                        Integer version = null;
                         if (instance.optInt("apiversion") > 0) {
-                            builder.version(instance.getInt("apiversion"));
+                            version = instance.getInt("apiversion");
+                            newConfiguredApiVersions.put(instance.getString("name"), version);
+                        } else {
+                            // negotiated in the background if the server is not known yet (see below)
+                            version = NEGOTIATED_API_VERSIONS.get(instance.getString("url"));
+                        }
+                        if (version != null) {
+                            builder.version(version);
+                            newApiVersions.put(instance.getString("name"), version);
+                        }
+                        RundeckClient client = builder.build();
+                        newInstances.put(instance.getString("name"), client);
+                        if (version == null) {
+                            toNegotiate.put(instance.getString("name"), client);
+                        }
+                        List<String> urls = parseUrls(instance.optString("urls"));
+                        if (!urls.isEmpty()) {
+                            newClusterUrls.put(instance.getString("name"), urls);
                         }
-                        newInstances.put(instance.getString("name"), builder.build());
                     }
                 }
             } catch (IllegalArgumentException e) {
                 // NOP
             }
             
-            this.setRundeckInstances(newInstances);
+            synchronized (this) {
+                this.setRundeckInstances(newInstances);
+                this.apiVersions = newApiVersions;
+                this.configuredApiVersions = newConfiguredApiVersions;
+                this.clusterUrls = newClusterUrls;
+                recordApiVersions();
+            }
+            jobValidations.clear();
 
             save();
+            for (Map.Entry<String, RundeckClient> instance : toNegotiate.entrySet()) {
+                negotiateApiVersionInBackground(instance.getKey(), instance.getValue());
+            }
             return super.configure(req, json);
         }
 
+        /**
+         * Negotiate the API version of an instance without holding the request thread (see
+         * {@link #negotiateApiVersion(RundeckClient)}) : the instance is then rebuilt with the negotiated version.
+         *
+         * @param name of the instance
+         * @param client of the instance, without API version
+         */
+        private void negotiateApiVersionInBackground(final String name, final RundeckClient client) {
+            RundeckAsyncClient.submit(new Callable<Void>() {
+
+                public Void call() {
+                    Integer version = negotiateApiVersion(client);
+                    if (version != null) {
+                        NEGOTIATED_API_VERSIONS.put(client.getUrl(), version);
+                        apiVersionNegotiated(name, client, version);
+                    }
+                    return null;
+                }
+            });
+        }
+
+        private synchronized void apiVersionNegotiated(String name, RundeckClient client, int version) {
+            if (rundeckInstances.get(name) != client) {
+                // the configuration has been saved again since
+                return;
+            }
+            Map<String, RundeckClient> instances = new LinkedHashMap<String, RundeckClient>(rundeckInstances);
+            instances.put(name, withApiVersion(client, version));
+            Map<String, Integer> versions = new LinkedHashMap<String, Integer>();
+            if (apiVersions != null) {
+                versions.putAll(apiVersions);
+            }
+            versions.put(name, version);
+            this.setRundeckInstances(instances);
+            this.apiVersions = versions;
+            recordApiVersions();
+            save();
+        }
+
         @Override
         public Publisher newInstance(StaplerRequest req, JSONObject formData) throws FormException {
             String rundeckInstance = formData.getString("rundeckInstance");
@@ -550,7 +840,7 @@ public class RundeckNotifier extends Notifier {
             String jobPassword = formData.getString("jobPassword");
             RundeckJob job = null;
             try {
-                job = findJob(jobIdentifier, this.getRundeckJobInstance(rundeckInstance, jobUser,jobPassword));
+                job = findJob(jobIdentifier, this.getRundeckJobInstance(rundeckInstance, jobUser,jobPassword), true);
             } catch (RundeckApiException e) {
                 throw new FormException("Failed to get job with the identifier : " + jobIdentifier, e, "jobIdentifier");
             } catch (IllegalArgumentException e) {
@@ -568,6 +858,9 @@ public class RundeckNotifier extends Notifier {
                                        formData.getBoolean("shouldFailTheBuild"),
                                        formData.getBoolean("includeRundeckLogs"), 
                                        formData.getBoolean("tailLog"),
+                                       formData.optBoolean("tailOnAgent"),
+                                       formData.optBoolean("tailPerNode"),
+                                       formData.optBoolean("perNodeLogFiles"),
                                        jobUser,
                                        jobPassword);
         }
@@ -626,17 +919,47 @@ public class RundeckNotifier extends Notifier {
         	if (StringUtils.isBlank(password) && !StringUtils.isBlank(user)) {
                 return FormValidation.error("The password is mandatory if user is not empty !");
             }
-        	RundeckClient client = this.getRundeckJobInstance(rundeckInstance, user, password);
-            if (client == null) {
-                return FormValidation.error("Rundeck global configuration is not valid for URL %s and login %s !", client.getUrl(), client.getLogin());
-            }
-                             
             if (StringUtils.isBlank(jobIdentifier)) {
                 return FormValidation.error("The job identifier is mandatory !");
             }
-            
+
+            // called on every change of the form : identical checks share the same (short-lived) result
+            String key = rundeckInstance + '\n' + user + '\n' + Util.getDigestOf(StringUtils.defaultString(password))
+                         + '\n' + jobIdentifier;
             try {
-                RundeckJob job = findJob(jobIdentifier, client);
+                return jobValidations.get(key, new Callable<FormValidation>() {
+
+                    public FormValidation call() throws RundeckApiException {
+                        return checkJobIdentifier(jobIdentifier, rundeckInstance, user, password);
+                    }
+                });
+            } catch (ExecutionException e) {
+                // not cached : a transient failure is not reported after it is gone
+                RundeckClient client = this.getRundeckJobInstance(rundeckInstance, user, password);
+                if (e.getCause() instanceof RundeckApiException && client != null) {
+                    return FormValidation.error("Failed to get job details on %s (user %s) : %s", client.getUrl(),
+                                                client.getLogin(), e.getCause().getMessage());
+                }
+                return FormValidation.error("Failed to get job details : %s", e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return FormValidation.warning("Interrupted while checking the job identifier");
+            }
+        }
+
+        /**
+         * @throws RundeckApiException in case of error while talking to Rundeck (not cached by {@link #jobValidations})
+         */
+        private FormValidation checkJobIdentifier(String jobIdentifier, String rundeckInstance, String user,
+                String password) throws RundeckApiException {
+        	RundeckClient client = this.getRundeckJobInstance(rundeckInstance, user, password);
+            if (client == null) {
+                return FormValidation.error("Rundeck global configuration is not valid for the instance %s !", rundeckInstance);
+            }
+
+            try {
+                // not from the catalogue : the job may have been deleted since it was loaded
+                RundeckJob job = findJob(jobIdentifier, client, true);
                 if (job == null) {
                     return FormValidation.error("Could not find a job on %s with the identifier : %s with rundeck-user  %s", client.getUrl(), jobIdentifier, client.getLogin());
                 } else {
@@ -646,14 +969,43 @@ public class RundeckNotifier extends Notifier {
                                              job.getProject(),
                                              job.getFullName());
                 }
-            } catch (RundeckApiException e) {
-                return FormValidation.error("Failed to get job details on %s (user %s) : %s", client.getUrl(),  client.getLogin(),  e.getMessage());
             } catch (IllegalArgumentException e) {
                 return FormValidation.error("Failed to get job details : %s",  client.getUrl(),  client.getLogin(),  e.getMessage());
             }
         }
         
         
+        /**
+         * @param jobIdentifier either a Job ID, or "project:[group/]*name"
+         * @return true if the identifier is a reference to a job ("project:[group/]*name"), false for an ID
+         */
+        static boolean isJobReference(String jobIdentifier) {
+            return JOB_REFERENCE_PATTERN.matcher(jobIdentifier).find();
+        }
+
+        /**
+         * @param jobIdentifier either a Job ID, or "project:[group/]*name"
+         * @return the project of a job reference, or null for an ID
+         */
+        static String getJobReferenceProject(String jobIdentifier) {
+            Matcher matcher = JOB_REFERENCE_PATTERN.matcher(jobIdentifier);
+            return matcher.find() ? matcher.group(1) : null;
+        }
+
+        /**
+         * @param jobIdentifier either a Job ID, or "project:[group/]*name"
+         * @return the lower-cased "project:group/name" (or "project:name") reference, or null for an ID
+         */
+        static String normalizeJobReference(String jobIdentifier) {
+            Matcher matcher = JOB_REFERENCE_PATTERN.matcher(jobIdentifier);
+            if (!matcher.find()) {
+                return null;
+            }
+            String group = matcher.group(2);
+            String fullName = StringUtils.isBlank(group) ? matcher.group(3) : group + "/" + matcher.group(3);
+            return (matcher.group(1) + ":" + fullName).toLowerCase(Locale.ENGLISH);
+        }
+
         /**
          * Return a rundeck Job ID, by find a rundeck job if the identifier is a project:[group/]*name format, otherwise
          * returning the original identifier as the ID.
@@ -667,10 +1019,16 @@ public class RundeckNotifier extends Notifier {
                 IllegalArgumentException {
             Matcher matcher = JOB_REFERENCE_PATTERN.matcher(jobIdentifier);
             if (matcher.find() && matcher.groupCount() == 3) {
-                String project = matcher.group(1);
-                String groupPath = matcher.group(2);
-                String name = matcher.group(3);
-                return rundeckClient.findJob(project, groupPath, name).getId();
+                RundeckJobCatalog catalog = RundeckJobCatalog.forClient(rundeckClient);
+                RundeckJob job = catalog.find(jobIdentifier);
+                if (job == null) {
+                    String project = matcher.group(1);
+                    String groupPath = matcher.group(2);
+                    String name = matcher.group(3);
+                    job = rundeckClient.findJob(project, groupPath, name);
+                    catalog.put(job);
+                }
+                return job != null ? job.getId() : null;
             } else {
                 return jobIdentifier;
             }
@@ -685,14 +1043,120 @@ public class RundeckNotifier extends Notifier {
          * @throws IllegalArgumentException if the identifier is not valid
          */
         public static RundeckJob findJob(String jobIdentifier, RundeckClient rundeckClientInstance) throws RundeckApiException, IllegalArgumentException {
-            Matcher matcher = JOB_REFERENCE_PATTERN.matcher(jobIdentifier);
-            if (matcher.find() && matcher.groupCount() == 3) {
-                String project = matcher.group(1);
-                String groupPath = matcher.group(2);
-                String name = matcher.group(3);
-                return rundeckClientInstance.findJob(project, groupPath, name);
+            return findJob(jobIdentifier, rundeckClientInstance, false);
+        }
+
+        /**
+         * Find a {@link RundeckJob} with the given identifier
+         *
+         * @param jobIdentifier either a simple ID, an UUID or a reference (project:group/name)
+         * @param rundeckClientInstance
+         * @param fresh true to always ask Rundeck (and update the catalogue), false to use the catalogue first
+         * @return the {@link RundeckJob} found, or null if not found
+         * @throws RundeckApiException in case of error, or if no job with this ID
+         * @throws IllegalArgumentException if the identifier is not valid
+         */
+        static RundeckJob findJob(String jobIdentifier, RundeckClient rundeckClientInstance, boolean fresh) throws RundeckApiException, IllegalArgumentException {
+            RundeckJobCatalog catalog = RundeckJobCatalog.forClient(rundeckClientInstance);
+            RundeckJob job = fresh ? null : catalog.find(jobIdentifier);
+            if (job != null) {
+                return job;
+            }
+            try {
+                Matcher matcher = JOB_REFERENCE_PATTERN.matcher(jobIdentifier);
+                if (matcher.find() && matcher.groupCount() == 3) {
+                    String project = matcher.group(1);
+                    String groupPath = matcher.group(2);
+                    String name = matcher.group(3);
+                    job = rundeckClientInstance.findJob(project, groupPath, name);
+                } else {
+                    job = rundeckClientInstance.getJob(jobIdentifier);
+                }
+            } catch (RundeckApiException e) {
+                if (!RundeckCluster.isUnreachable(e, true)) {
+                    // most likely not found : don't report it from the catalogue anymore
+                    catalog.remove(jobIdentifier);
+                }
+                throw e;
+            }
+            if (job == null) {
+                catalog.remove(jobIdentifier);
             } else {
-                return rundeckClientInstance.getJob(jobIdentifier);
+                catalog.put(job);
+            }
+            return job;
+        }
+
+        /**
+         * Run a job on Rundeck. If Rundeck fails to run it, the job identifier is resolved again (see
+         * {@link #findNewJobId(String, String, RundeckClient, RundeckApiException)}), and the job is run once more if
+         * its UUID changed.
+         *
+         * @param jobIdentifier either a Job ID, or "project:[group/]*name"
+         * @param jobId the job UUID found for the identifier
+         * @param rundeck the client instance
+         * @param options of the job
+         * @param nodeFilters of the job
+         * @param logger to report a new job UUID
+         * @return the execution started
+         * @throws RundeckApiException in case of error
+         */
+        static RundeckExecution triggerJob(String jobIdentifier, String jobId, RundeckClient rundeck,
+                Properties options, Properties nodeFilters, PrintStream logger) throws RundeckApiException {
+            try {
+                return triggerJob(jobId, rundeck, options, nodeFilters);
+            } catch (RundeckApiException e) {
+                String newJobId = findNewJobId(jobIdentifier, jobId, rundeck, e);
+                if (newJobId == null) {
+                    throw e;
+                }
+                logger.println("The job " + jobIdentifier + " is now " + newJobId + " (was " + jobId + ")");
+                return triggerJob(newJobId, rundeck, options, nodeFilters);
+            }
+        }
+
+        private static RundeckExecution triggerJob(final String jobId, RundeckClient rundeck,
+                final Properties options, final Properties nodeFilters) throws RundeckApiException {
+            // only sent again to another node of a cluster if the first one could not be reached at all
+            return RundeckCluster.call(rundeck, new RundeckCluster.Call<RundeckExecution>() {
+
+                public RundeckExecution call(RundeckClient node) {
+                    return node.triggerJob(RunJobBuilder.builder()
+                            .setJobId(jobId)
+                            .setOptions(options)
+                            .setNodeFilters(nodeFilters)
+                            .build());
+                }
+            }, false);
+        }
+
+        /**
+         * Resolve a job identifier again through the Rundeck API, after Rundeck failed to run the job found for it :
+         * the job may have been deleted, or recreated with a new UUID, since it was loaded in the catalogue.
+         *
+         * @param jobIdentifier either a Job ID, or "project:[group/]*name"
+         * @param failedJobId the job UUID which Rundeck failed to run
+         * @param rundeckClient the client instance
+         * @param failure error returned by Rundeck
+         * @return the new job UUID, or null if the job did not change (or the failure is not related to the job)
+         */
+        static String findNewJobId(String jobIdentifier, String failedJobId, RundeckClient rundeckClient,
+                RundeckApiException failure) {
+            if (failure instanceof RundeckApiLoginException || failure instanceof RundeckApiException.RundeckApiTokenException
+                || RundeckCluster.isUnreachable(failure, false)) {
+                return null;
+            }
+            RundeckJobCatalog catalog = RundeckJobCatalog.forClient(rundeckClient);
+            catalog.remove(failedJobId);
+            if (!JOB_REFERENCE_PATTERN.matcher(jobIdentifier).find()) {
+                // an ID given by the user : nothing else to try
+                return null;
+            }
+            try {
+                RundeckJob job = findJob(jobIdentifier, rundeckClient, true);
+                return job != null && !failedJobId.equals(job.getId()) ? job.getId() : null;
+            } catch (RundeckApiException e) {
+                return null;
             }
         }
         
@@ -708,15 +1172,11 @@ public class RundeckNotifier extends Notifier {
 
         public String getApiVersion(RundeckClient instance) {
             if (instance != null) {
+                if (API_VERSION_ACCESSOR == null) {
+                    throw new IllegalStateException("No API version accessor on " + RundeckClient.class.getName());
+                }
                 try {
-                    Method method = instance.getClass().getDeclaredMethod("getApiVersion");
-                    method.setAccessible(true);
-
-                    return method.invoke(instance).toString();
-                } catch (SecurityException e) {
-                    throw new IllegalStateException(e);
-                } catch (NoSuchMethodException e) {
-                    throw new IllegalStateException(e);
+                    return API_VERSION_ACCESSOR.invoke(instance).toString();
                 } catch (IllegalAccessException e) {
                     throw new IllegalStateException(e);
                 } catch (IllegalArgumentException e) {
@@ -729,6 +1189,172 @@ public class RundeckNotifier extends Notifier {
             return "";
         }
 
+        /**
+         * @param rundeckInstanceName name of a configured instance
+         * @return the API version set by the user for the instance, or an empty string if it is negotiated
+         */
+        public String getInstanceApiVersion(String rundeckInstanceName) {
+            Map<String, Integer> versions = configuredApiVersions;
+            Integer version = versions != null ? versions.get(rundeckInstanceName) : null;
+            return version != null ? version.toString() : "";
+        }
+
+        /**
+         * @param rundeckInstanceName name of a configured instance
+         * @return the API version negotiated with the instance, or an empty string if it is set by the user (or not
+         *         negotiated yet)
+         */
+        public String getNegotiatedApiVersion(String rundeckInstanceName) {
+            if (StringUtils.isNotEmpty(getInstanceApiVersion(rundeckInstanceName))) {
+                return "";
+            }
+            Map<String, Integer> versions = apiVersions;
+            Integer version = versions != null ? versions.get(rundeckInstanceName) : null;
+            return version != null ? version.toString() : "";
+        }
+
+        /**
+         * @param rundeckInstanceName name of a configured instance
+         * @return the API version used with the instance, set by the user or negotiated (recorded when the
+         *         configuration was saved)
+         */
+        private String getUsedApiVersion(String rundeckInstanceName) {
+            Map<String, Integer> versions = apiVersions;
+            Integer version = versions != null ? versions.get(rundeckInstanceName) : null;
+            if (version != null) {
+                return version.toString();
+            }
+            // configuration saved by a previous version of the plugin
+            return getApiVersion(rundeckInstances.get(rundeckInstanceName));
+        }
+
+        /**
+         * Make the API versions of the instances available to {@link RundeckApiCapabilities}
+         */
+        private void recordApiVersions() {
+            Map<String, RundeckClient> instances = rundeckInstances;
+            if (instances == null) {
+                return;
+            }
+            List<RundeckCluster> clusters = new ArrayList<RundeckCluster>();
+            for (Map.Entry<String, RundeckClient> instance : instances.entrySet()) {
+                List<String> urls = getClusterUrls(instance.getKey());
+                RundeckCluster cluster = new RundeckCluster(instance.getValue(), urls);
+                if (!urls.isEmpty()) {
+                    clusters.add(cluster);
+                }
+                try {
+                    int version = Integer.parseInt(getUsedApiVersion(instance.getKey()));
+                    for (String url : cluster.getUrls()) {
+                        RundeckApiCapabilities.record(url, version);
+                    }
+                } catch (RuntimeException e) {
+                    log.log(Level.FINE, "Unknown API version for the Rundeck instance " + instance.getKey(), e);
+                }
+            }
+            RundeckCluster.register(clusters);
+        }
+
+        /**
+         * @param rundeckInstanceName name of a configured instance
+         * @return the URLs of the other nodes of the instance, if it runs as a cluster (could be empty)
+         */
+        public List<String> getClusterUrls(String rundeckInstanceName) {
+            Map<String, List<String>> urls = clusterUrls;
+            List<String> instanceUrls = urls != null ? urls.get(rundeckInstanceName) : null;
+            return instanceUrls != null ? instanceUrls : Collections.<String> emptyList();
+        }
+
+        /**
+         * @param rundeckInstanceName name of a configured instance
+         * @return the URLs of the other nodes of the instance, one per line (for the configuration page)
+         */
+        public String getClusterUrlsAsText(String rundeckInstanceName) {
+            return StringUtils.join(getClusterUrls(rundeckInstanceName), "\n");
+        }
+
+        private static List<String> parseUrls(String text) {
+            List<String> urls = new ArrayList<String>();
+            for (String url : StringUtils.split(StringUtils.defaultString(text), " ,\t\r\n")) {
+                urls.add(url);
+            }
+            return urls;
+        }
+
+        private static Method getApiVersionAccessor() {
+            try {
+                Method method = RundeckClient.class.getDeclaredMethod("getApiVersion");
+                method.setAccessible(true);
+                return method;
+            } catch (SecurityException e) {
+                log.log(Level.WARNING, "Failed to access the API version of the Rundeck clients", e);
+            } catch (NoSuchMethodException e) {
+                log.log(Level.WARNING, "Failed to access the API version of the Rundeck clients", e);
+            }
+            return null;
+        }
+
+        /**
+         * Find the highest API version supported by both the Rundeck server and the client, by probing the system
+         * info of the server from {@link RundeckClient#API_VERSION} downwards. Rundeck usually reports its current
+         * version when it rejects a version : the probing then goes straight to it. It stops on the first error which
+         * is not related to the API version.
+         *
+         * @param rundeck client of the server, with its URL and credentials (not modified)
+         * @return the negotiated version, or null if the server could not be reached
+         */
+        static Integer negotiateApiVersion(RundeckClient rundeck) {
+            int version = RundeckClient.API_VERSION;
+            while (version >= 1) {
+                try {
+                    withApiVersion(rundeck, version).getSystemInfo();
+                    return version;
+                } catch (RundeckApiException e) {
+                    if (!isUnsupportedApiVersion(e)) {
+                        log.fine("Failed to negotiate the API version with Rundeck : " + e.getMessage());
+                        return null;
+                    }
+                    Integer current = getCurrentApiVersion(e);
+                    version = current != null && current < version ? current : version - 1;
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return the current API version of Rundeck, from an "unsupported API version" error (or null if unknown)
+         */
+        static Integer getCurrentApiVersion(RundeckApiException e) {
+            Matcher matcher = CURRENT_API_VERSION_PATTERN.matcher(StringUtils.defaultString(e.getMessage()));
+            return matcher.find() ? Integer.valueOf(matcher.group(1)) : null;
+        }
+
+        /**
+         * @return a client with the same URL and credentials as the given one, using the given API version
+         */
+        static RundeckClient withApiVersion(RundeckClient rundeck, int version) {
+            RundeckClientBuilder builder = RundeckClient.builder();
+            builder.url(rundeck.getUrl());
+            if (StringUtils.isNotBlank(rundeck.getToken())) {
+                builder.token(rundeck.getToken());
+            } else {
+                builder.login(rundeck.getLogin(), rundeck.getPassword());
+            }
+            builder.version(version);
+            return builder.build();
+        }
+
+        /**
+         * @return true if Rundeck rejected the request because of its API version
+         */
+        static boolean isUnsupportedApiVersion(RundeckApiException e) {
+            String message = StringUtils.lowerCase(e.getMessage());
+            return StringUtils.contains(message, "api-version.unsupported")
+                   || StringUtils.contains(message, "unsupported api version");
+        }
+
         public RundeckClient getRundeckInstance(String key) {
             return rundeckInstances.get(key);
         }
@@ -752,6 +1378,10 @@ public class RundeckNotifier extends Notifier {
         		String url = client.getUrl();
         		builder.url(url);                 
         		builder.login(jobUser, jobPassword);  	
+        		Map<String, Integer> versions = apiVersions;
+        		if (versions != null && versions.get(rundeckInstanceName) != null) {
+        		    builder.version(versions.get(rundeckInstanceName));
+        		}
         		client = builder.build();       		
         	}
         	
@@ -0,0 +1,403 @@
+package org.jenkinsci.plugins.rundeck;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.apache.commons.lang.StringUtils;
+import org.rundeck.api.RundeckApiException;
+import org.rundeck.api.RundeckClient;
+import org.rundeck.api.domain.RundeckOutput;
+import org.rundeck.api.domain.RundeckOutputEntry;
+import org.rundeck.api.domain.RundeckOutputEntry.RundeckLogLevel;
+
+/**
+ * Fetches the output of an execution ("/execution/ID/output/state", or "/execution/ID/output/node/NAME" for the output
+ * of a single node) with a compressed response : the Rundeck API
+ * client does not send any "Accept-Encoding" header, so the output (highly repetitive text, polled every few seconds
+ * while tailing) is otherwise transferred as plain XML. The response is decompressed and parsed (StAX) as a stream,
+ * without buffering the whole document.
+ * <p>
+ * Only the token authentication is supported : the login/password authentication of the client relies on a web
+ * session, so those clients keep using {@link RundeckClient#getExecutionOutputState(Long, boolean, int, long, int)}.
+ */
+public class RundeckOutputFetcher {
+
+    /** Encodings accepted from Rundeck (the server is free to ignore them) */
+    static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    /** Set to false to ask for an uncompressed response (to compare the transfers) */
+    static final boolean COMPRESSION = Boolean.valueOf(System.getProperty(RundeckOutputFetcher.class.getName()
+                                                                          + ".compression", "true"));
+
+    private static final int CONNECT_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(10);
+
+    private static final int READ_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(60);
+
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private final String url;
+
+    private final String token;
+
+    private final int apiVersion;
+
+    private final boolean compression;
+
+    /** bytes received from Rundeck, before decompression */
+    private final AtomicLong bytesOnWire = new AtomicLong();
+
+    /**
+     * @param rundeck client of the Rundeck server (using a token)
+     * @param apiVersion to use for the calls
+     */
+    public RundeckOutputFetcher(RundeckClient rundeck, int apiVersion) {
+        this(rundeck.getUrl(), rundeck.getToken(), apiVersion, COMPRESSION);
+    }
+
+    RundeckOutputFetcher(String url, String token, int apiVersion, boolean compression) {
+        this.url = StringUtils.removeEnd(url, "/");
+        this.token = token;
+        this.apiVersion = apiVersion;
+        this.compression = compression;
+    }
+
+    /**
+     * @param rundeck client of a Rundeck server
+     * @return true if the output of its executions can be fetched with this class
+     */
+    public static boolean supports(RundeckClient rundeck) {
+        return rundeck != null && StringUtils.isNotBlank(rundeck.getUrl()) && StringUtils.isNotBlank(rundeck.getToken());
+    }
+
+    /**
+     * Same as {@link RundeckClient#getExecutionOutputState(Long, boolean, int, long, int)} (with stateOnly = false)
+     *
+     * @throws RundeckApiException in case of error : caused by an {@link IOException} if Rundeck could not be reached
+     */
+    public RundeckOutput getExecutionOutputState(Long executionId, int offset, long lastmod, int maxlines)
+            throws RundeckApiException {
+        return fetch(executionId, "/output/state", offset, lastmod, maxlines);
+    }
+
+    /**
+     * Same as {@link RundeckClient#getExecutionOutputForNode(Long, String, int, long, int)}
+     *
+     * @throws RundeckApiException in case of error : caused by an {@link IOException} if Rundeck could not be reached
+     */
+    public RundeckOutput getExecutionOutputForNode(Long executionId, String nodeName, int offset, long lastmod,
+            int maxlines) throws RundeckApiException {
+        try {
+            return fetch(executionId, "/output/node/" + URLEncoder.encode(nodeName, "UTF-8").replace("+", "%20"),
+                         offset, lastmod, maxlines);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private RundeckOutput fetch(Long executionId, String output, int offset, long lastmod, int maxlines)
+            throws RundeckApiException {
+        StringBuilder path = new StringBuilder();
+        path.append(url).append("/api/").append(apiVersion).append("/execution/").append(executionId);
+        path.append(output).append("?offset=").append(Math.max(offset, 0));
+        if (lastmod >= 0) {
+            path.append("&lastmod=").append(lastmod);
+        }
+        if (maxlines > 0) {
+            path.append("&maxlines=").append(maxlines);
+        }
+
+        HttpURLConnection connection = null;
+        InputStream input = null;
+        try {
+            connection = (HttpURLConnection) new URL(path.toString()).openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            connection.setInstanceFollowRedirects(false);
+            connection.setRequestProperty("Accept", "text/xml");
+            connection.setRequestProperty("X-Rundeck-Auth-Token", token);
+            if (compression) {
+                connection.setRequestProperty("Accept-Encoding", ACCEPT_ENCODING);
+            }
+            int status = connection.getResponseCode();
+            if (status >= 500) {
+                // most likely transient (node restarting, proxy error, ...) : handled like an I/O error
+                throw new IOException("HTTP " + status + " " + connection.getResponseMessage());
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new RundeckApiException("Failed to get the output of execution #" + executionId + " : HTTP "
+                                              + status + " " + connection.getResponseMessage());
+            }
+            input = decode(new CountingInputStream(connection.getInputStream(), bytesOnWire),
+                           connection.getContentEncoding());
+            return parse(input);
+        } catch (XMLStreamException e) {
+            throw new RundeckApiException("Failed to parse the output of execution #" + executionId + " : "
+                                          + e.getMessage());
+        } catch (IOException e) {
+            throw new RundeckApiException("Failed to get the output of execution #" + executionId, e);
+        } finally {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    // NOP
+                }
+            } else if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes received from Rundeck so far, before decompression
+     */
+    public long getBytesOnWire() {
+        return bytesOnWire.get();
+    }
+
+    /**
+     * @param input raw response body
+     * @param contentEncoding of the response (may be null)
+     * @return a stream of the decompressed body
+     */
+    static InputStream decode(InputStream input, String contentEncoding) throws IOException {
+        String encoding = StringUtils.lowerCase(StringUtils.trimToEmpty(contentEncoding));
+        if ("gzip".equals(encoding) || "x-gzip".equals(encoding)) {
+            return new GZIPInputStream(input);
+        }
+        if ("deflate".equals(encoding)) {
+            // "deflate" should be zlib-wrapped, but some servers send a raw deflate stream
+            PushbackInputStream pushback = new PushbackInputStream(input, 2);
+            byte[] header = new byte[2];
+            int read = 0;
+            for (int n = 0; read < header.length && n != -1; read += Math.max(n, 0)) {
+                n = pushback.read(header, read, header.length - read);
+            }
+            if (read > 0) {
+                pushback.unread(header, 0, read);
+            }
+            boolean zlib = read == 2 && (header[0] & 0x0F) == 8 && ((header[0] & 0xFF) << 8 | header[1] & 0xFF) % 31 == 0;
+            return new InflaterInputStream(pushback, new Inflater(!zlib));
+        }
+        return input;
+    }
+
+    /**
+     * Parse the (decompressed) response : the "output" element, wrapped in a "result" element for the older API
+     * versions
+     */
+    static RundeckOutput parse(InputStream input) throws XMLStreamException {
+        XMLStreamReader reader = FACTORY.createXMLStreamReader(input);
+        try {
+            String error = null;
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                String name = reader.getLocalName();
+                if ("output".equals(name)) {
+                    return parseOutput(reader);
+                } else if ("message".equals(name) && error == null) {
+                    error = reader.getElementText();
+                }
+            }
+            throw new RundeckApiException(error != null ? error : "No output in the response of Rundeck");
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Parse an "output" element : the reader is positioned on its START_ELEMENT
+     */
+    private static RundeckOutput parseOutput(XMLStreamReader reader) throws XMLStreamException {
+        RundeckOutput output = new RundeckOutput();
+        List<RundeckOutputEntry> entries = new ArrayList<RundeckOutputEntry>();
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+                continue;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            String name = reader.getLocalName();
+            if ("entries".equals(name)) {
+                depth++;
+            } else if ("entry".equals(name)) {
+                entries.add(parseEntry(reader));
+            } else if (depth > 1) {
+                skipElement(reader);
+            } else if ("offset".equals(name)) {
+                output.setOffset(parseInteger(reader.getElementText()));
+            } else if ("completed".equals(name)) {
+                output.setCompleted(Boolean.valueOf(reader.getElementText().trim()));
+            } else if ("execCompleted".equals(name)) {
+                output.setExecCompleted(Boolean.valueOf(reader.getElementText().trim()));
+            } else if ("unmodified".equals(name)) {
+                output.setUnmodified(Boolean.valueOf(reader.getElementText().trim()));
+            } else if ("lastModified".equals(name)) {
+                output.setLastModified(RundeckNotificationParser.parseLong(reader.getElementText()));
+            } else if ("execState".equals(name)) {
+                output.setExecState(StringUtils.trimToNull(reader.getElementText()));
+            } else {
+                skipElement(reader);
+            }
+        }
+        output.setLogEntries(entries);
+        return output;
+    }
+
+    /**
+     * Parse an "entry" element : the message is in the "log" attribute, or in the text of the element for the older
+     * versions of Rundeck. The reader will be positioned on its END_ELEMENT.
+     */
+    private static RundeckOutputEntry parseEntry(XMLStreamReader reader) throws XMLStreamException {
+        TimedOutputEntry entry = new TimedOutputEntry(parseAbsoluteTime(reader.getAttributeValue(null,
+                                                                                                  "absolute_time")));
+        entry.setTime(reader.getAttributeValue(null, "time"));
+        entry.setNode(reader.getAttributeValue(null, "node"));
+        entry.setLevel(parseLevel(reader.getAttributeValue(null, "level")));
+        String message = reader.getAttributeValue(null, "log");
+        String text = reader.getElementText();
+        entry.setMessage(message != null ? message : text);
+        return entry;
+    }
+
+    /**
+     * @param value of an "absolute_time" attribute ("2014-01-08T15:49:43Z", with or without milliseconds, in UTC)
+     * @return the time in milliseconds, or -1 if there is none (older versions of Rundeck) or if it is invalid
+     */
+    static long parseAbsoluteTime(String value) {
+        if (StringUtils.isBlank(value)) {
+            return -1;
+        }
+        String pattern = value.contains(".") ? "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'" : "yyyy-MM-dd'T'HH:mm:ss'Z'";
+        SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.ENGLISH);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        try {
+            return format.parse(value.trim()).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+    private static RundeckLogLevel parseLevel(String level) {
+        if (StringUtils.isBlank(level)) {
+            return null;
+        }
+        try {
+            return RundeckLogLevel.valueOf(level.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static Integer parseInteger(String value) {
+        return StringUtils.isBlank(value) ? null : Integer.valueOf(value.trim());
+    }
+
+    /**
+     * Skip the current element : the reader will be positioned on its END_ELEMENT
+     */
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+
+    /**
+     * Line of output, with the absolute time provided by Rundeck (the time of the {@link RundeckOutputEntry} is only
+     * the time of the day, to the second)
+     */
+    public static class TimedOutputEntry extends RundeckOutputEntry {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long absoluteTime;
+
+        public TimedOutputEntry(long absoluteTime) {
+            this.absoluteTime = absoluteTime;
+        }
+
+        /**
+         * @return the time of the line, in milliseconds since the epoch, or -1 if it is not known
+         */
+        public long getAbsoluteTime() {
+            return absoluteTime;
+        }
+    }
+
+    /**
+     * {@link InputStream} counting the bytes read
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private final AtomicLong count;
+
+        private CountingInputStream(InputStream in, AtomicLong count) {
+            super(in);
+            this.count = count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count.addAndGet(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count.addAndGet(skipped);
+            return skipped;
+        }
+    }
+}
@@ -2,6 +2,11 @@ package org.jenkinsci.plugins.rundeck;
 
 import hudson.Extension;
 import hudson.Plugin;
+import hudson.model.Hudson;
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Entry point for the Rundeck plugin
@@ -11,6 +16,8 @@ import hudson.Plugin;
 @Extension
 public class RundeckPlugin extends Plugin {
 
+    private static final Logger log = Logger.getLogger(RundeckPlugin.class.getName());
+
     private OptionProvider optionProvider;
 
     private WebHookListener webHookListener;
@@ -19,7 +26,31 @@ public class RundeckPlugin extends Plugin {
     public void start() throws Exception {
         super.start();
         optionProvider = new OptionProvider();
-        webHookListener = new WebHookListener();
+        webHookListener = new WebHookListener(new WebHookDispatcher(openJournal()));
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (webHookListener != null) {
+            webHookListener.getDispatcher().shutdown();
+        }
+        super.stop();
+    }
+
+    /**
+     * Open the journal of the WebHook notifications, in JENKINS_HOME/rundeck/webhook-journal
+     *
+     * @return the journal, or null if it can not be opened (notifications will then only be kept in memory)
+     */
+    private WebHookJournal openJournal() {
+        File directory = new File(new File(Hudson.getInstance().getRootDir(), "rundeck"), "webhook-journal");
+        try {
+            return new WebHookJournal(directory);
+        } catch (IOException e) {
+            log.log(Level.SEVERE, "Failed to open the Rundeck WebHook journal in " + directory
+                                  + ", notifications will not survive a restart", e);
+            return null;
+        }
     }
 
     public OptionProvider getOptions() {
@@ -0,0 +1,61 @@
+package org.jenkinsci.plugins.rundeck;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * A Rundeck job to run from a {@link RundeckFanOutNotifier} : a job on an instance, with its options.
+ */
+public class RundeckTarget {
+
+    private final String rundeckInstance;
+
+    private final String jobIdentifier;
+
+    private final String options;
+
+    private final String nodeFilters;
+
+    private final String jobUser;
+
+    private final String jobPassword;
+
+    @DataBoundConstructor
+    public RundeckTarget(String rundeckInstance, String jobIdentifier, String options, String nodeFilters,
+            String jobUser, String jobPassword) {
+        this.rundeckInstance = rundeckInstance;
+        this.jobIdentifier = jobIdentifier;
+        this.options = options;
+        this.nodeFilters = nodeFilters;
+        this.jobUser = jobUser;
+        this.jobPassword = jobPassword;
+    }
+
+    public String getRundeckInstance() {
+        return rundeckInstance;
+    }
+
+    public String getJobIdentifier() {
+        return jobIdentifier;
+    }
+
+    public String getOptions() {
+        return options;
+    }
+
+    public String getNodeFilters() {
+        return nodeFilters;
+    }
+
+    public String getJobUser() {
+        return jobUser;
+    }
+
+    public String getJobPassword() {
+        return jobPassword;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + rundeckInstance + "] " + jobIdentifier;
+    }
+}
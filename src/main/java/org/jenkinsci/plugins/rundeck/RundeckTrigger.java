@@ -3,11 +3,26 @@ package org.jenkinsci.plugins.rundeck;
 import hudson.Extension;
 import hudson.model.Item;
 import hudson.model.AbstractProject;
+import hudson.model.Cause;
+import hudson.model.CauseAction;
+import hudson.model.Hudson;
 import hudson.triggers.Trigger;
 import hudson.triggers.TriggerDescriptor;
+import java.io.ObjectStreamException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TimerTask;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
 import org.apache.commons.lang.StringUtils;
@@ -15,25 +30,187 @@ import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.StaplerRequest;
 import org.rundeck.api.domain.RundeckExecution;
 import org.rundeck.api.domain.RundeckJob;
+import org.rundeck.api.domain.RundeckExecution.ExecutionStatus;
 
 /**
  * Triggers a build when we receive a WebHook notification from Rundeck.
+ * <p>
+ * Jobs are selected with exact identifiers, globs or regular expressions (see {@link JobSelector}). Started triggers
+ * are registered in a global {@link JobSelectorIndex}, so that a notification is only matched against the few
+ * triggers that may be interested in it.
+ * <p>
+ * Notifications received during the optional aggregation window (and during the cooldown following a build) are
+ * merged into a single build, which carries all their {@link RundeckCause}s.
  * 
  * @author Vincent Behar
  */
 public class RundeckTrigger extends Trigger<AbstractProject<?, ?>> {
 
+    private static final Logger log = Logger.getLogger(RundeckTrigger.class.getName());
+
+    /** index of the started triggers, by the literal prefixes of their job selectors */
+    private static final JobSelectorIndex<RundeckTrigger> INDEX = new JobSelectorIndex<RundeckTrigger>();
+
+    /** current version of the syntax of the job selectors */
+    private static final int SELECTORS_VERSION = 1;
+
     private final Boolean filterJobs;
 
-    private final List<String> jobsIdentifiers;
+    private List<String> jobsIdentifiers;
+
+    /**
+     * version of the syntax of the {@link #jobsIdentifiers} (null for the configurations saved before the "glob:" and
+     * "regex:" prefixes, see {@link JobSelector#migrate(List)})
+     */
+    private Integer selectorsVersion;
 
     private final List<String> executionStatuses;
 
-    @DataBoundConstructor
+    /** number of seconds during which notifications are merged into a single build (0 to disable) */
+    private final Integer aggregationWindow;
+
+    /** minimum number of seconds between 2 builds scheduled by this trigger (0 to disable) */
+    private final Integer cooldown;
+
+    /** causes waiting for the end of the aggregation window or of the cooldown */
+    private transient List<RundeckCause> pendingCauses;
+
+    /** true while a flush of the {@link #pendingCauses} is scheduled */
+    private transient boolean flushScheduled;
+
+    /** time of the last build scheduled by this trigger */
+    private transient long lastScheduled;
+
+    /** {@link #executionStatuses}, normalized for constant-time matching */
+    private transient Set<ExecutionStatus> statusesToMatch;
+
+    /** lower-cased exact {@link #jobsIdentifiers} (UUIDs and "project:group/job" references) */
+    private transient Set<String> identifiersToMatch;
+
+    /** glob and regex {@link #jobsIdentifiers}, compiled into a single pattern (null if there is none) */
+    private transient Pattern selectorsToMatch;
+
+    /** literal prefixes of the job selectors, used to register this trigger in the {@link #INDEX} */
+    private transient Set<String> indexPrefixes;
+
     public RundeckTrigger(Boolean filterJobs, List<String> jobsIdentifiers, List<String> executionStatuses) {
+        this(filterJobs, jobsIdentifiers, executionStatuses, null, null);
+    }
+
+    @DataBoundConstructor
+    public RundeckTrigger(Boolean filterJobs, List<String> jobsIdentifiers, List<String> executionStatuses,
+            Integer aggregationWindow, Integer cooldown) {
         this.filterJobs = filterJobs != null ? filterJobs : false;
         this.jobsIdentifiers = jobsIdentifiers != null ? jobsIdentifiers : new ArrayList<String>();
+        this.selectorsVersion = SELECTORS_VERSION;
         this.executionStatuses = executionStatuses != null ? executionStatuses : Arrays.asList("SUCCEEDED");
+        this.aggregationWindow = aggregationWindow != null && aggregationWindow > 0 ? aggregationWindow : null;
+        this.cooldown = cooldown != null && cooldown > 0 ? cooldown : null;
+        initMatchers();
+        this.pendingCauses = new ArrayList<RundeckCause>();
+    }
+
+    @Override
+    protected Object readResolve() throws ObjectStreamException {
+        if (selectorsVersion == null) {
+            if (jobsIdentifiers != null) {
+                this.jobsIdentifiers = JobSelector.migrate(jobsIdentifiers);
+            }
+            this.selectorsVersion = SELECTORS_VERSION;
+        }
+        initMatchers();
+        this.pendingCauses = new ArrayList<RundeckCause>();
+        return super.readResolve();
+    }
+
+    /**
+     * Normalize the configuration once, so that matching a notification does not need any string manipulation
+     */
+    private void initMatchers() {
+        Set<ExecutionStatus> statuses = EnumSet.noneOf(ExecutionStatus.class);
+        if (executionStatuses != null) {
+            for (String status : executionStatuses) {
+                try {
+                    statuses.add(ExecutionStatus.valueOf(StringUtils.trimToEmpty(status).toUpperCase(Locale.ENGLISH)));
+                } catch (IllegalArgumentException e) {
+                    // unknown status, can never match
+                }
+            }
+        }
+        Set<String> identifiers = new HashSet<String>();
+        List<String> selectors = new ArrayList<String>();
+        Set<String> prefixes = new HashSet<String>();
+        if (jobsIdentifiers != null) {
+            for (String jobIdentifier : jobsIdentifiers) {
+                if (StringUtils.isBlank(jobIdentifier)) {
+                    continue;
+                }
+                String selector = jobIdentifier.trim();
+                if (!JobSelector.isPattern(selector)) {
+                    identifiers.add(JobSelector.toIdentifier(selector).toLowerCase(Locale.ENGLISH));
+                    prefixes.add(JobSelector.literalPrefix(selector));
+                    continue;
+                }
+                try {
+                    Pattern.compile(JobSelector.toRegex(selector));
+                    selectors.add(selector);
+                    prefixes.add(JobSelector.literalPrefix(selector));
+                } catch (PatternSyntaxException e) {
+                    log.warning("Ignoring invalid Rundeck job selector '" + selector + "' : " + e.getDescription());
+                }
+            }
+        }
+        if (!filterJobs) {
+            // interested in every notification
+            prefixes = Collections.singleton("");
+        }
+        this.statusesToMatch = statuses;
+        this.identifiersToMatch = identifiers;
+        this.selectorsToMatch = JobSelector.compile(selectors);
+        this.indexPrefixes = prefixes;
+    }
+
+    @Override
+    public void start(AbstractProject<?, ?> project, boolean newInstance) {
+        super.start(project, newInstance);
+        INDEX.register(this, indexPrefixes);
+    }
+
+    @Override
+    public void stop() {
+        INDEX.unregister(this);
+        // don't lose the notifications waiting for the end of the aggregation window
+        ScheduleBatch batch = new ScheduleBatch();
+        flush(batch);
+        batch.submit();
+        super.stop();
+    }
+
+    /**
+     * Find the started triggers that may be interested in a notification for the given job. Triggers of deleted or
+     * reconfigured jobs which were not stopped are pruned from the index.
+     * 
+     * @param keys of the Rundeck job of the execution
+     * @return the candidate triggers, which still have to filter the notification
+     */
+    public static Collection<RundeckTrigger> findCandidates(JobKeys keys) {
+        Collection<RundeckTrigger> candidates = INDEX.candidates(keys.getId(), keys.getReference());
+        for (Iterator<RundeckTrigger> it = candidates.iterator(); it.hasNext();) {
+            RundeckTrigger trigger = it.next();
+            if (!trigger.isActive()) {
+                INDEX.unregister(trigger);
+                it.remove();
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * @return true if this trigger is still the one of a job that still exists
+     */
+    private boolean isActive() {
+        return job != null && job.getTrigger(RundeckTrigger.class) == this
+               && Hudson.getInstance().getItemByFullName(job.getFullName(), AbstractProject.class) == job;
     }
 
     /**
@@ -42,56 +219,104 @@ public class RundeckTrigger extends Trigger<AbstractProject<?, ?>> {
      * @param execution at the origin of the notification
      */
     public void onNotification(RundeckExecution execution) {
-        if (shouldScheduleBuild(execution)) {
-            job.scheduleBuild(new RundeckCause(execution));
-        }
+        onNotification(execution, new JobKeys(execution.getJob()));
     }
 
     /**
-     * Filter notifications based on the {@link RundeckExecution} and the trigger configuration
+     * Called when we receive a Rundeck notification, with the job keys already computed (so that they are computed
+     * only once per notification, and not once per trigger)
      * 
      * @param execution at the origin of the notification
-     * @return true if we should schedule a new build, false otherwise
+     * @param keys of the Rundeck job of the execution
      */
-    private boolean shouldScheduleBuild(RundeckExecution execution) {
-        if (!executionStatuses.contains(execution.getStatus().toString())) {
-            return false;
+    public void onNotification(RundeckExecution execution, JobKeys keys) {
+        ScheduleBatch batch = new ScheduleBatch();
+        onNotification(execution, keys, batch);
+        batch.submit();
+    }
+
+    /**
+     * Called when we receive a Rundeck notification : the build to schedule (if any) is added to the given batch,
+     * which will be submitted by the caller along with the builds of the other triggers.
+     * 
+     * @param execution at the origin of the notification
+     * @param keys of the Rundeck job of the execution
+     * @param batch of builds to schedule
+     */
+    public void onNotification(RundeckExecution execution, JobKeys keys, ScheduleBatch batch) {
+        if (!shouldScheduleBuild(execution, keys)) {
+            return;
         }
-        if (!filterJobs) {
-            return true;
+        if (aggregationWindow == null && cooldown == null) {
+            batch.add(job, job.getQuietPeriod(), new CauseAction(new RundeckCause(execution)));
+            return;
         }
-        for (String jobIdentifier : jobsIdentifiers) {
-            if (identifierMatchesJob(jobIdentifier, execution.getJob())) {
-                return true;
+        long delay;
+        boolean deferred;
+        synchronized (pendingCauses) {
+            pendingCauses.add(new RundeckCause(execution));
+            if (flushScheduled) {
+                return;
             }
+            long now = System.currentTimeMillis();
+            delay = getAggregationWindow() * 1000L;
+            if (lastScheduled > 0) {
+                delay = Math.max(delay, lastScheduled + getCooldown() * 1000L - now);
+            }
+            deferred = delay > 0 && timer != null;
+            flushScheduled = deferred;
+        }
+        if (!deferred) {
+            flush(batch);
+            return;
         }
-        return false;
+        timer.schedule(new TimerTask() {
+
+            @Override
+            public void run() {
+                ScheduleBatch batch = new ScheduleBatch();
+                flush(batch);
+                batch.submit();
+            }
+        }, delay);
     }
 
     /**
-     * Check if the given jobIdentifier matches (= identifies) the given job
+     * Schedule a single build for all the pending causes (if any)
      * 
-     * @param jobIdentifier could be either a job's UUID, or a reference to a job in the format "project:group/job"
-     * @param job to test
-     * @return true if it matches, false otherwise
+     * @param batch to which the build is added
      */
-    private boolean identifierMatchesJob(String jobIdentifier, RundeckJob job) {
-        if (job == null || StringUtils.isBlank(jobIdentifier)) {
-            return false;
+    private void flush(ScheduleBatch batch) {
+        List<RundeckCause> causes;
+        synchronized (pendingCauses) {
+            flushScheduled = false;
+            if (pendingCauses.isEmpty()) {
+                return;
+            }
+            causes = new ArrayList<RundeckCause>(pendingCauses);
+            pendingCauses.clear();
+            lastScheduled = System.currentTimeMillis();
         }
-
-        // UUID
-        if (StringUtils.equalsIgnoreCase(job.getId(), jobIdentifier)) {
-            return true;
+        if (job != null) {
+            batch.add(job, job.getQuietPeriod(), new CauseAction(causes.toArray(new Cause[causes.size()])));
         }
+    }
 
-        // "project:group/job" reference
-        String jobReference = job.getProject() + ":" + job.getFullName();
-        if (StringUtils.equalsIgnoreCase(jobReference, jobIdentifier)) {
+    /**
+     * Filter notifications based on the {@link RundeckExecution} and the trigger configuration
+     * 
+     * @param execution at the origin of the notification
+     * @param keys of the Rundeck job of the execution
+     * @return true if we should schedule a new build, false otherwise
+     */
+    private boolean shouldScheduleBuild(RundeckExecution execution, JobKeys keys) {
+        if (execution.getStatus() == null || !statusesToMatch.contains(execution.getStatus())) {
+            return false;
+        }
+        if (!filterJobs) {
             return true;
         }
-
-        return false;
+        return keys.matches(identifiersToMatch) || keys.matches(selectorsToMatch);
     }
 
     public Boolean getFilterJobs() {
@@ -106,6 +331,62 @@ public class RundeckTrigger extends Trigger<AbstractProject<?, ?>> {
         return executionStatuses;
     }
 
+    public int getAggregationWindow() {
+        return aggregationWindow != null ? aggregationWindow : 0;
+    }
+
+    public int getCooldown() {
+        return cooldown != null ? cooldown : 0;
+    }
+
+    /**
+     * Lower-cased keys identifying a Rundeck job : its UUID, and its reference in the format "project:group/job"
+     */
+    public static final class JobKeys {
+
+        private final String id;
+
+        private final String reference;
+
+        public JobKeys(RundeckJob job) {
+            if (job == null) {
+                this.id = null;
+                this.reference = null;
+            } else {
+                this.id = job.getId() != null ? job.getId().toLowerCase(Locale.ENGLISH) : null;
+                this.reference = (job.getProject() + ":" + job.getFullName()).toLowerCase(Locale.ENGLISH);
+            }
+        }
+
+        /**
+         * @param identifiers lower-cased job identifiers
+         * @return true if one of the identifiers identifies the job
+         */
+        boolean matches(Set<String> identifiers) {
+            return (id != null && identifiers.contains(id)) || (reference != null && identifiers.contains(reference));
+        }
+
+        /**
+         * @param selectors compiled job selectors (could be null)
+         * @return true if the selectors match the UUID or the reference of the job
+         */
+        boolean matches(Pattern selectors) {
+            if (selectors == null) {
+                return false;
+            }
+            return (id != null && selectors.matcher(id).matches())
+                   || (reference != null && selectors.matcher(reference).matches());
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getReference() {
+            return reference;
+        }
+    }
+
     @Override
     public RundeckDescriptor getDescriptor() {
         return (RundeckDescriptor) super.getDescriptor();
@@ -123,7 +404,20 @@ public class RundeckTrigger extends Trigger<AbstractProject<?, ?>> {
         public Trigger<?> newInstance(StaplerRequest req, JSONObject formData) throws FormException {
             return new RundeckTrigger(formData.getJSONObject("filterJobs").getBoolean("value"),
                                       bindJSONToList(formData.getJSONObject("filterJobs").get("jobsIdentifiers")),
-                                      bindJSONToList(formData.get("executionStatuses")));
+                                      bindJSONToList(formData.get("executionStatuses")),
+                                      parseSeconds(formData.optString("aggregationWindow")),
+                                      parseSeconds(formData.optString("cooldown")));
+        }
+
+        /**
+         * @return the given number of seconds, or null if it is blank or invalid
+         */
+        private Integer parseSeconds(String seconds) {
+            try {
+                return StringUtils.isBlank(seconds) ? null : Integer.valueOf(seconds.trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
         }
 
         @Override
@@ -0,0 +1,107 @@
+package org.jenkinsci.plugins.rundeck;
+
+import hudson.model.Action;
+import hudson.model.AbstractProject;
+import hudson.model.Hudson;
+import hudson.model.ParameterDefinition;
+import hudson.model.ParameterValue;
+import hudson.model.ParametersAction;
+import hudson.model.ParametersDefinitionProperty;
+import hudson.model.Queue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Collects the builds to schedule for one or several notifications, and submits them to the Jenkins {@link Queue}
+ * while holding its lock only once, instead of once per build (as {@link AbstractProject#scheduleBuild} does).
+ * <p>
+ * Not thread-safe : a batch is meant to be filled and submitted by a single thread.
+ */
+public class ScheduleBatch {
+
+    private final List<Request> requests = new ArrayList<Request>();
+
+    /**
+     * Add a build to schedule, with the same semantic as {@link AbstractProject#scheduleBuild2(int,
+     * hudson.model.Cause, Action...)} : nothing is scheduled for a job which is not buildable, and default values
+     * are used for the parameters of a parameterized job.
+     *
+     * @param job to build
+     * @param quietPeriod in seconds
+     * @param actions to attach to the queue item (usually a {@link hudson.model.CauseAction})
+     */
+    public void add(AbstractProject<?, ?> job, int quietPeriod, Action... actions) {
+        requests.add(new Request(job, quietPeriod, actions));
+    }
+
+    /**
+     * @return number of builds waiting to be submitted
+     */
+    public int size() {
+        return requests.size();
+    }
+
+    /**
+     * Submit all the builds to the queue, in a single critical section.
+     *
+     * @return number of builds actually scheduled (or merged with an item already in the queue)
+     */
+    public int submit() {
+        if (requests.isEmpty()) {
+            return 0;
+        }
+        // resolve the actions before taking the lock
+        List<List<Action>> actions = new ArrayList<List<Action>>(requests.size());
+        for (Request request : requests) {
+            actions.add(request.job.isBuildable() ? request.getQueueActions() : null);
+        }
+        int scheduled = 0;
+        Queue queue = Hudson.getInstance().getQueue();
+        // Queue#schedule is synchronized on the queue : holding its monitor makes the nested acquisitions free
+        synchronized (queue) {
+            for (int i = 0; i < requests.size(); i++) {
+                if (actions.get(i) != null && queue.schedule(requests.get(i).job, requests.get(i).quietPeriod,
+                                                             actions.get(i)) != null) {
+                    scheduled++;
+                }
+            }
+        }
+        requests.clear();
+        return scheduled;
+    }
+
+    private static class Request {
+
+        private final AbstractProject<?, ?> job;
+
+        private final int quietPeriod;
+
+        private final Action[] actions;
+
+        private Request(AbstractProject<?, ?> job, int quietPeriod, Action[] actions) {
+            this.job = job;
+            this.quietPeriod = quietPeriod;
+            this.actions = actions;
+        }
+
+        /**
+         * @return the actions, plus the default parameter values if the job is parameterized
+         */
+        private List<Action> getQueueActions() {
+            List<Action> queueActions = new ArrayList<Action>(Arrays.asList(actions));
+            ParametersDefinitionProperty parameters = job.getProperty(ParametersDefinitionProperty.class);
+            if (parameters != null) {
+                List<ParameterValue> values = new ArrayList<ParameterValue>();
+                for (ParameterDefinition definition : parameters.getParameterDefinitions()) {
+                    ParameterValue value = definition.getDefaultParameterValue();
+                    if (value != null) {
+                        values.add(value);
+                    }
+                }
+                queueActions.add(new ParametersAction(values));
+            }
+            return queueActions;
+        }
+    }
+}
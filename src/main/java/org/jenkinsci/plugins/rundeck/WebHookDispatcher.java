@@ -0,0 +1,464 @@
+package org.jenkinsci.plugins.rundeck;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.rundeck.api.domain.RundeckExecution;
+
+/**
+ * Dispatches Rundeck notifications received by the {@link WebHookListener} to all the registered
+ * {@link RundeckTrigger}s, on a small pool of worker threads fed by a bounded queue. When the queue is full, new
+ * notifications are rejected (load shedding) instead of piling up on the HTTP threads.
+ * <p>
+ * If a {@link WebHookJournal} is used, notifications are made durable before being accepted, and acknowledged once
+ * dispatched. Until {@link #startReplay()} is called (once the Jenkins items are loaded), accepted notifications are
+ * only journaled : they are dispatched by the replay, along with the ones left pending before a restart. A failed
+ * dispatch is retried a few times, then moved to the dead-letter file of the journal. Without a journal, the
+ * notifications accepted before {@link #startReplay()} are kept in memory until then.
+ * <p>
+ * Notifications already dispatched for the same (execution id, status) are dropped by a
+ * {@link NotificationDeduplicator}, as Rundeck may retry them, or send them twice. Each execution is reserved before
+ * being dispatched, so that 2 workers never dispatch the same one, and only recorded once actually dispatched : a
+ * notification which failed is released, and not dropped when Rundeck sends it again.
+ */
+public class WebHookDispatcher {
+
+    private static final Logger log = Logger.getLogger(WebHookDispatcher.class.getName());
+
+    /** Maximum number of notifications dispatched together, as a single batch */
+    static final int MAX_BATCH_SIZE = 32;
+
+    /** Maximum number of attempts to dispatch a notification */
+    static final int MAX_ATTEMPTS = 3;
+
+    /** Default number of worker threads */
+    public static final int DEFAULT_WORKERS = Integer.getInteger(WebHookDispatcher.class.getName() + ".workers", 2);
+
+    /** Default maximum number of notifications waiting to be dispatched */
+    public static final int DEFAULT_QUEUE_CAPACITY = Integer.getInteger(WebHookDispatcher.class.getName()
+                                                                        + ".queueCapacity", 1000);
+
+    private final ThreadPoolExecutor executor;
+
+    private final WebHookJournal journal;
+
+    private final NotificationDeduplicator deduplicator = new NotificationDeduplicator();
+
+    /** true once the Jenkins items are loaded, and the notifications can be dispatched */
+    private boolean ready;
+
+    /** notifications accepted before {@link #startReplay()} without a journal, kept in memory until then */
+    private final List<List<RundeckExecution>> deferred = new ArrayList<List<RundeckExecution>>();
+
+    private final int queueCapacity;
+
+    private final AtomicLong accepted = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicLong dispatched = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong duplicates = new AtomicLong();
+
+    public WebHookDispatcher(WebHookJournal journal) {
+        this(DEFAULT_WORKERS, DEFAULT_QUEUE_CAPACITY, journal);
+    }
+
+    /**
+     * @param workers number of worker threads
+     * @param queueCapacity maximum number of notifications waiting to be dispatched
+     */
+    public WebHookDispatcher(int workers, int queueCapacity) {
+        this(workers, queueCapacity, null);
+    }
+
+    /**
+     * @param workers number of worker threads
+     * @param queueCapacity maximum number of notifications waiting to be dispatched
+     * @param journal used to make the notifications durable (may be null)
+     */
+    public WebHookDispatcher(int workers, int queueCapacity, WebHookJournal journal) {
+        this.queueCapacity = queueCapacity;
+        this.journal = journal;
+        this.executor = new ThreadPoolExecutor(workers, workers, 60L, TimeUnit.SECONDS,
+                                               new ArrayBlockingQueue<Runnable>(queueCapacity),
+                                               new WorkerThreadFactory());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Accept a notification : append its executions to the journal (if any), and enqueue them to be dispatched
+     * asynchronously to the triggers. Returns once the notification is durable.
+     *
+     * @param executions at the origin of the notification
+     * @return true if the notification has been accepted, false if the queue is full (or the dispatcher is shut down)
+     * @throws IOException in case of error while writing to the journal
+     */
+    public boolean accept(List<RundeckExecution> executions) throws IOException {
+        if (executions.isEmpty()) {
+            return true;
+        }
+        if (journal == null) {
+            synchronized (this) {
+                if (!ready) {
+                    // the triggers are not loaded yet
+                    if (deferred.size() >= queueCapacity) {
+                        rejected.incrementAndGet();
+                        return false;
+                    }
+                    deferred.add(executions);
+                    accepted.incrementAndGet();
+                    return true;
+                }
+            }
+            return submit(executions, null);
+        }
+        long[] offsets = new long[executions.size()];
+        boolean deferred;
+        synchronized (this) {
+            if (ready && executor.getQueue().remainingCapacity() == 0) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = journal.append(executions.get(i));
+            }
+            deferred = !ready;
+        }
+        journal.awaitDurable(offsets[offsets.length - 1]);
+        if (deferred) {
+            // will be dispatched by the replay
+            accepted.incrementAndGet();
+            return true;
+        }
+        if (!submit(executions, offsets)) {
+            // dropped : Rundeck will retry it
+            for (long offset : offsets) {
+                journal.acknowledge(offset);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Enqueue the given execution, to be dispatched asynchronously to the triggers.
+     *
+     * @param execution at the origin of the notification
+     * @return true if the notification has been accepted, false if the queue is full (or the dispatcher is shut down)
+     */
+    public boolean submit(RundeckExecution execution) {
+        return submit(Collections.singletonList(execution), null);
+    }
+
+    private boolean submit(List<RundeckExecution> executions, long[] journalOffsets) {
+        try {
+            executor.execute(new DispatchTask(executions, journalOffsets));
+            accepted.incrementAndGet();
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Start dispatching notifications : replay (on a background thread) the journaled notifications not yet
+     * acknowledged, including the ones left pending before a restart. Without a journal, the notifications accepted
+     * so far are dispatched.
+     */
+    public void startReplay() {
+        final List<Long> offsets;
+        List<List<RundeckExecution>> received;
+        synchronized (this) {
+            if (ready) {
+                return;
+            }
+            ready = true;
+            offsets = journal != null ? journal.getPendingOffsets() : Collections.<Long> emptyList();
+            received = new ArrayList<List<RundeckExecution>>(deferred);
+            deferred.clear();
+        }
+        for (List<RundeckExecution> executions : received) {
+            try {
+                executor.execute(new DispatchTask(executions, null));
+            } catch (RejectedExecutionException e) {
+                rejected.incrementAndGet();
+                log.warning("Dropping the Rundeck notification received during the startup for executions "
+                            + executions);
+            }
+        }
+        if (offsets.isEmpty()) {
+            return;
+        }
+        log.info("Replaying " + offsets.size() + " pending Rundeck notifications");
+        Thread replay = new Thread(new Runnable() {
+
+            public void run() {
+                for (int from = 0; from < offsets.size(); from += MAX_BATCH_SIZE) {
+                    List<Long> batch = offsets.subList(from, Math.min(from + MAX_BATCH_SIZE, offsets.size()));
+                    List<RundeckExecution> executions = new ArrayList<RundeckExecution>(batch.size());
+                    List<Long> readOffsets = new ArrayList<Long>(batch.size());
+                    for (Long offset : batch) {
+                        try {
+                            executions.add(journal.read(offset));
+                            readOffsets.add(offset);
+                        } catch (IOException e) {
+                            log.log(Level.WARNING, "Skipping unreadable Rundeck notification at journal offset "
+                                                   + offset, e);
+                            journal.acknowledge(offset);
+                        }
+                    }
+                    try {
+                        dispatch(executions);
+                    } catch (RuntimeException e) {
+                        // retried one by one, like the notifications received since the restart
+                        for (int i = 0; i < executions.size(); i++) {
+                            new DispatchTask(Collections.singletonList(executions.get(i)),
+                                             new long[] { readOffsets.get(i) }).retry();
+                        }
+                        continue;
+                    }
+                    for (Long offset : readOffsets) {
+                        journal.acknowledge(offset);
+                    }
+                }
+            }
+        }, "Rundeck WebHook journal replay");
+        replay.setDaemon(true);
+        replay.start();
+    }
+
+    /**
+     * Notify the registered triggers of the given executions (called on a worker thread). Only the triggers found by
+     * {@link RundeckTrigger#findCandidates(RundeckTrigger.JobKeys)} are notified, and all the builds they schedule
+     * are submitted to the Jenkins queue as a single {@link ScheduleBatch}.
+     *
+     * @param notification executions at the origin of the notification
+     * @throws RuntimeException if the notification could not be dispatched (it is then not recorded as seen)
+     */
+    protected void dispatch(List<RundeckExecution> notification) {
+        List<RundeckExecution> executions = new ArrayList<RundeckExecution>(notification.size());
+        for (RundeckExecution execution : notification) {
+            if (deduplicator.reserve(execution)) {
+                executions.add(execution);
+            } else {
+                duplicates.incrementAndGet();
+                log.fine("Ignoring duplicate notification for Rundeck execution #" + execution.getId() + " ("
+                         + execution.getStatus() + ")");
+            }
+        }
+        if (executions.isEmpty()) {
+            return;
+        }
+        try {
+            ScheduleBatch batch = createBatch();
+            for (RundeckExecution execution : executions) {
+                RundeckTrigger.JobKeys keys = new RundeckTrigger.JobKeys(execution.getJob());
+                for (RundeckTrigger trigger : RundeckTrigger.findCandidates(keys)) {
+                    trigger.onNotification(execution, keys, batch);
+                }
+            }
+            batch.submit();
+        } catch (RuntimeException e) {
+            for (RundeckExecution execution : executions) {
+                deduplicator.release(execution, false);
+            }
+            failed.addAndGet(executions.size());
+            log.log(Level.WARNING, "Failed to dispatch the notification for Rundeck executions " + executions, e);
+            throw e;
+        }
+        for (RundeckExecution execution : executions) {
+            deduplicator.release(execution, true);
+        }
+        dispatched.addAndGet(executions.size());
+    }
+
+    /**
+     * @return a new batch of builds to schedule
+     */
+    ScheduleBatch createBatch() {
+        return new ScheduleBatch();
+    }
+
+    /**
+     * Stop accepting notifications, and wait a bit for the pending ones to be dispatched. Notifications still pending
+     * stay in the journal, and will be replayed after the restart.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warning("Dropping " + executor.getQueue().size() + " pending Rundeck notifications");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    /** @return number of notifications waiting to be dispatched */
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /** @return number of notifications currently being dispatched */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public long getAcceptedCount() {
+        return accepted.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getDispatchedCount() {
+        return dispatched.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /** @return number of duplicate notifications dropped */
+    public long getDuplicateCount() {
+        return duplicates.get();
+    }
+
+    /**
+     * Dispatches a notification, along with the notifications waiting in the queue behind it (up to
+     * {@link #MAX_BATCH_SIZE}), so that bursts are submitted to the Jenkins queue in a few batches. If the batch fails,
+     * its notifications are dispatched again one by one, so that a failing notification does not hold the others
+     * back. A notification retried after a failure is always dispatched alone.
+     */
+    private class DispatchTask implements Runnable {
+
+        private final List<RundeckExecution> executions;
+
+        private final long[] journalOffsets;
+
+        /** number of failed attempts to dispatch this notification */
+        private int failures;
+
+        private DispatchTask(List<RundeckExecution> executions, long[] journalOffsets) {
+            this.executions = executions;
+            this.journalOffsets = journalOffsets;
+        }
+
+        public void run() {
+            List<DispatchTask> tasks = new ArrayList<DispatchTask>();
+            tasks.add(this);
+            List<Runnable> others = new ArrayList<Runnable>();
+            Runnable next;
+            while (failures == 0 && tasks.size() < MAX_BATCH_SIZE && (next = executor.getQueue().poll()) != null) {
+                if (next instanceof DispatchTask && ((DispatchTask) next).failures == 0) {
+                    tasks.add((DispatchTask) next);
+                } else {
+                    others.add(next);
+                }
+            }
+            List<RundeckExecution> batch = new ArrayList<RundeckExecution>();
+            for (DispatchTask task : tasks) {
+                batch.addAll(task.executions);
+            }
+            try {
+                dispatch(batch);
+                for (DispatchTask task : tasks) {
+                    task.acknowledge();
+                }
+            } catch (RuntimeException e) {
+                if (tasks.size() == 1) {
+                    retry();
+                } else {
+                    for (DispatchTask task : tasks) {
+                        task.dispatchAlone();
+                    }
+                }
+            }
+            for (Runnable other : others) {
+                other.run();
+            }
+        }
+
+        private void dispatchAlone() {
+            try {
+                dispatch(executions);
+                acknowledge();
+            } catch (RuntimeException e) {
+                retry();
+            }
+        }
+
+        /**
+         * Enqueue this notification again, or move it to the dead-letter file of the journal once all the attempts
+         * have failed
+         */
+        private void retry() {
+            failures++;
+            if (failures < MAX_ATTEMPTS) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // queue full, or shutting down
+                    log.warning("Failed to retry the notification for Rundeck executions " + executions
+                                + (journalOffsets != null ? " : it will be replayed after a restart" : ""));
+                }
+                return;
+            }
+            log.warning("Giving up the notification for Rundeck executions " + executions + " after " + failures
+                        + " attempts" + (journalOffsets != null ? " : moved to the dead-letter file" : ""));
+            if (journalOffsets != null) {
+                for (long offset : journalOffsets) {
+                    try {
+                        journal.deadLetter(offset);
+                    } catch (IOException e) {
+                        log.log(Level.WARNING, "Failed to move the Rundeck notification at journal offset " + offset
+                                               + " to the dead-letter file", e);
+                    }
+                }
+            }
+        }
+
+        private void acknowledge() {
+            if (journalOffsets != null) {
+                for (long offset : journalOffsets) {
+                    journal.acknowledge(offset);
+                }
+            }
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Rundeck WebHook dispatcher #" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,693 @@
+package org.jenkinsci.plugins.rundeck;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.rundeck.api.domain.RundeckExecution;
+import org.rundeck.api.domain.RundeckJob;
+
+/**
+ * Durable, append-only journal of the Rundeck notifications accepted by the {@link WebHookListener}.
+ * <p>
+ * Records are appended to segment files (named after the offset of their first record), and rotated once a segment
+ * exceeds a given size. Each record is stored as : length (int), CRC32 of the payload (int), payload (a compact binary
+ * encoding of the execution). Appends are made durable with group commits : concurrent callers of
+ * {@link #awaitDurable(long)} share a single fsync.
+ * <p>
+ * Every appended record is "pending" until {@link #acknowledge(long)} is called. Each acknowledgment is appended to
+ * an acknowledgment log (the offset of the record), so that an acknowledged record is never replayed. The offset of
+ * the oldest pending record is periodically persisted : the acknowledgments before it are dropped from the log, and
+ * the segments that only contain acknowledged records are deleted. On startup, the records from that offset which are
+ * not in the acknowledgment log are replayed.
+ * <p>
+ * A record which could not be processed is moved to a dead-letter file (see {@link #deadLetter(long)}), so that it
+ * neither holds the deletion of the segments back, nor is replayed forever.
+ */
+public class WebHookJournal {
+
+    private static final Logger log = Logger.getLogger(WebHookJournal.class.getName());
+
+    /** Default maximum size of a segment, in bytes */
+    public static final long DEFAULT_MAX_SEGMENT_BYTES = 8 * 1024 * 1024;
+
+    /** Number of acknowledgments between two writes of the acknowledged offset */
+    private static final int ACK_PERSIST_INTERVAL = 64;
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final String ACK_FILE = "ack";
+
+    private static final String ACK_LOG_FILE = "acks";
+
+    private static final String DEAD_LETTER_FILE = "dead-letter";
+
+    private static final int HEADER_BYTES = 8;
+
+    private static final byte FORMAT_VERSION = 1;
+
+    private final File directory;
+
+    private final long maxSegmentBytes;
+
+    /** base offsets of the existing segments, in order */
+    private final List<Long> segments = new ArrayList<Long>();
+
+    /** offsets of the records not yet acknowledged */
+    private final TreeSet<Long> pending = new TreeSet<Long>();
+
+    /** offsets of the records acknowledged after the persisted acknowledged offset (as in the acknowledgment log) */
+    private final TreeSet<Long> acked = new TreeSet<Long>();
+
+    private RandomAccessFile ackLogFile;
+
+    private FileChannel ackLogChannel;
+
+    private final Object deadLetterLock = new Object();
+
+    private RandomAccessFile segmentFile;
+
+    private FileChannel segmentChannel;
+
+    private long segmentBase;
+
+    /** offset at which the next record will be written */
+    private long writeOffset;
+
+    /** all the records before this offset have been fsync-ed */
+    private long syncedOffset;
+
+    private boolean syncInProgress;
+
+    private final Object syncLock = new Object();
+
+    private long persistedAckOffset;
+
+    private int unpersistedAcks;
+
+    /**
+     * Open (or create) the journal in the given directory, recovering from a truncated last record if needed.
+     *
+     * @param directory where the segments are stored
+     * @param maxSegmentBytes size after which a new segment is started
+     * @throws IOException if the journal can not be opened
+     */
+    public WebHookJournal(File directory, long maxSegmentBytes) throws IOException {
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create the journal directory " + directory);
+        }
+        open();
+    }
+
+    public WebHookJournal(File directory) throws IOException {
+        this(directory, DEFAULT_MAX_SEGMENT_BYTES);
+    }
+
+    private synchronized void open() throws IOException {
+        String[] names = directory.list(new FilenameFilter() {
+
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (names != null) {
+            for (String name : names) {
+                try {
+                    segments.add(Long.valueOf(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    log.warning("Ignoring unexpected file in the Rundeck WebHook journal : " + name);
+                }
+            }
+        }
+        Collections.sort(segments);
+        persistedAckOffset = readAckOffset();
+        openAckLog();
+
+        if (segments.isEmpty()) {
+            segments.add(persistedAckOffset);
+        }
+
+        // recover the last segment : find the end of its last valid record, and drop any torn write
+        segmentBase = segments.get(segments.size() - 1);
+        segmentFile = new RandomAccessFile(segmentFile(segmentBase), "rw");
+        segmentChannel = segmentFile.getChannel();
+        long validEnd = scan(segmentChannel, segmentBase, null);
+        if (validEnd - segmentBase < segmentChannel.size()) {
+            log.warning("Truncating the Rundeck WebHook journal segment " + segmentBase + " after a torn write");
+            segmentChannel.truncate(validEnd - segmentBase);
+        }
+        segmentChannel.position(validEnd - segmentBase);
+        writeOffset = validEnd;
+        syncedOffset = validEnd;
+
+        // everything after the acknowledged offset is pending, until replayed
+        for (Long base : segments) {
+            if (base.longValue() == segmentBase) {
+                scan(segmentChannel, segmentBase, pending);
+            } else {
+                RandomAccessFile file = new RandomAccessFile(segmentFile(base), "r");
+                try {
+                    scan(file.getChannel(), base, pending);
+                } finally {
+                    file.close();
+                }
+            }
+        }
+        segmentChannel.position(writeOffset - segmentBase);
+    }
+
+    /**
+     * Walk over the valid records of a segment.
+     *
+     * @param channel of the segment
+     * @param base offset of the segment
+     * @param offsets if not null, will receive the offsets of the records after the acknowledged offset
+     * @return the offset just after the last valid record
+     */
+    private long scan(FileChannel channel, long base, TreeSet<Long> offsets) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        long position = 0;
+        long size = channel.size();
+        while (position + HEADER_BYTES <= size) {
+            header.clear();
+            channel.read(header, position);
+            header.flip();
+            int length = header.getInt();
+            int crc = header.getInt();
+            if (length <= 0 || position + HEADER_BYTES + length > size) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            channel.read(payload, position + HEADER_BYTES);
+            if (checksum(payload.array()) != crc) {
+                break;
+            }
+            if (offsets != null && base + position >= persistedAckOffset && !acked.contains(base + position)) {
+                offsets.add(base + position);
+            }
+            position += HEADER_BYTES + length;
+        }
+        return base + position;
+    }
+
+    /**
+     * Open the acknowledgment log, and read the acknowledgments after the persisted acknowledged offset (dropping a
+     * torn write)
+     */
+    private void openAckLog() throws IOException {
+        ackLogFile = new RandomAccessFile(new File(directory, ACK_LOG_FILE), "rw");
+        ackLogChannel = ackLogFile.getChannel();
+        long size = ackLogChannel.size() - ackLogChannel.size() % 8;
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(size, 64 * 1024));
+        for (long position = 0; position < size;) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), size - position));
+            while (buffer.hasRemaining()) {
+                if (ackLogChannel.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException("Truncated acknowledgment log");
+                }
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                long offset = buffer.getLong();
+                if (offset >= persistedAckOffset) {
+                    acked.add(offset);
+                }
+            }
+            position += buffer.limit();
+        }
+        ackLogChannel.truncate(size);
+        ackLogChannel.position(size);
+    }
+
+    /**
+     * Append the given execution to the journal. The record is not guaranteed to be durable until
+     * {@link #awaitDurable(long)} returns.
+     *
+     * @param execution to append
+     * @return the offset of the record (used to acknowledge it)
+     * @throws IOException in case of error while writing the record
+     */
+    public long append(RundeckExecution execution) throws IOException {
+        byte[] payload = encode(execution);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+        record.putInt(payload.length);
+        record.putInt(checksum(payload));
+        record.put(payload);
+        record.flip();
+
+        synchronized (this) {
+            if (writeOffset - segmentBase >= maxSegmentBytes) {
+                rotate();
+            }
+            long offset = writeOffset;
+            while (record.hasRemaining()) {
+                segmentChannel.write(record);
+            }
+            writeOffset += HEADER_BYTES + payload.length;
+            pending.add(offset);
+            return offset;
+        }
+    }
+
+    /**
+     * Block until the record at the given offset has been fsync-ed. Concurrent callers are batched into a single
+     * fsync : the first one to arrive syncs everything written so far, the others wait for it.
+     *
+     * @param offset of a record returned by {@link #append(RundeckExecution)}
+     * @throws IOException in case of error while syncing the journal
+     */
+    public void awaitDurable(long offset) throws IOException {
+        while (true) {
+            synchronized (syncLock) {
+                while (syncInProgress && syncedOffset <= offset) {
+                    try {
+                        syncLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for the journal to be synced");
+                    }
+                }
+                if (syncedOffset > offset) {
+                    return;
+                }
+                syncInProgress = true;
+            }
+            long target = 0;
+            boolean synced = false;
+            try {
+                FileChannel channel;
+                synchronized (this) {
+                    target = writeOffset;
+                    channel = segmentChannel;
+                }
+                force(channel);
+                synced = true;
+            } finally {
+                synchronized (syncLock) {
+                    syncInProgress = false;
+                    if (synced) {
+                        syncedOffset = Math.max(syncedOffset, target);
+                    }
+                    syncLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    private void force(FileChannel channel) throws IOException {
+        try {
+            channel.force(false);
+        } catch (ClosedChannelException e) {
+            // the segment has been rotated, which already forced it
+        }
+    }
+
+    /**
+     * Start a new segment. Must be called with the journal lock held.
+     */
+    private void rotate() throws IOException {
+        segmentChannel.force(false);
+        segmentFile.close();
+        segmentBase = writeOffset;
+        segments.add(segmentBase);
+        segmentFile = new RandomAccessFile(segmentFile(segmentBase), "rw");
+        segmentChannel = segmentFile.getChannel();
+        synchronized (syncLock) {
+            syncedOffset = Math.max(syncedOffset, segmentBase);
+        }
+    }
+
+    /**
+     * Mark the record at the given offset as processed : it will not be replayed after a restart.
+     *
+     * @param offset of a record returned by {@link #append(RundeckExecution)}
+     */
+    public void acknowledge(long offset) {
+        boolean persist;
+        synchronized (this) {
+            if (!pending.remove(offset)) {
+                return;
+            }
+            acked.add(offset);
+            ByteBuffer ack = ByteBuffer.allocate(8);
+            ack.putLong(offset).flip();
+            try {
+                while (ack.hasRemaining()) {
+                    ackLogChannel.write(ack);
+                }
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Failed to log the acknowledgment of the Rundeck WebHook journal record "
+                                       + offset + " : it could be replayed after a restart", e);
+            }
+            persist = ++unpersistedAcks >= ACK_PERSIST_INTERVAL;
+        }
+        if (persist) {
+            try {
+                checkpoint();
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Failed to persist the Rundeck WebHook journal acknowledged offset", e);
+            }
+        }
+    }
+
+    /**
+     * @return the offsets of the records not yet acknowledged, in order
+     */
+    public synchronized List<Long> getPendingOffsets() {
+        return new ArrayList<Long>(pending);
+    }
+
+    /**
+     * Move the record at the given offset to the dead-letter file, and acknowledge it : used for the records which
+     * could not be processed after several attempts.
+     *
+     * @param offset of a record returned by {@link #append(RundeckExecution)}
+     * @throws IOException in case of error while reading the record or writing the dead-letter file (the record is
+     *             then left pending)
+     */
+    public void deadLetter(long offset) throws IOException {
+        byte[] payload = encode(read(offset));
+        synchronized (deadLetterLock) {
+            FileOutputStream out = new FileOutputStream(new File(directory, DEAD_LETTER_FILE), true);
+            try {
+                DataOutputStream record = new DataOutputStream(out);
+                record.writeInt(payload.length);
+                record.writeInt(checksum(payload));
+                record.write(payload);
+                record.flush();
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+        }
+        acknowledge(offset);
+    }
+
+    /**
+     * @return the executions moved to the dead-letter file, in order
+     * @throws IOException in case of error while reading the dead-letter file
+     */
+    public List<RundeckExecution> getDeadLetters() throws IOException {
+        List<RundeckExecution> executions = new ArrayList<RundeckExecution>();
+        File file = new File(directory, DEAD_LETTER_FILE);
+        if (!file.exists()) {
+            return executions;
+        }
+        DataInputStream in;
+        synchronized (deadLetterLock) {
+            in = new DataInputStream(new ByteArrayInputStream(FileUtils.readFileToByteArray(file)));
+        }
+        while (in.available() >= HEADER_BYTES) {
+            int length = in.readInt();
+            int crc = in.readInt();
+            if (length <= 0 || length > in.available()) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            if (checksum(payload) != crc) {
+                break;
+            }
+            executions.add(decode(payload));
+        }
+        return executions;
+    }
+
+    /**
+     * Read the record at the given offset.
+     *
+     * @param offset of a record
+     * @return the execution stored in this record
+     * @throws IOException in case of error, or if the record is corrupted
+     */
+    public RundeckExecution read(long offset) throws IOException {
+        long base;
+        synchronized (this) {
+            int index = Collections.binarySearch(segments, offset);
+            base = segments.get(index >= 0 ? index : -index - 2);
+        }
+        RandomAccessFile file = new RandomAccessFile(segmentFile(base), "r");
+        try {
+            FileChannel channel = file.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            channel.read(header, offset - base);
+            header.flip();
+            int length = header.getInt();
+            int crc = header.getInt();
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            while (payload.hasRemaining()) {
+                if (channel.read(payload, offset - base + HEADER_BYTES + payload.position()) < 0) {
+                    throw new EOFException("Truncated journal record at offset " + offset);
+                }
+            }
+            if (checksum(payload.array()) != crc) {
+                throw new IOException("Corrupted journal record at offset " + offset);
+            }
+            return decode(payload.array());
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Sync the acknowledgment log, persist the offset of the oldest pending record (dropping the acknowledgments before
+     * it from the log), and delete the segments that are fully acknowledged.
+     *
+     * @throws IOException in case of error while writing the acknowledged offset
+     */
+    public void checkpoint() throws IOException {
+        long ackOffset;
+        List<Long> deletable = new ArrayList<Long>();
+        synchronized (this) {
+            ackLogChannel.force(false);
+            ackOffset = pending.isEmpty() ? writeOffset : pending.first();
+            unpersistedAcks = 0;
+            if (ackOffset == persistedAckOffset) {
+                return;
+            }
+            writeAckOffset(ackOffset);
+            persistedAckOffset = ackOffset;
+            // the log only has to keep the acknowledgments after the acknowledged offset
+            acked.headSet(ackOffset).clear();
+            compactAckLog();
+            // a segment can be deleted once the next one starts before the acknowledged offset
+            while (segments.size() > 1 && segments.get(1) <= ackOffset) {
+                deletable.add(segments.remove(0));
+            }
+        }
+        for (Long base : deletable) {
+            if (!segmentFile(base).delete()) {
+                log.warning("Failed to delete the Rundeck WebHook journal segment " + base);
+            }
+        }
+    }
+
+    /**
+     * Rewrite the acknowledgment log with the acknowledgments after the persisted acknowledged offset. Must be called
+     * with the journal lock held.
+     */
+    private void compactAckLog() throws IOException {
+        File tmp = new File(directory, ACK_LOG_FILE + ".tmp");
+        FileOutputStream file = new FileOutputStream(tmp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+            for (Long offset : acked) {
+                out.writeLong(offset);
+            }
+            out.flush();
+            file.getFD().sync();
+        } finally {
+            file.close();
+        }
+        File ackLog = new File(directory, ACK_LOG_FILE);
+        ackLogFile.close();
+        try {
+            // renameTo can not replace an existing file on some platforms
+            if (!tmp.renameTo(ackLog) && (!ackLog.delete() || !tmp.renameTo(ackLog))) {
+                throw new IOException("Failed to write the acknowledgment log " + ackLog);
+            }
+        } finally {
+            ackLogFile = new RandomAccessFile(ackLog, "rw");
+            ackLogChannel = ackLogFile.getChannel();
+            ackLogChannel.position(ackLogChannel.size());
+        }
+    }
+
+    /**
+     * Persist the acknowledged offset and close the journal.
+     */
+    public void close() {
+        try {
+            checkpoint();
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to persist the Rundeck WebHook journal acknowledged offset", e);
+        }
+        synchronized (this) {
+            try {
+                segmentChannel.force(false);
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Failed to sync the Rundeck WebHook journal", e);
+            }
+            IOUtils.closeQuietly(segmentFile);
+            IOUtils.closeQuietly(ackLogFile);
+        }
+    }
+
+    private File segmentFile(long base) {
+        return new File(directory, String.format("%020d%s", base, SEGMENT_SUFFIX));
+    }
+
+    private long readAckOffset() throws IOException {
+        File file = new File(directory, ACK_FILE);
+        if (!file.exists()) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(FileUtils.readFileToString(file, "UTF-8").trim());
+        } catch (NumberFormatException e) {
+            log.warning("Invalid acknowledged offset in the Rundeck WebHook journal, replaying everything");
+            return 0;
+        }
+    }
+
+    private void writeAckOffset(long offset) throws IOException {
+        File tmp = new File(directory, ACK_FILE + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(String.valueOf(offset).getBytes("UTF-8"));
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        File file = new File(directory, ACK_FILE);
+        if (!tmp.renameTo(file)) {
+            // renameTo can not replace an existing file on some platforms
+            if (!file.delete() || !tmp.renameTo(file)) {
+                throw new IOException("Failed to write the acknowledged offset to " + file);
+            }
+        }
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    static byte[] encode(RundeckExecution execution) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(FORMAT_VERSION);
+        writeLong(out, execution.getId());
+        writeString(out, execution.getUrl());
+        writeString(out, execution.getStatus() != null ? execution.getStatus().name() : null);
+        writeString(out, execution.getStartedBy());
+        writeLong(out, execution.getStartedAt() != null ? execution.getStartedAt().getTime() : null);
+        writeLong(out, execution.getEndedAt() != null ? execution.getEndedAt().getTime() : null);
+        writeString(out, execution.getAbortedBy());
+        writeString(out, execution.getDescription());
+        writeString(out, execution.getArgstring());
+        RundeckJob job = execution.getJob();
+        out.writeBoolean(job != null);
+        if (job != null) {
+            writeString(out, job.getId());
+            writeString(out, job.getName());
+            writeString(out, job.getGroup());
+            writeString(out, job.getProject());
+            writeString(out, job.getDescription());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static RundeckExecution decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte version = in.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported journal record version " + version);
+        }
+        RundeckExecution execution = new RundeckExecution();
+        execution.setId(readLong(in));
+        execution.setUrl(readString(in));
+        String status = readString(in);
+        execution.setStatus(status != null ? RundeckExecution.ExecutionStatus.valueOf(status) : null);
+        execution.setStartedBy(readString(in));
+        Long startedAt = readLong(in);
+        execution.setStartedAt(startedAt != null ? new Date(startedAt) : null);
+        Long endedAt = readLong(in);
+        execution.setEndedAt(endedAt != null ? new Date(endedAt) : null);
+        execution.setAbortedBy(readString(in));
+        execution.setDescription(readString(in));
+        execution.setArgstring(readString(in));
+        if (in.readBoolean()) {
+            RundeckJob job = new RundeckJob();
+            job.setId(readString(in));
+            job.setName(readString(in));
+            job.setGroup(readString(in));
+            job.setProject(readString(in));
+            job.setDescription(readString(in));
+            execution.setJob(job);
+        }
+        return execution;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static void writeLong(DataOutputStream out, Long value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value);
+        }
+    }
+
+    private static Long readLong(DataInputStream in) throws IOException {
+        return in.readBoolean() ? Long.valueOf(in.readLong()) : null;
+    }
+
+    @Override
+    public String toString() {
+        return "WebHookJournal [directory=" + directory + ", segments=" + Arrays.toString(segments.toArray()) + "]";
+    }
+}
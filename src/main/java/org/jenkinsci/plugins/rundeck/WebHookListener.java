@@ -1,46 +1,147 @@
 package org.jenkinsci.plugins.rundeck;
 
-import hudson.model.AbstractProject;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
 import hudson.model.Hudson;
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
 import javax.servlet.http.HttpServletResponse;
+import net.sf.json.JSONObject;
 import org.apache.commons.io.IOUtils;
-import org.dom4j.Document;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 import org.rundeck.api.domain.RundeckExecution;
-import org.rundeck.api.parser.ExecutionParser;
-import org.rundeck.api.parser.ParserHelper;
 
 /**
  * Listener for Rundeck WebHook notifications (see http://rundeck.org/docs/manual/jobs.html#webhooks), will trigger a
- * build using {@link RundeckTrigger}
+ * build using {@link RundeckTrigger}. Notifications are journaled and acknowledged right away, and dispatched
+ * asynchronously by the {@link WebHookDispatcher}.
  *
  * @author Vincent Behar
  */
 public class WebHookListener {
 
+    /** HTTP status code used when the dispatch queue is full */
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+
+    /** Delay (in seconds) suggested to Rundeck before retrying a rejected notification */
+    private static final int RETRY_AFTER_SECONDS = 30;
+
+    private final RundeckNotificationParser xmlParser = new RundeckNotificationParser();
+
+    private final RundeckJsonNotificationParser jsonParser = new RundeckJsonNotificationParser();
+
+    private final WebHookDispatcher dispatcher;
+
+    public WebHookListener(WebHookDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
     public void doIndex(StaplerRequest request, StaplerResponse response) throws IOException {
-        // read request body / parse Rundeck execution
-        Document document = ParserHelper.loadDocument(request.getInputStream());
-        IOUtils.closeQuietly(request.getInputStream());
-        ExecutionParser parser = new ExecutionParser("notification/executions/execution");
-        RundeckExecution execution = parser.parseXmlNode(document);
+        // read request body / parse Rundeck executions
+        List<RundeckExecution> executions;
+        InputStream input = new BufferedInputStream(request.getInputStream());
+        try {
+            if (isJson(request.getContentType(), input)) {
+                executions = jsonParser.parse(input);
+            } else {
+                executions = xmlParser.parse(input);
+            }
+        } catch (IOException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+
+        // journal and enqueue the notification, the triggers will be notified asynchronously
+        if (!dispatcher.accept(executions)) {
+            response.setHeader("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+            response.sendError(SC_TOO_MANY_REQUESTS, "Too many pending Rundeck notifications, retry later");
+            return;
+        }
 
         // write a basic response
-        response.setStatus(HttpServletResponse.SC_OK);
+        response.setStatus(HttpServletResponse.SC_ACCEPTED);
         response.setContentType("text/plain");
-        //response.getWriter().append("Thanks");
-
-        // notify all registered triggers
-        for (AbstractProject<?, ?> job : Hudson.getInstance().getAllItems(AbstractProject.class)) {
-            RundeckTrigger trigger = job.getTrigger(RundeckTrigger.class);
-            if (trigger != null) {
-                response.getWriter().append("[\"Triggering:\" : \""+job.getFullDisplayName()+"\"\n");
-                response.getWriter().append("\"Execution\" : \"" + execution.getJob()+"\"]\n");
-                trigger.onNotification(execution);
+        for (RundeckExecution execution : executions) {
+            response.getWriter().append("Accepted Rundeck execution #" + execution.getId() + "\n");
+        }
+    }
+
+    /**
+     * Check if the notification is in the JSON format : either from its content-type, or (as Rundeck does not always
+     * set it) by looking at its first non-blank character.
+     *
+     * @param contentType of the request, may be null
+     * @param input stream of the body, must support mark/reset
+     */
+    private boolean isJson(String contentType, InputStream input) throws IOException {
+        if (contentType != null) {
+            if (contentType.contains("json")) {
+                return true;
+            }
+            if (contentType.contains("xml")) {
+                return false;
+            }
+        }
+        input.mark(256);
+        try {
+            for (int i = 0; i < 256; i++) {
+                int c = input.read();
+                if (c == -1 || c == '<') {
+                    return false;
+                }
+                if (c == '{' || c == '[') {
+                    return true;
+                }
+                if (!Character.isWhitespace(c)) {
+                    return false;
+                }
             }
+            return false;
+        } finally {
+            input.reset();
+        }
+    }
+
+    /**
+     * Expose the metrics of the dispatch queue, as JSON. Unlike the notifications, they are only available to the
+     * administrators.
+     */
+    public void doMetrics(StaplerRequest request, StaplerResponse response) throws IOException {
+        Hudson.getInstance().checkPermission(Hudson.ADMINISTER);
+
+        JSONObject metrics = new JSONObject();
+        metrics.put("queueSize", dispatcher.getQueueSize());
+        metrics.put("queueCapacity", dispatcher.getQueueCapacity());
+        metrics.put("active", dispatcher.getActiveCount());
+        metrics.put("accepted", dispatcher.getAcceptedCount());
+        metrics.put("rejected", dispatcher.getRejectedCount());
+        metrics.put("dispatched", dispatcher.getDispatchedCount());
+        metrics.put("failed", dispatcher.getFailedCount());
+        metrics.put("duplicates", dispatcher.getDuplicateCount());
+
+        response.setContentType("application/json");
+        response.getWriter().append(metrics.toString());
+    }
+
+    public WebHookDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Once all the jobs (and their triggers) are loaded, start dispatching the notifications, beginning with the ones
+     * received before or during the restart.
+     */
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void startDispatching() {
+        RundeckPlugin plugin = Hudson.getInstance().getPlugin(RundeckPlugin.class);
+        if (plugin != null && plugin.getWebhook() != null) {
+            plugin.getWebhook().getDispatcher().startReplay();
         }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,102 @@
+package org.jenkinsci.plugins.rundeck;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link JobSelector} and {@link JobSelectorIndex}
+ */
+public class JobSelectorTest {
+
+    @Test
+    public void selectorKinds() {
+        assertFalse(JobSelector.isPattern("2027ce89-7924-4ecf-a963-30090ada834f"));
+        assertFalse(JobSelector.isPattern("prod:deploy/web"));
+        assertTrue(JobSelector.isPattern("glob:prod:deploy/*"));
+        assertTrue(JobSelector.isPattern("glob:prod:deploy/we?"));
+        assertTrue(JobSelector.isPattern("regex:prod:.+"));
+        assertFalse(JobSelector.isPattern("literal:glob:deploy"));
+        assertEquals("glob:deploy", JobSelector.toIdentifier("literal:glob:deploy"));
+    }
+
+    @Test
+    public void wildcardsAreLiteralWithoutPrefix() {
+        assertFalse(JobSelector.isPattern("prod:deploy/*"));
+        assertFalse(JobSelector.isPattern("prod:what?"));
+        assertFalse(JobSelector.isPattern("/prod:.+/"));
+        assertEquals("prod:deploy/*", JobSelector.toIdentifier("prod:deploy/*"));
+        assertEquals("prod:deploy/*", JobSelector.literalPrefix("Prod:Deploy/*"));
+    }
+
+    @Test
+    public void globsAndRegexesAreCompiledIntoOnePattern() {
+        Pattern pattern = JobSelector.compile(Arrays.asList("glob:prod:deploy/*", "glob:qa:we?",
+                                                            "regex:(dev|int):build-\\d+"));
+
+        assertTrue(pattern.matcher("prod:deploy/web").matches());
+        assertTrue(pattern.matcher("PROD:Deploy/sub/web").matches());
+        assertTrue(pattern.matcher("qa:web").matches());
+        assertTrue(pattern.matcher("int:build-12").matches());
+        assertFalse(pattern.matcher("prod:deployweb").matches());
+        assertFalse(pattern.matcher("qa:webs").matches());
+        assertFalse(pattern.matcher("int:build-x").matches());
+        assertNull(JobSelector.compile(Collections.<String> emptyList()));
+    }
+
+    @Test
+    public void globsAreQuoted() {
+        Pattern pattern = JobSelector.compile(Arrays.asList("glob:my.project:(a)+*"));
+
+        assertTrue(pattern.matcher("my.project:(a)+job").matches());
+        assertFalse(pattern.matcher("myXproject:(a)+job").matches());
+    }
+
+    @Test
+    public void literalPrefixes() {
+        assertEquals("prod:deploy/web", JobSelector.literalPrefix("Prod:Deploy/Web"));
+        assertEquals("prod:deploy/", JobSelector.literalPrefix("glob:prod:deploy/*"));
+        assertEquals("", JobSelector.literalPrefix("glob:*:deploy"));
+        assertEquals("", JobSelector.literalPrefix("regex:prod:.+"));
+        assertEquals("glob:deploy", JobSelector.literalPrefix("literal:glob:deploy"));
+    }
+
+    @Test
+    public void selectorsOfThePreviousSyntaxAreMigrated() {
+        assertEquals(Arrays.asList("glob:prod:deploy/*", "regex:prod:.+", "prod:deploy/web", "literal:glob:deploy", " "),
+                     JobSelector.migrate(Arrays.asList("prod:deploy/*", "/prod:.+/", "prod:deploy/web", "glob:deploy",
+                                                       " ")));
+    }
+
+    @Test
+    public void indexReturnsTheSubscribersWhosePrefixMatches() {
+        JobSelectorIndex<String> index = new JobSelectorIndex<String>();
+        index.register("exact", Arrays.asList("prod:deploy/web"));
+        index.register("glob", Arrays.asList("prod:deploy/"));
+        index.register("other", Arrays.asList("qa:", "dev:"));
+        index.register("all", Arrays.asList(""));
+
+        assertEquals(set("all", "glob", "exact"), index.candidates("2027ce89", "prod:deploy/web"));
+        assertEquals(set("all", "glob"), index.candidates("2027ce89", "prod:deploy/db"));
+        assertEquals(set("all", "other"), index.candidates(null, "dev:build"));
+
+        index.unregister("glob");
+        index.register("other", Arrays.asList("prod:"));
+        assertEquals(set("all", "other"), index.candidates("2027ce89", "prod:deploy/db"));
+        assertEquals(set("all"), index.candidates(null, "dev:build"));
+        assertEquals(3, index.size());
+    }
+
+    private static Set<String> set(String... values) {
+        return new HashSet<String>(Arrays.asList(values));
+    }
+}
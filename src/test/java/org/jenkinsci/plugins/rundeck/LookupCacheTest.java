@@ -0,0 +1,110 @@
+package org.jenkinsci.plugins.rundeck;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link LookupCache}
+ */
+public class LookupCacheTest {
+
+    @Test
+    public void resultsAreCachedByKey() throws Exception {
+        LookupCache<String> cache = new LookupCache<String>(TimeUnit.MINUTES.toMillis(1));
+        CountingLookup lookup = new CountingLookup();
+
+        assertEquals("result-1", cache.get("a", lookup));
+        assertEquals("result-1", cache.get("a", lookup));
+        assertEquals("result-2", cache.get("b", lookup));
+        assertEquals(2, lookup.calls.get());
+
+        cache.clear();
+        assertEquals("result-3", cache.get("a", lookup));
+    }
+
+    @Test
+    public void expiredResultsAreLookedUpAgain() throws Exception {
+        LookupCache<String> cache = new LookupCache<String>(0);
+        CountingLookup lookup = new CountingLookup();
+
+        assertEquals("result-1", cache.get("a", lookup));
+        assertEquals("result-2", cache.get("a", lookup));
+    }
+
+    @Test
+    public void concurrentLookupsAreCollapsed() throws Exception {
+        final LookupCache<String> cache = new LookupCache<String>(TimeUnit.MINUTES.toMillis(1));
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final Callable<String> slowLookup = new Callable<String>() {
+
+            public String call() throws InterruptedException {
+                calls.incrementAndGet();
+                started.countDown();
+                release.await();
+                return "result";
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<String> first = executor.submit(new Callable<String>() {
+
+                public String call() throws Exception {
+                    return cache.get("a", slowLookup);
+                }
+            });
+            started.await();
+            Future<String> second = executor.submit(new Callable<String>() {
+
+                public String call() throws Exception {
+                    return cache.get("a", slowLookup);
+                }
+            });
+            release.countDown();
+
+            assertEquals("result", first.get(10, TimeUnit.SECONDS));
+            assertEquals("result", second.get(10, TimeUnit.SECONDS));
+            assertEquals(1, calls.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void failuresAreNotCached() throws Exception {
+        LookupCache<String> cache = new LookupCache<String>(TimeUnit.MINUTES.toMillis(1));
+        try {
+            cache.get("a", new Callable<String>() {
+
+                public String call() {
+                    throw new IllegalStateException("down");
+                }
+            });
+            fail("the failure should be propagated");
+        } catch (ExecutionException e) {
+            assertEquals("down", e.getCause().getMessage());
+        }
+        assertEquals("result-1", cache.get("a", new CountingLookup()));
+    }
+
+    private static class CountingLookup implements Callable<String> {
+
+        private final AtomicInteger calls = new AtomicInteger();
+
+        public String call() {
+            return "result-" + calls.incrementAndGet();
+        }
+    }
+}
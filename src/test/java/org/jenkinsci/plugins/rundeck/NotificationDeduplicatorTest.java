@@ -0,0 +1,97 @@
+package org.jenkinsci.plugins.rundeck;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import org.rundeck.api.domain.RundeckExecution;
+import org.rundeck.api.domain.RundeckExecution.ExecutionStatus;
+
+/**
+ * Tests for {@link NotificationDeduplicator}
+ */
+public class NotificationDeduplicatorTest {
+
+    @Test
+    public void duplicatesAreDetectedByExecutionAndStatus() {
+        NotificationDeduplicator deduplicator = new NotificationDeduplicator();
+
+        assertTrue(deduplicator.firstSeen(createExecution(1L, ExecutionStatus.RUNNING)));
+        assertTrue(deduplicator.firstSeen(createExecution(1L, ExecutionStatus.SUCCEEDED)));
+        assertTrue(deduplicator.firstSeen(createExecution(2L, ExecutionStatus.SUCCEEDED)));
+        assertFalse(deduplicator.firstSeen(createExecution(1L, ExecutionStatus.SUCCEEDED)));
+        assertFalse(deduplicator.firstSeen(createExecution(2L, ExecutionStatus.SUCCEEDED)));
+        assertEquals(3, deduplicator.size());
+    }
+
+    @Test
+    public void keysExpireAfterTheWindow() {
+        NotificationDeduplicator deduplicator = new NotificationDeduplicator(16, 1000L);
+
+        assertTrue(deduplicator.firstSeen(1L, 1, 0L));
+        assertFalse(deduplicator.firstSeen(1L, 1, 999L));
+        assertTrue(deduplicator.firstSeen(1L, 1, 1000L));
+        assertEquals(1, deduplicator.size());
+    }
+
+    @Test
+    public void oldestKeysAreEvictedWhenFull() {
+        NotificationDeduplicator deduplicator = new NotificationDeduplicator(2, Long.MAX_VALUE);
+
+        assertTrue(deduplicator.firstSeen(1L, 1, 0L));
+        assertTrue(deduplicator.firstSeen(2L, 1, 0L));
+        assertTrue(deduplicator.firstSeen(3L, 1, 0L));
+        assertEquals(2, deduplicator.size());
+        assertTrue(deduplicator.firstSeen(1L, 1, 0L));
+        assertFalse(deduplicator.firstSeen(3L, 1, 0L));
+    }
+
+    @Test
+    public void behavesLikeABoundedFifoSet() {
+        int capacity = 64;
+        NotificationDeduplicator deduplicator = new NotificationDeduplicator(capacity, Long.MAX_VALUE);
+        Map<Long, Boolean> reference = new LinkedHashMap<Long, Boolean>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            long id = random.nextInt(200);
+            boolean expected = !reference.containsKey(id);
+            if (expected) {
+                if (reference.size() == capacity) {
+                    reference.remove(reference.keySet().iterator().next());
+                }
+                reference.put(id, Boolean.TRUE);
+            }
+            assertEquals("iteration " + i, expected, deduplicator.firstSeen(id, 1, 0L));
+        }
+    }
+
+    @Test
+    public void executionBeingDispatchedIsReservedUntilReleased() {
+        NotificationDeduplicator deduplicator = new NotificationDeduplicator(16, 1000L);
+        assertTrue(deduplicator.reserve(1L, 1, 0L));
+        // sent by the other Rundeck node while the first notification is dispatched
+        assertFalse(deduplicator.reserve(1L, 1, 0L));
+
+        // failed : can be dispatched again
+        deduplicator.release(1L, 1, false, 0L);
+        assertEquals(0, deduplicator.size());
+        assertTrue(deduplicator.reserve(1L, 1, 0L));
+
+        deduplicator.release(1L, 1, true, 0L);
+        assertEquals(1, deduplicator.size());
+        assertFalse(deduplicator.reserve(1L, 1, 999L));
+        assertTrue(deduplicator.reserve(1L, 1, 1000L));
+    }
+
+    private RundeckExecution createExecution(Long id, ExecutionStatus status) {
+        RundeckExecution execution = new RundeckExecution();
+        execution.setId(id);
+        execution.setStatus(status);
+        return execution;
+    }
+}
@@ -0,0 +1,89 @@
+package org.jenkinsci.plugins.rundeck;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import hudson.util.StreamTaskListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.rundeck.api.RundeckClient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests for {@link RunDeckLogTailCallable}
+ */
+public class RunDeckLogTailCallableTest {
+
+    private static final String OUTPUT = "<output><id>42</id><offset>64</offset><completed>true</completed>"
+                                         + "<execCompleted>true</execCompleted><execState>succeeded</execState><entries>"
+                                         + "<entry time='10:29:43' level='NORMAL' log='hello' node='node-1'/>"
+                                         + "<entry time='10:29:44' level='ERROR' log='world' node='node-1'/>"
+                                         + "</entries></output>";
+
+    private HttpServer server;
+
+    private RundeckClient rundeck;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/api/10/execution/42/output/state", new HttpHandler() {
+
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = OUTPUT.getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream response = exchange.getResponseBody();
+                response.write(body);
+                response.close();
+            }
+        });
+        server.start();
+        String url = "http://localhost:" + server.getAddress().getPort();
+        rundeck = RundeckClient.builder().url(url).token("secret").version(10).build();
+        RundeckApiCapabilities.record(url, 10);
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void logIsWrittenToTheListener() {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        RunDeckLogTailCallable callable = new RunDeckLogTailCallable(rundeck, 42L, new StreamTaskListener(log));
+
+        assertEquals(Integer.valueOf(2), callable.call());
+        String lines = log.toString();
+        assertTrue(lines, lines.contains("[10:29:43] [NORMAL] hello"));
+        assertTrue(lines, lines.contains("[10:29:44] [ERROR] world"));
+    }
+
+    @Test
+    public void callableCanBeSentToAnAgent() throws IOException {
+        RunDeckLogTailCallable callable = new RunDeckLogTailCallable(rundeck, 42L,
+                                                                     new StreamTaskListener(new ByteArrayOutputStream()));
+        ObjectOutputStream output = new ObjectOutputStream(new ByteArrayOutputStream());
+        output.writeObject(callable);
+        output.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void passwordIsNeverSentToAnAgent() {
+        RundeckClient password = RundeckClient.builder().url(rundeck.getUrl()).login("admin", "admin").version(10).build();
+        assertFalse(RunDeckLogTailCallable.supports(password));
+        new RunDeckLogTailCallable(password, 42L, new StreamTaskListener(new ByteArrayOutputStream()));
+    }
+}
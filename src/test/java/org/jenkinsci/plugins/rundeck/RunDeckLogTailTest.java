@@ -11,6 +11,7 @@ import java.util.List;
 import mockit.Expectations;
 import mockit.Mocked;
 import mockit.NonStrictExpectations;
+import mockit.Verifications;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -75,6 +76,133 @@ public class RunDeckLogTailTest {
 
     }
 
+    @Test
+    public void lastModifiedIsSentBackOnceTheOutputHasBeenRead() {
+
+        new NonStrictExpectations() {
+            {
+                //@formatter:off
+                rundeckClient.getExecutionOutputState(EXECUTION_ID, false, anyInt, anyLong, 2); result = rundeckOutput;
+                rundeckOutput.isUnmodified(); returns(false, true, false);
+                rundeckOutput.getOffset(); returns(50, 60);
+                rundeckOutput.getLastModified(); returns(1000L, 2000L);
+                rundeckOutput.getLogEntries(); returns(createLogEntries(new String[] {"lorem"}), createLogEntries(new String[] {"ipsum"}));
+                rundeckOutput.isExecCompleted(); returns (false, false, true);
+                rundeckOutput.isCompleted(); returns (false, false, true);
+                //@formatter:on
+            }
+        };
+
+        RunDeckLogTail.RunDeckLogTailIterator iterator = runDeckLogTail.iterator();
+
+        assertTrue(iterator.hasNext());
+        assertMessagesPresentInOrder(iterator.next(), "lorem");
+        assertEquals(1000L, iterator.lastmod);
+
+        // unmodified : nothing new, same offset
+        assertTrue(iterator.hasNext());
+        assertMessagesPresentInOrder(iterator.next());
+        assertEquals(50, iterator.offset);
+
+        assertTrue(iterator.hasNext());
+        assertMessagesPresentInOrder(iterator.next(), "ipsum");
+
+        assertFalse(iterator.hasNext());
+
+        new Verifications() {
+            {
+                rundeckClient.getExecutionOutputState(EXECUTION_ID, false, 0, -1L, 2); times = 1;
+                rundeckClient.getExecutionOutputState(EXECUTION_ID, false, 50, 1000L, 2); times = 2;
+            }
+        };
+    }
+
+    @Test
+    public void lastModifiedIsNotSentBackWhileAPageIsFull() {
+
+        new NonStrictExpectations() {
+            {
+                //@formatter:off
+                rundeckClient.getExecutionOutputState(EXECUTION_ID, false, anyInt, anyLong, 2); result = rundeckOutput;
+                rundeckOutput.getOffset(); returns(50, 100);
+                rundeckOutput.getLastModified(); returns(1000L, 1000L);
+                rundeckOutput.getLogEntries(); returns(createLogEntries(new String[] {"lorem", "ipsum"}), createLogEntries(new String[] {"dolar"}));
+                rundeckOutput.isExecCompleted(); returns (false, true);
+                rundeckOutput.isCompleted(); returns (false, true);
+                //@formatter:on
+            }
+        };
+
+        RunDeckLogTail.RunDeckLogTailIterator iterator = runDeckLogTail.iterator();
+
+        assertTrue(iterator.hasNext());
+        assertMessagesPresentInOrder(iterator.next(), "lorem", "ipsum");
+        assertEquals(-1L, iterator.lastmod);
+
+        assertTrue(iterator.hasNext());
+        assertMessagesPresentInOrder(iterator.next(), "dolar");
+        assertFalse(iterator.hasNext());
+
+        new Verifications() {
+            {
+                rundeckClient.getExecutionOutputState(EXECUTION_ID, false, 50, -1L, 2); times = 1;
+            }
+        };
+    }
+
+    @Test
+    public void pipelinedIteratorReturnsResults() {
+
+        new NonStrictExpectations() {
+            {
+                //@formatter:off
+                rundeckClient.getExecutionOutputState(EXECUTION_ID, false, 0, anyLong, 2); result = rundeckOutput;
+                rundeckClient.getExecutionOutputState(EXECUTION_ID, false, 50, anyLong, 2); result = rundeckOutput;
+                rundeckClient.getExecutionOutputState(EXECUTION_ID, false, 100, anyLong, 2); result = rundeckOutput;
+                rundeckOutput.getOffset(); returns(50, 100, 150);
+                rundeckOutput.isExecCompleted(); returns (false, false, true);
+                rundeckOutput.getLogEntries(); returns(createLogEntries(new String[] {"lorem", "ipsum"}), createLogEntries(new String[] {"dolar", "sit"}), createLogEntries(new String[] {"amet"}));;
+                rundeckOutput.isCompleted(); returns (false, false, true);
+                //@formatter:on
+            }
+        };
+
+        RunDeckLogTail.PipelinedIterator iterator = runDeckLogTail.pipelined(1);
+
+        assertTrue(iterator.hasNext());
+        assertMessagesPresentInOrder(iterator.next(), "lorem", "ipsum");
+
+        assertTrue(iterator.hasNext());
+        assertMessagesPresentInOrder(iterator.next(), "dolar", "sit");
+
+        assertTrue(iterator.hasNext());
+        assertMessagesPresentInOrder(iterator.next(), "amet");
+
+        assertFalse(iterator.hasNext());
+
+    }
+
+    @Test
+    public void pipelinedIteratorThrowsTheApiExceptionAfterTheRetries() {
+        new NonStrictExpectations() {
+            {
+                //@formatter:off
+                rundeckClient.getExecutionOutputState(EXECUTION_ID, false, 0, anyLong, 2); result = new RundeckApiException("fail!");
+                //@formatter:on
+            }
+        };
+
+        RunDeckLogTail.PipelinedIterator iterator = runDeckLogTail.pipelined(1);
+
+        try {
+            iterator.hasNext();
+            fail("Expected exception!");
+        } catch (RundeckApiException e) {
+            assertEquals("fail!", e.getMessage());
+        }
+        assertFalse(iterator.hasNext());
+    }
+
     @Test
     public void apiExceptionWillBeCaughtThreeTimesAndThenThrown() throws InterruptedException {
         new Expectations() {
@@ -104,6 +232,42 @@ public class RunDeckLogTailTest {
         }
     }
 
+    @Test
+    public void failedCallSleepsOnceBeforeTheRetry() throws InterruptedException {
+        runDeckLogTail = new RunDeckLogTail(rundeckClient, EXECUTION_ID, 2, 3, 300L, 200L, 100L);
+        new NonStrictExpectations() {
+
+            @Mocked({ "sleep" })
+            final Thread unused = null;
+            {
+                //@formatter:off
+                rundeckClient.getExecutionOutputState(EXECUTION_ID, false, 0, anyLong, 2); result = new RundeckApiException("fail!");
+                Thread.sleep(300L); times = 2;
+                Thread.sleep(200L); times = 0;
+                Thread.sleep(100L); times = 0;
+                //@formatter:on
+            }
+        };
+
+        RunDeckLogTail.RunDeckLogTailIterator iterator = runDeckLogTail.iterator();
+
+        assertTrue(iterator.hasNext());
+        assertTrue(iterator.hasNext());
+    }
+
+    @Test
+    public void interruptOfThePipelinedIteratorIsRestored() {
+        RunDeckLogTail.PipelinedIterator iterator = runDeckLogTail.pipelined(1);
+
+        Thread.currentThread().interrupt();
+        try {
+            assertFalse(iterator.hasNext());
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
     @Test
     public void iteratorIsInterrupted() throws InterruptedException {
         new NonStrictExpectations() {
@@ -192,6 +356,31 @@ public class RunDeckLogTailTest {
 
     }
 
+    @Test
+    public void plainOutputIsUsedWhenOutputStateIsNotSupported() {
+        RundeckApiCapabilities.record("http://old-rundeck:4440", 9);
+        new NonStrictExpectations() {
+            {
+                //@formatter:off
+                rundeckClient.getUrl(); result = "http://old-rundeck:4440";
+                rundeckClient.getJobExecutionOutput(EXECUTION_ID, 0, anyLong, 2); result = rundeckOutput;
+                rundeckOutput.getOffset(); returns(50);
+                rundeckOutput.getLogEntries(); returns(createLogEntries(new String[] {"lorem", "ipsum"}));
+                rundeckOutput.isCompleted(); returns (true);
+                rundeckOutput.isExecCompleted(); returns (true);
+                rundeckClient.getExecutionOutputState(anyLong, anyBoolean, anyInt, anyLong, anyInt); times = 0;
+                //@formatter:on
+            }
+        };
+
+        RunDeckLogTail.RunDeckLogTailIterator iterator = new RunDeckLogTail(rundeckClient, EXECUTION_ID, 2, 3, 100L, 100L, 100L).iterator();
+
+        assertTrue(iterator.hasNext());
+        assertMessagesPresentInOrder(iterator.next(), "lorem", "ipsum");
+
+        assertFalse(iterator.hasNext());
+    }
+
     public void assertMessagesPresentInOrder(List<RundeckOutputEntry> rundeckOutputEntries, String... messages) {
         assertEquals(rundeckOutputEntries.size(), messages.length);
         int i = 0;
@@ -0,0 +1,252 @@
+package org.jenkinsci.plugins.rundeck;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.rundeck.api.RundeckApiException;
+import org.rundeck.api.RundeckClient;
+import org.rundeck.api.domain.RundeckExecutionState;
+import org.rundeck.api.domain.RundeckNodeIdentity;
+import org.rundeck.api.domain.RundeckOutput;
+import org.rundeck.api.domain.RundeckOutputEntry;
+
+/**
+ * Tests for {@link RunDeckParallelLogTail}
+ */
+public class RunDeckParallelLogTailTest {
+
+    private static final String URL = "http://localhost:4450";
+
+    @Test
+    public void nodesAreTailedInParallelAndMergedByTime() throws Exception {
+        RundeckApiCapabilities.record(URL, 10);
+        final ConcurrentMap<String, AtomicInteger> polls = new ConcurrentHashMap<String, AtomicInteger>();
+        RundeckClient rundeck = new RundeckClient(URL, "admin", "admin") {
+
+            @Override
+            public RundeckExecutionState getExecutionState(Long executionId) {
+                return createState("node-b", "node-a");
+            }
+
+            @Override
+            public RundeckOutput getExecutionOutputForNode(Long executionId, String nodeName, int offset,
+                    long lastmod, int maxlines) {
+                polls.putIfAbsent(nodeName, new AtomicInteger());
+                int poll = polls.get(nodeName).incrementAndGet();
+                if (nodeName.equals("node-a")) {
+                    if (poll == 1) {
+                        return createOutput(10, false, createEntry("10:00:01", "a1"), createEntry("10:00:03", "a2"));
+                    }
+                    assertEquals(10, offset);
+                    return createOutput(20, true, createEntry("10:00:05", "a3"));
+                }
+                return createOutput(10, true, createEntry("10:00:02", "b1"));
+            }
+        };
+        RunDeckParallelLogTail tail = new RunDeckParallelLogTail(rundeck, 42L, 2, 1, 10, 10, 10);
+
+        List<String> nodes = tail.getNodes();
+        assertEquals(Arrays.asList("node-a", "node-b"), nodes);
+
+        final List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+        tail.tail(nodes, new RunDeckParallelLogTail.Sink() {
+
+            public void write(String node, RundeckOutputEntry entry) {
+                lines.add(node + " " + entry.getMessage());
+            }
+        });
+
+        assertEquals(Arrays.asList("node-a a1", "node-b b1", "node-a a2", "node-a a3"), lines);
+        assertEquals(2, polls.get("node-a").get());
+        assertEquals(1, polls.get("node-b").get());
+    }
+
+    @Test
+    public void nodesAreMergedByAbsoluteTimeAcrossMidnight() throws Exception {
+        RundeckApiCapabilities.record(URL, 10);
+        final long midnight = 1389225600000L;
+        RundeckClient rundeck = new RundeckClient(URL, "admin", "admin") {
+
+            @Override
+            public RundeckOutput getExecutionOutputForNode(Long executionId, String nodeName, int offset,
+                    long lastmod, int maxlines) {
+                if (nodeName.equals("node-a")) {
+                    return createOutput(10, true, createEntry("23:59:59", midnight - 100, "a1"),
+                                        createEntry("00:00:00", midnight + 700, "a2"));
+                }
+                return createOutput(10, true, createEntry("00:00:00", midnight + 300, "b1"));
+            }
+        };
+        RunDeckParallelLogTail tail = new RunDeckParallelLogTail(rundeck, 42L, 2, 1, 10, 10, 10);
+
+        final List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+        tail.tail(Arrays.asList("node-a", "node-b"), new RunDeckParallelLogTail.Sink() {
+
+            public void write(String node, RundeckOutputEntry entry) {
+                lines.add(node + " " + entry.getMessage());
+            }
+        });
+
+        assertEquals(Arrays.asList("node-a a1", "node-b b1", "node-a a2"), lines);
+    }
+
+    @Test
+    public void timesOfTheDayAreParsed() {
+        assertEquals(37230000L, RunDeckParallelLogTail.parseTimeOfDay("10:20:30"));
+        assertEquals(-1, RunDeckParallelLogTail.parseTimeOfDay(null));
+        assertEquals(-1, RunDeckParallelLogTail.parseTimeOfDay("10:20"));
+    }
+
+    @Test
+    public void failureOfANodeStopsTheTail() throws Exception {
+        RundeckApiCapabilities.record(URL, 10);
+        RundeckClient rundeck = new RundeckClient(URL, "admin", "admin") {
+
+            @Override
+            public RundeckOutput getExecutionOutputForNode(Long executionId, String nodeName, int offset,
+                    long lastmod, int maxlines) {
+                throw new RundeckApiException("fail!");
+            }
+        };
+        RunDeckParallelLogTail tail = new RunDeckParallelLogTail(rundeck, 42L, 2, 1, 10, 10, 10);
+        try {
+            tail.tail(Arrays.asList("node-a"), new RunDeckParallelLogTail.ConsoleSink(System.out));
+            fail("Expected exception!");
+        } catch (RundeckApiException e) {
+            assertEquals("fail!", e.getMessage());
+        }
+    }
+
+    @Test
+    public void failedPollOfANodeIsRetried() throws Exception {
+        RundeckApiCapabilities.record(URL, 10);
+        final AtomicInteger polls = new AtomicInteger();
+        RundeckClient rundeck = new RundeckClient(URL, "admin", "admin") {
+
+            @Override
+            public RundeckOutput getExecutionOutputForNode(Long executionId, String nodeName, int offset,
+                    long lastmod, int maxlines) {
+                if (polls.incrementAndGet() < 3) {
+                    throw new RundeckApiException("fail!");
+                }
+                return createOutput(10, true, createEntry("10:00:01", "a1"));
+            }
+        };
+        RunDeckParallelLogTail tail = new RunDeckParallelLogTail(rundeck, 42L, 2, 2, 10, 10, 10);
+
+        final List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+        tail.tail(Arrays.asList("node-a"), new RunDeckParallelLogTail.Sink() {
+
+            public void write(String node, RundeckOutputEntry entry) {
+                lines.add(node + " " + entry.getMessage());
+            }
+        });
+
+        assertEquals(Arrays.asList("node-a a1"), lines);
+        assertEquals(3, polls.get());
+    }
+
+    @Test
+    public void nodesAreNotKnownWithoutExecutionState() throws Exception {
+        RundeckApiCapabilities.record(URL, 10);
+        RundeckClient rundeck = new RundeckClient(URL, "admin", "admin") {
+
+            @Override
+            public RundeckExecutionState getExecutionState(Long executionId) {
+                return createState();
+            }
+        };
+        assertTrue(new RunDeckParallelLogTail(rundeck, 42L, 2, 2, 10, 10, 10).getNodes().isEmpty());
+    }
+
+    @Test
+    public void failedReadOfTheNodesIsRetried() throws Exception {
+        RundeckApiCapabilities.record(URL, 10);
+        final AtomicInteger reads = new AtomicInteger();
+        RundeckClient rundeck = new RundeckClient(URL, "admin", "admin") {
+
+            @Override
+            public RundeckExecutionState getExecutionState(Long executionId) {
+                if (reads.incrementAndGet() < 3) {
+                    throw new RundeckApiException("fail!");
+                }
+                return createState("node-a");
+            }
+        };
+        assertEquals(Arrays.asList("node-a"), new RunDeckParallelLogTail(rundeck, 42L, 2, 2, 10, 10, 10).getNodes());
+        assertEquals(3, reads.get());
+    }
+
+    @Test
+    public void eachNodeIsWrittenToItsOwnFile() throws IOException {
+        File directory = new File(System.getProperty("java.io.tmpdir"), "rundeck-" + System.nanoTime());
+        RunDeckParallelLogTail.FileSink files = new RunDeckParallelLogTail.FileSink(directory);
+        try {
+            files.write("node-a", createEntry("10:00:01", "a1"));
+            files.write("web/1", createEntry("10:00:02", "w1"));
+            files.write("node-a", createEntry("10:00:03", "a2"));
+            files.close();
+
+            assertEquals("[10:00:01] [null] a1\n[10:00:03] [null] a2\n",
+                         FileUtils.readFileToString(new File(directory, "node-a.log"), "UTF-8").replace("\r", ""));
+            assertEquals("[10:00:02] [null] w1\n",
+                         FileUtils.readFileToString(new File(directory, "web_1.log"), "UTF-8").replace("\r", ""));
+        } finally {
+            files.close();
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    private static RundeckExecutionState createState(String... nodes) {
+        Set<RundeckNodeIdentity> targetNodes = new LinkedHashSet<RundeckNodeIdentity>();
+        for (final String node : nodes) {
+            targetNodes.add(new RundeckNodeIdentity() {
+
+                public String getName() {
+                    return node;
+                }
+            });
+        }
+        RundeckExecutionState state = new RundeckExecutionState();
+        state.setTargetNodes(targetNodes);
+        return state;
+    }
+
+    private static RundeckOutput createOutput(int offset, boolean completed, RundeckOutputEntry... entries) {
+        RundeckOutput output = new RundeckOutput();
+        output.setOffset(offset);
+        output.setCompleted(completed);
+        output.setExecCompleted(completed);
+        output.setLogEntries(new ArrayList<RundeckOutputEntry>(Arrays.asList(entries)));
+        return output;
+    }
+
+    private static RundeckOutputEntry createEntry(String time, long absoluteTime, String message) {
+        RundeckOutputEntry entry = new RundeckOutputFetcher.TimedOutputEntry(absoluteTime);
+        entry.setTime(time);
+        entry.setMessage(message);
+        return entry;
+    }
+
+    private static RundeckOutputEntry createEntry(String time, String message) {
+        RundeckOutputEntry entry = new RundeckOutputEntry();
+        entry.setTime(time);
+        entry.setMessage(message);
+        return entry;
+    }
+}
@@ -0,0 +1,34 @@
+package org.jenkinsci.plugins.rundeck;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.jenkinsci.plugins.rundeck.RundeckApiCapabilities.Capability;
+import org.junit.Test;
+import org.rundeck.api.RundeckApiException;
+
+/**
+ * Tests for {@link RundeckApiCapabilities}
+ */
+public class RundeckApiCapabilitiesTest {
+
+    @Test
+    public void capabilitiesDependOnTheApiVersion() {
+        assertTrue(new RundeckApiCapabilities(12).supports(Capability.EXECUTION_OUTPUT_STATE));
+        assertTrue(new RundeckApiCapabilities(10).supports(Capability.EXECUTION_OUTPUT_STATE));
+        assertFalse(new RundeckApiCapabilities(9).supports(Capability.EXECUTION_OUTPUT_STATE));
+    }
+
+    @Test
+    public void unsupportedCapabilityIsDisabled() {
+        RundeckApiCapabilities capabilities = new RundeckApiCapabilities(12);
+
+        // other errors are not related to the capability
+        assertFalse(capabilities.fallback(Capability.EXECUTION_OUTPUT_STATE, new RundeckApiException("Connection refused")));
+        assertTrue(capabilities.supports(Capability.EXECUTION_OUTPUT_STATE));
+
+        assertTrue(capabilities.fallback(Capability.EXECUTION_OUTPUT_STATE,
+                                         new RundeckApiException("Unsupported API Version \"12\". API Request: /api/12/execution/1/output/state")));
+        assertFalse(capabilities.supports(Capability.EXECUTION_OUTPUT_STATE));
+    }
+}
@@ -0,0 +1,137 @@
+package org.jenkinsci.plugins.rundeck;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.rundeck.api.RundeckApiException;
+import org.rundeck.api.RundeckClient;
+import org.rundeck.api.domain.RundeckExecution;
+import org.rundeck.api.domain.RundeckExecution.ExecutionStatus;
+
+/**
+ * Tests for {@link RundeckAsyncClient}
+ */
+public class RundeckAsyncClientTest {
+
+    @Test
+    public void executionIsPolledUntilFinished() throws Exception {
+        final AtomicInteger polls = new AtomicInteger();
+        RundeckClient rundeck = new RundeckClient("http://localhost:4440", "admin", "admin") {
+
+            @Override
+            public RundeckExecution getExecution(Long executionId) {
+                return createExecution(executionId, polls.incrementAndGet() < 3 ? ExecutionStatus.RUNNING
+                        : ExecutionStatus.SUCCEEDED);
+            }
+        };
+
+        Future<RundeckExecution> completion = new RundeckAsyncClient(rundeck).waitForCompletion(42L, 10);
+
+        RundeckExecution execution = completion.get(10, TimeUnit.SECONDS);
+        assertEquals(ExecutionStatus.SUCCEEDED, execution.getStatus());
+        assertEquals(Long.valueOf(42), execution.getId());
+        assertEquals(3, polls.get());
+    }
+
+    @Test
+    public void cancelledWaitStopsPolling() throws Exception {
+        final AtomicInteger polls = new AtomicInteger();
+        RundeckClient rundeck = new RundeckClient("http://localhost:4440", "admin", "admin") {
+
+            @Override
+            public RundeckExecution getExecution(Long executionId) {
+                polls.incrementAndGet();
+                return createExecution(executionId, ExecutionStatus.RUNNING);
+            }
+        };
+
+        Future<RundeckExecution> completion = new RundeckAsyncClient(rundeck).waitForCompletion(42L, 10);
+        while (polls.get() == 0) {
+            Thread.sleep(10);
+        }
+        assertTrue(completion.cancel(false));
+        Thread.sleep(100);
+        int count = polls.get();
+        Thread.sleep(100);
+        assertEquals(count, polls.get());
+    }
+
+    @Test
+    public void errorsAreReported() throws Exception {
+        RundeckClient rundeck = new RundeckClient("http://localhost:4440", "admin", "admin") {
+
+            @Override
+            public RundeckExecution getExecution(Long executionId) {
+                throw new RundeckApiException("down");
+            }
+        };
+
+        try {
+            new RundeckAsyncClient(rundeck).getExecution(42L).get(10, TimeUnit.SECONDS);
+            fail("the error should be reported");
+        } catch (ExecutionException e) {
+            assertEquals("down", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void scheduledTaskDoesNotRunOnTheTimerWhenThePoolIsFull() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            // every thread is busy, and the queue is full
+            for (int i = 0; i < RundeckAsyncClient.THREADS; i++) {
+                RundeckAsyncClient.submit(new Callable<Void>() {
+
+                    public Void call() throws InterruptedException {
+                        release.await();
+                        return null;
+                    }
+                });
+            }
+            Thread.sleep(100);
+            for (int i = 0; i < RundeckAsyncClient.QUEUE_CAPACITY; i++) {
+                RundeckAsyncClient.submit(new Callable<Void>() {
+
+                    public Void call() {
+                        return null;
+                    }
+                });
+            }
+
+            final CountDownLatch done = new CountDownLatch(1);
+            final AtomicReference<String> thread = new AtomicReference<String>();
+            RundeckAsyncClient.schedule(new Runnable() {
+
+                public void run() {
+                    thread.set(Thread.currentThread().getName());
+                    done.countDown();
+                }
+            }, 0);
+            assertFalse(done.await(200, TimeUnit.MILLISECONDS));
+
+            release.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals("Rundeck API call", thread.get());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private static RundeckExecution createExecution(Long id, ExecutionStatus status) {
+        RundeckExecution execution = new RundeckExecution();
+        execution.setId(id);
+        execution.setStatus(status);
+        return execution;
+    }
+}
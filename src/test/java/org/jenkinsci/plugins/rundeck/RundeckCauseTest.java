@@ -1,6 +1,12 @@
 package org.jenkinsci.plugins.rundeck;
 
 import hudson.EnvVars;
+import hudson.model.Cause;
+import hudson.model.CauseAction;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Run;
+import hudson.util.StreamTaskListener;
 import org.junit.Assert;
 import org.jvnet.hudson.test.HudsonTestCase;
 import org.rundeck.api.domain.RundeckExecution;
@@ -34,4 +40,68 @@ public class RundeckCauseTest extends HudsonTestCase {
         Assert.assertEquals("value-value-", envVars.expand("$RDECK_EXEC_ARG_optionWithTrailingHyphen"));
 
     }
+
+    public void testBuildEnvVarsQuotedArgstring() {
+        RundeckExecution execution = createExecution(1L);
+        execution.setArgstring("-env \"prod eu\" -message \"say \\\"hello\\\" -now\" -name 'single quoted'"
+                               + " -empty \"\" -flag -unquoted two words");
+
+        EnvVars envVars = new EnvVars();
+        new RundeckCause.RundeckExecutionEnvironmentContributingAction(execution).buildEnvVars(null, envVars);
+
+        assertEquals("prod eu", envVars.get("RDECK_EXEC_ARG_env"));
+        assertEquals("say \"hello\" -now", envVars.get("RDECK_EXEC_ARG_message"));
+        assertEquals("single quoted", envVars.get("RDECK_EXEC_ARG_name"));
+        assertEquals("", envVars.get("RDECK_EXEC_ARG_empty"));
+        assertNull(envVars.get("RDECK_EXEC_ARG_flag"));
+        assertEquals("two words", envVars.get("RDECK_EXEC_ARG_unquoted"));
+    }
+
+    public void testBuildEnvVarsArgstringKeepsSpacing() {
+        RundeckExecution execution = createExecution(1L);
+        execution.setArgstring("-message hello   big\tworld  -env  prod");
+
+        EnvVars envVars = new EnvVars();
+        new RundeckCause.RundeckExecutionEnvironmentContributingAction(execution).buildEnvVars(null, envVars);
+
+        assertEquals("hello   big\tworld", envVars.get("RDECK_EXEC_ARG_message"));
+        assertEquals("prod", envVars.get("RDECK_EXEC_ARG_env"));
+    }
+
+    public void testBuildEnvVarsAggregatedExecutions() throws Exception {
+        FreeStyleProject project = createFreeStyleProject();
+        CauseAction causes = new CauseAction(new RundeckCause(createExecution(1L)),
+                                             new RundeckCause(createExecution(2L)));
+        FreeStyleBuild build = project.scheduleBuild2(0, (Cause) null, causes).get();
+
+        assertEquals(1, build.getActions(RundeckCause.RundeckExecutionEnvironmentContributingAction.class).size());
+        EnvVars envVars = build.getEnvironment(new StreamTaskListener(System.out));
+        assertEquals("2", envVars.get("RDECK_EXEC_COUNT"));
+        assertEquals("1,2", envVars.get("RDECK_EXEC_IDS"));
+    }
+
+    public void testMigrateCausePersistedWithFullExecution() {
+        String xml = "<org.jenkinsci.plugins.rundeck.RundeckCause><execution>"
+                     + "<id>42</id><url>http://localhost:4440/execution/follow/42</url><status>SUCCEEDED</status>"
+                     + "<job><id>2027ce89</id><name>deploy</name><group>main-group</group><project>my-project</project></job>"
+                     + "</execution></org.jenkinsci.plugins.rundeck.RundeckCause>";
+
+        RundeckCause cause = (RundeckCause) Run.XSTREAM.fromXML(xml);
+        assertEquals(Long.valueOf(42), cause.getExecution().getId());
+        assertEquals("SUCCEEDED", cause.getExecution().getStatus());
+        assertEquals("Started by <a href=\"http://localhost:4440/execution/follow/42\">Rundeck Execution #42</a>"
+                     + " [my-project] main-group/deploy", cause.getShortDescription());
+
+        String migrated = Run.XSTREAM.toXML(cause);
+        assertFalse(migrated.contains("<execution>"));
+        assertEquals(cause.getExecution(), ((RundeckCause) Run.XSTREAM.fromXML(migrated)).getExecution());
+    }
+
+    private RundeckExecution createExecution(Long id) {
+        RundeckExecution execution = new RundeckExecution();
+        execution.setId(id);
+        execution.setUrl("http://localhost:4440/execution/follow/" + id);
+        execution.setStatus(RundeckExecution.ExecutionStatus.SUCCEEDED);
+        return execution;
+    }
 }
@@ -0,0 +1,154 @@
+package org.jenkinsci.plugins.rundeck;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.rundeck.api.RundeckApiException;
+import org.rundeck.api.RundeckClient;
+
+/**
+ * Tests for {@link RundeckCluster}
+ */
+public class RundeckClusterTest {
+
+    private final RundeckClient rundeck = RundeckClient.builder().url("http://rundeck-1:4440").login("admin", "admin").build();
+
+    private final RundeckCluster cluster = new RundeckCluster(rundeck, Arrays.asList("http://rundeck-2:4440",
+                                                                                     "http://rundeck-3:4440"));
+
+    @Test
+    public void unreachableNodesAreSkipped() {
+        final List<String> calls = new ArrayList<String>();
+        String url = cluster.execute(rundeck, new RundeckCluster.Call<String>() {
+
+            public String call(RundeckClient node) {
+                calls.add(node.getUrl());
+                if (node.getUrl().equals("http://rundeck-1:4440")) {
+                    throw new RundeckApiException("Failed", new ConnectException("Connection refused"));
+                }
+                assertEquals("admin", node.getLogin());
+                return node.getUrl();
+            }
+        }, false);
+
+        assertEquals("http://rundeck-2:4440", url);
+        assertEquals(Arrays.asList("http://rundeck-1:4440", "http://rundeck-2:4440"), calls);
+        // the failed node is no longer the first choice
+        assertFalse("http://rundeck-1:4440".equals(cluster.getHealthiestUrl()));
+    }
+
+    @Test
+    public void triggersAreNotSentAgainAfterATimeout() {
+        final List<String> calls = new ArrayList<String>();
+        try {
+            cluster.execute(rundeck, new RundeckCluster.Call<String>() {
+
+                public String call(RundeckClient node) {
+                    calls.add(node.getUrl());
+                    throw new RundeckApiException("Failed", new SocketTimeoutException("Read timed out"));
+                }
+            }, false);
+            fail("the timeout should be propagated");
+        } catch (RundeckApiException e) {
+            assertEquals(1, calls.size());
+        }
+        // the timeout is counted as an error of the node
+        assertFalse(calls.get(0).equals(cluster.getHealthiestUrl()));
+    }
+
+    @Test
+    public void errorsOfRundeckDoNotChangeTheHealthOfTheNode() {
+        try {
+            cluster.execute(rundeck, new RundeckCluster.Call<String>() {
+
+                public String call(RundeckClient node) {
+                    throw new RundeckApiException("Job not found");
+                }
+            }, true);
+            fail("the error should be propagated");
+        } catch (RundeckApiException e) {
+            assertEquals("http://rundeck-1:4440", cluster.getHealthiestUrl());
+        }
+    }
+
+    @Test
+    public void clustersAreReplacedAsAWhole() {
+        RundeckCluster other = new RundeckCluster(RundeckClient.builder().url("http://other-1:4440").login("admin", "admin").build(),
+                                                  Arrays.asList("http://other-2:4440"));
+        RundeckCluster.register(Arrays.asList(cluster, other));
+        assertSame(cluster, RundeckCluster.forUrl("http://rundeck-3:4440"));
+        assertSame(other, RundeckCluster.forUrl("http://other-2:4440"));
+
+        RundeckCluster.register(Arrays.asList(other));
+        assertNull(RundeckCluster.forUrl("http://rundeck-3:4440"));
+        assertSame(other, RundeckCluster.forUrl("http://other-2:4440"));
+
+        RundeckCluster.register(new ArrayList<RundeckCluster>());
+        assertNull(RundeckCluster.forUrl("http://other-2:4440"));
+    }
+
+    @Test
+    public void healthOfTheNodesIsKeptWhenRegisteringAgain() {
+        RundeckCluster.register(Arrays.asList(cluster));
+        try {
+            cluster.execute(rundeck, new RundeckCluster.Call<Void>() {
+
+                public Void call(RundeckClient node) {
+                    if (node.getUrl().equals("http://rundeck-1:4440")) {
+                        throw new RundeckApiException("Failed", new ConnectException("Connection refused"));
+                    }
+                    return null;
+                }
+            }, true);
+            String healthiest = cluster.getHealthiestUrl();
+            assertFalse("http://rundeck-1:4440".equals(healthiest));
+
+            // same nodes, after a save of the configuration
+            RundeckCluster saved = new RundeckCluster(rundeck, Arrays.asList("http://rundeck-2:4440",
+                                                                             "http://rundeck-3:4440"));
+            RundeckCluster.register(Arrays.asList(saved));
+            assertEquals(healthiest, saved.getHealthiestUrl());
+        } finally {
+            RundeckCluster.register(new ArrayList<RundeckCluster>());
+        }
+    }
+
+    @Test
+    public void slowNodesAreAvoided() {
+        for (int i = 0; i < 5; i++) {
+            cluster.execute(rundeck, new RundeckCluster.Call<Void>() {
+
+                public Void call(RundeckClient node) {
+                    if (node.getUrl().equals("http://rundeck-1:4440")) {
+                        try {
+                            Thread.sleep(50);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    return null;
+                }
+            }, true);
+        }
+        assertFalse("http://rundeck-1:4440".equals(cluster.getHealthiestUrl()));
+    }
+
+    @Test
+    public void unreachableErrors() {
+        assertTrue(RundeckCluster.isUnreachable(new RundeckApiException("Failed", new ConnectException()), false));
+        assertFalse(RundeckCluster.isUnreachable(new RundeckApiException("Failed", new SocketTimeoutException()), false));
+        assertTrue(RundeckCluster.isUnreachable(new RundeckApiException("Failed", new SocketTimeoutException()), true));
+        assertFalse(RundeckCluster.isUnreachable(new RundeckApiException("Job not found"), true));
+    }
+}
@@ -0,0 +1,51 @@
+package org.jenkinsci.plugins.rundeck;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jenkinsci.plugins.rundeck.RundeckFanOutNotifier.SuccessRule;
+import org.junit.Test;
+
+/**
+ * Tests for {@link RundeckFanOutNotifier}
+ */
+public class RundeckFanOutNotifierTest {
+
+    @Test
+    public void successRules() {
+        assertTrue(SuccessRule.ALL.isSatisfied(3, 3, 2));
+        assertFalse(SuccessRule.ALL.isSatisfied(2, 3, 2));
+
+        assertTrue(SuccessRule.ANY.isSatisfied(1, 3, 2));
+        assertFalse(SuccessRule.ANY.isSatisfied(0, 3, 2));
+
+        assertTrue(SuccessRule.QUORUM.isSatisfied(2, 3, 2));
+        assertFalse(SuccessRule.QUORUM.isSatisfied(1, 3, 2));
+    }
+
+    @Test
+    public void quorumDefaultsToAMajority() {
+        assertEquals(2, new RundeckFanOutNotifier(createTargets(3), SuccessRule.QUORUM, null, true).getEffectiveQuorum());
+        assertEquals(3, new RundeckFanOutNotifier(createTargets(4), SuccessRule.QUORUM, null, true).getEffectiveQuorum());
+        assertEquals(1, new RundeckFanOutNotifier(createTargets(4), SuccessRule.QUORUM, 1, true).getEffectiveQuorum());
+        // can't require more successes than targets
+        assertEquals(4, new RundeckFanOutNotifier(createTargets(4), SuccessRule.QUORUM, 10, true).getEffectiveQuorum());
+    }
+
+    @Test
+    public void defaultRuleIsAll() {
+        assertEquals(SuccessRule.ALL, new RundeckFanOutNotifier(createTargets(1), null, null, true).getSuccessRule());
+    }
+
+    private List<RundeckTarget> createTargets(int count) {
+        List<RundeckTarget> targets = new ArrayList<RundeckTarget>();
+        for (int i = 0; i < count; i++) {
+            targets.add(new RundeckTarget("Default", "project:job-" + i, null, null, null, null));
+        }
+        return targets;
+    }
+}
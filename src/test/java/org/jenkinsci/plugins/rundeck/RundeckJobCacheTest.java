@@ -0,0 +1,153 @@
+package org.jenkinsci.plugins.rundeck;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.rundeck.api.RundeckApiException;
+import org.rundeck.api.RundeckClient;
+import org.rundeck.api.domain.RundeckJob;
+
+/**
+ * Tests for {@link RundeckJobCache}
+ */
+public class RundeckJobCacheTest {
+
+    private final RundeckClient rundeck = RundeckClient.builder().url("http://localhost:4440").login("admin", "admin").build();
+
+    private final RundeckJobCatalog catalog = new RundeckJobCatalog(null);
+
+    @Test
+    public void jobsOfTheCatalogueAreNotLoaded() {
+        final AtomicInteger loads = new AtomicInteger();
+        RundeckJob job = createJob("1");
+        catalog.put(job);
+        RundeckJobCache cache = new CatalogCache() {
+
+            @Override
+            protected RundeckJob load(RundeckClient rundeck, String jobIdentifier) {
+                loads.incrementAndGet();
+                return null;
+            }
+        };
+
+        assertSame(job, cache.get(rundeck, "1"));
+        assertSame(job, cache.get(rundeck, "my-project:deploy"));
+        assertEquals(0, loads.get());
+    }
+
+    @Test
+    public void jobsAreLoadedInTheBackground() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+        final RundeckJob job = createJob("1");
+        RundeckJobCache cache = new CatalogCache() {
+
+            @Override
+            protected RundeckJob load(RundeckClient rundeck, String jobIdentifier) {
+                loads.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return job;
+            }
+        };
+
+        // never blocks, and only one lookup is in progress
+        assertNull(cache.get(rundeck, "1"));
+        assertNull(cache.get(rundeck, "1"));
+        release.countDown();
+
+        assertSame(job, awaitJob(cache, "1"));
+        assertEquals(1, loads.get());
+        // added to the catalogue
+        assertSame(job, catalog.find("my-project:deploy"));
+    }
+
+    @Test
+    public void failedLookupsAreNotRetriedRightAway() throws InterruptedException {
+        final AtomicInteger loads = new AtomicInteger();
+        RundeckJobCache cache = new CatalogCache() {
+
+            @Override
+            protected RundeckJob load(RundeckClient rundeck, String jobIdentifier) {
+                loads.incrementAndGet();
+                throw new RundeckApiException("Rundeck is down");
+            }
+        };
+
+        assertNull(cache.get(rundeck, "1"));
+        for (int i = 0; i < 100 && loads.get() == 0; i++) {
+            Thread.sleep(50);
+        }
+        Thread.sleep(100);
+        assertNull(cache.get(rundeck, "1"));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void jobsOfTheSameProjectAreLoadedTogether() throws InterruptedException {
+        final AtomicInteger projectLoads = new AtomicInteger();
+        final AtomicInteger jobLoads = new AtomicInteger();
+        final List<RundeckJob> jobs = Arrays.asList(createJob("1"), createJob("2"));
+        jobs.get(1).setName("rollback");
+        RundeckJobCache cache = new CatalogCache() {
+
+            @Override
+            protected RundeckJob load(RundeckClient rundeck, String jobIdentifier) {
+                jobLoads.incrementAndGet();
+                return null;
+            }
+
+            @Override
+            protected List<RundeckJob> loadProject(RundeckClient rundeck, String project) {
+                projectLoads.incrementAndGet();
+                return jobs;
+            }
+        };
+
+        assertSame(jobs.get(0), awaitJob(cache, "my-project:deploy"));
+        assertSame(jobs.get(1), cache.get(rundeck, "my-project:rollback"));
+        assertSame(jobs.get(1), cache.get(rundeck, "2"));
+        assertEquals(1, projectLoads.get());
+        assertEquals(0, jobLoads.get());
+    }
+
+    private RundeckJob awaitJob(RundeckJobCache cache, String jobIdentifier) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            RundeckJob job = cache.get(rundeck, jobIdentifier);
+            if (job != null) {
+                return job;
+            }
+            Thread.sleep(50);
+        }
+        return null;
+    }
+
+    private RundeckJob createJob(String id) {
+        RundeckJob job = new RundeckJob();
+        job.setId(id);
+        job.setName("deploy");
+        job.setProject("my-project");
+        return job;
+    }
+
+    /**
+     * Cache over the catalogue of the test, instead of the shared one
+     */
+    private class CatalogCache extends RundeckJobCache {
+
+        @Override
+        protected RundeckJobCatalog getCatalog(RundeckClient rundeck) {
+            return catalog;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.jenkinsci.plugins.rundeck;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.rundeck.api.RundeckClient;
+import org.rundeck.api.domain.RundeckJob;
+import org.rundeck.api.domain.RundeckProject;
+
+/**
+ * Tests for {@link RundeckJobCatalog}
+ */
+public class RundeckJobCatalogTest {
+
+    @Test
+    public void jobsAreFoundByIdAndReference() {
+        RundeckJobCatalog catalog = new RundeckJobCatalog(null);
+        RundeckJob deploy = createJob("1", "Deploy", "Web/Prod");
+        RundeckJob backup = createJob("2", "backup", null);
+        assertTrue(catalog.update(Arrays.asList(deploy, backup)));
+
+        assertSame(deploy, catalog.find("1"));
+        assertSame(deploy, catalog.find("my-project:web/prod/deploy"));
+        assertSame(deploy, catalog.find("My-Project:Web/Prod/Deploy"));
+        assertSame(backup, catalog.find("my-project:backup"));
+        assertNull(catalog.find("3"));
+        assertNull(catalog.find("my-project:deploy"));
+        assertNull(catalog.find(""));
+    }
+
+    @Test
+    public void unchangedJobsAreKept() {
+        RundeckJobCatalog catalog = new RundeckJobCatalog(null);
+        RundeckJob deploy = createJob("1", "deploy", "web");
+        RundeckJob backup = createJob("2", "backup", null);
+        assertTrue(catalog.update(Arrays.asList(deploy, backup)));
+
+        // same content : nothing changes, and the existing instances are kept
+        assertFalse(catalog.update(Arrays.asList(createJob("1", "deploy", "web"), createJob("2", "backup", null))));
+        assertSame(deploy, catalog.find("1"));
+
+        // renamed job : the new instance replaces the old one, under its new reference
+        RundeckJob renamed = createJob("2", "backup-db", null);
+        assertTrue(catalog.update(Arrays.asList(createJob("1", "deploy", "web"), renamed)));
+        assertSame(deploy, catalog.find("1"));
+        assertSame(renamed, catalog.find("2"));
+        assertSame(renamed, catalog.find("my-project:backup-db"));
+        assertNull(catalog.find("my-project:backup"));
+
+        // removed job
+        assertTrue(catalog.update(Collections.singletonList(deploy)));
+        assertEquals(1, catalog.size());
+        assertNull(catalog.find("2"));
+    }
+
+    @Test
+    public void jobsLoadedOnAMissAreAdded() {
+        RundeckJobCatalog catalog = new RundeckJobCatalog(null);
+        RundeckJob deploy = createJob("1", "deploy", null);
+        catalog.put(deploy);
+        catalog.put(createJob(null, "no-id", null));
+
+        assertEquals(1, catalog.size());
+        assertSame(deploy, catalog.find("my-project:deploy"));
+    }
+
+    @Test
+    public void jobsUnknownByRundeckAreRemoved() {
+        RundeckJobCatalog catalog = new RundeckJobCatalog(null);
+        catalog.put(createJob("1", "deploy", null));
+        catalog.put(createJob("2", "backup", null));
+
+        // recreated with a new UUID
+        assertTrue(catalog.remove("1"));
+        assertNull(catalog.find("my-project:deploy"));
+        catalog.put(createJob("3", "deploy", null));
+        assertEquals("3", catalog.find("my-project:deploy").getId());
+
+        // deleted
+        assertTrue(catalog.remove("my-project:backup"));
+        assertNull(catalog.find("2"));
+        assertFalse(catalog.remove("2"));
+        assertEquals(1, catalog.size());
+    }
+
+    @Test
+    public void projectsAreRefreshedIncrementally() throws Exception {
+        final List<String> projects = new ArrayList<String>();
+        for (int i = 0; i < RundeckJobCatalog.MAX_PROJECTS_PER_REFRESH + 2; i++) {
+            projects.add("project-" + i);
+        }
+        final AtomicInteger projectLoads = new AtomicInteger();
+        final List<String> jobLoads = new ArrayList<String>();
+        RundeckClient rundeck = new RundeckClient("http://localhost:4440", "admin", "admin") {
+
+            @Override
+            public List<RundeckProject> getProjects() {
+                projectLoads.incrementAndGet();
+                List<RundeckProject> result = new ArrayList<RundeckProject>();
+                for (String name : projects) {
+                    RundeckProject project = new RundeckProject();
+                    project.setName(name);
+                    result.add(project);
+                }
+                return result;
+            }
+
+            @Override
+            public List<RundeckJob> getJobs(String project) {
+                jobLoads.add(project);
+                RundeckJob job = createJob(project + "-job", "deploy", null);
+                job.setProject(project);
+                return Collections.singletonList(job);
+            }
+        };
+        RundeckJobCatalog catalog = new RundeckJobCatalog(null);
+        long period = RundeckJobCatalog.DEFAULT_REFRESH_PERIOD;
+
+        // the first run only loads a few projects, the next one the others
+        assertTrue(catalog.refresh(rundeck, 1000));
+        assertEquals(RundeckJobCatalog.MAX_PROJECTS_PER_REFRESH, catalog.size());
+        assertTrue(catalog.refresh(rundeck, 2000));
+        assertEquals(projects.size(), catalog.size());
+        assertEquals(1, projectLoads.get());
+        assertEquals(projects.size(), jobLoads.size());
+
+        // nothing is due until the end of the period
+        assertFalse(catalog.refresh(rundeck, 1000 + period - 1));
+        assertEquals(projects.size(), jobLoads.size());
+
+        // the jobs of a deleted project are removed, and the least recently refreshed projects are reloaded
+        projects.remove("project-0");
+        jobLoads.clear();
+        assertTrue(catalog.refresh(rundeck, 1000 + period));
+        assertEquals(2, projectLoads.get());
+        assertEquals(RundeckJobCatalog.MAX_PROJECTS_PER_REFRESH - 1, jobLoads.size());
+        assertFalse(jobLoads.contains("project-0"));
+        assertNull(catalog.find("project-0-job"));
+        assertEquals(projects.size(), catalog.size());
+    }
+
+    @Test
+    public void nodesOfAClusterShareTheCatalogOfTheInstance() {
+        RundeckClient instance = RundeckClient.builder().url("http://catalog-1:4440").login("admin", "admin").build();
+        RundeckCluster.register(Collections.singletonList(new RundeckCluster(instance,
+                                                                             Arrays.asList("http://catalog-2:4440"))));
+        try {
+            RundeckClient node = RundeckCluster.withUrl(instance, "http://catalog-2:4440");
+            assertSame(RundeckJobCatalog.forClient(instance), RundeckJobCatalog.forClient(node));
+        } finally {
+            RundeckCluster.register(Collections.<RundeckCluster> emptyList());
+        }
+    }
+
+    private RundeckJob createJob(String id, String name, String group) {
+        RundeckJob job = new RundeckJob();
+        job.setId(id);
+        job.setName(name);
+        job.setGroup(group);
+        job.setProject("my-project");
+        return job;
+    }
+}
@@ -0,0 +1,104 @@
+package org.jenkinsci.plugins.rundeck;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.rundeck.api.domain.RundeckExecution;
+import org.rundeck.api.domain.RundeckExecution.ExecutionStatus;
+
+/**
+ * Tests for {@link RundeckJsonNotificationParser}
+ */
+public class RundeckJsonNotificationParserTest {
+
+    @Test
+    public void parseNotification() throws IOException {
+        List<RundeckExecution> executions = parse(new RundeckJsonNotificationParser(), "notification.json");
+        assertEquals(2, executions.size());
+
+        RundeckExecution execution = executions.get(0);
+        assertEquals(Long.valueOf(42), execution.getId());
+        assertEquals("http://localhost:4440/execution/follow/42", execution.getUrl());
+        assertEquals(ExecutionStatus.SUCCEEDED, execution.getStatus());
+        assertEquals("admin", execution.getStartedBy());
+        assertEquals(new Date(1310159014640L), execution.getStartedAt());
+        assertEquals(new Date(1310159034640L), execution.getEndedAt());
+        assertEquals("deploy the version", execution.getDescription());
+        assertEquals("-version 1.0 -env \"prod eu\"", execution.getArgstring());
+        assertEquals("2027ce89-7924-4ecf-a963-30090ada834f", execution.getJob().getId());
+        assertEquals("deploy", execution.getJob().getName());
+        assertEquals("main-group/sub-group", execution.getJob().getGroup());
+        assertEquals("my-project", execution.getJob().getProject());
+
+        execution = executions.get(1);
+        assertEquals(Long.valueOf(43), execution.getId());
+        assertEquals(ExecutionStatus.FAILED, execution.getStatus());
+        assertEquals("rollback", execution.getJob().getName());
+        assertNull(execution.getJob().getGroup());
+        assertNull(execution.getAbortedBy());
+    }
+
+    @Test
+    public void parseSingleExecution() throws IOException {
+        String json = "{\"id\":\"7\",\"status\":\"aborted\",\"abortedby\":\"bob\",\"description\":\"caf\\u00e9\"}";
+        List<RundeckExecution> executions = new RundeckJsonNotificationParser().parse(new ByteArrayInputStream(json.getBytes()));
+
+        assertEquals(1, executions.size());
+        assertEquals(Long.valueOf(7), executions.get(0).getId());
+        assertEquals(ExecutionStatus.ABORTED, executions.get(0).getStatus());
+        assertEquals("bob", executions.get(0).getAbortedBy());
+        assertEquals("caf\u00e9", executions.get(0).getDescription());
+    }
+
+    @Test
+    public void limitsAreEnforced() {
+        assertRejected(new RundeckJsonNotificationParser(512, 1024, 32), "notification.json");
+        assertRejected(new RundeckJsonNotificationParser(4096, 10, 32), "notification.json");
+        assertRejected(new RundeckJsonNotificationParser(4096, 1024, 3), "notification.json");
+    }
+
+    @Test
+    public void malformedNotifications() {
+        assertRejected("{\"id\":1,\"status\":\"succeeded\"");
+        assertRejected("{\"id\":1,\"status\":\"succeeded\"} trailing");
+        assertRejected("{\"id\":1,\"status\":bogus}");
+        assertRejected("{\"trigger\":\"success\"}");
+        assertRejected("<notification/>");
+    }
+
+    private void assertRejected(String json) {
+        try {
+            new RundeckJsonNotificationParser().parse(new ByteArrayInputStream(json.getBytes()));
+            fail("Expected exception for " + json);
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private void assertRejected(RundeckJsonNotificationParser parser, String resource) {
+        try {
+            parse(parser, resource);
+            fail("Expected exception!");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private List<RundeckExecution> parse(RundeckJsonNotificationParser parser, String resource) throws IOException {
+        InputStream input = getClass().getResourceAsStream(resource);
+        try {
+            return parser.parse(input);
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+    }
+}
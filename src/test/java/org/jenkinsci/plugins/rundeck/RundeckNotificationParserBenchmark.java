@@ -0,0 +1,101 @@
+package org.jenkinsci.plugins.rundeck;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+import org.dom4j.Document;
+import org.rundeck.api.domain.RundeckExecution;
+import org.rundeck.api.parser.ExecutionParser;
+import org.rundeck.api.parser.ParserHelper;
+
+/**
+ * Micro-benchmark comparing the previous DOM/XPath parsing of WebHook notifications ({@link ParserHelper} +
+ * {@link ExecutionParser}) with the streaming {@link RundeckNotificationParser}. Not run by the test suite, launch it
+ * manually with : mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.jenkinsci.plugins.rundeck.RundeckNotificationParserBenchmark
+ */
+public class RundeckNotificationParserBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 2000;
+
+    private static final int ITERATIONS = 5000;
+
+    public static void main(String[] args) throws Exception {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int argstringLength = args.length > 1 ? Integer.parseInt(args[1]) : 8192;
+        byte[] payload = buildNotification(nodes, argstringLength);
+        System.out.println("Notification of " + payload.length + " bytes (" + nodes + " nodes, argstring of "
+                           + argstringLength + " chars)");
+
+        RundeckNotificationParser parser = new RundeckNotificationParser();
+        ExecutionParser domParser = new ExecutionParser("notification/executions/execution");
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            parseDom(domParser, payload);
+            parseStax(parser, payload);
+        }
+
+        report("DOM/XPath", runDom(domParser, payload));
+        report("StAX", runStax(parser, payload));
+    }
+
+    private static long runDom(ExecutionParser domParser, byte[] payload) {
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            parseDom(domParser, payload);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long runStax(RundeckNotificationParser parser, byte[] payload) throws IOException {
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            parseStax(parser, payload);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static RundeckExecution parseDom(ExecutionParser domParser, byte[] payload) {
+        Document document = ParserHelper.loadDocument(new ByteArrayInputStream(payload));
+        return domParser.parseXmlNode(document);
+    }
+
+    private static RundeckExecution parseStax(RundeckNotificationParser parser, byte[] payload) throws IOException {
+        return parser.parse(new ByteArrayInputStream(payload)).get(0);
+    }
+
+    private static void report(String name, long nanos) {
+        System.out.println(String.format("%-10s : %8.1f us/op", name, nanos / 1000.0 / ITERATIONS));
+    }
+
+    private static byte[] buildNotification(int nodes, int argstringLength) {
+        StringBuilder argstring = new StringBuilder();
+        for (int i = 0; argstring.length() < argstringLength; i++) {
+            argstring.append("-option").append(i).append(" value-").append(i).append(' ');
+        }
+        StringBuilder xml = new StringBuilder();
+        xml.append("<notification trigger=\"success\" status=\"succeeded\" executionId=\"42\">");
+        xml.append("<executions count=\"1\">");
+        xml.append("<execution id=\"42\" href=\"http://localhost:4440/execution/follow/42\" status=\"succeeded\">");
+        xml.append("<user>admin</user>");
+        xml.append("<date-started unixtime=\"1310159014640\">2011-07-08T21:03:34Z</date-started>");
+        xml.append("<date-ended unixtime=\"1310159034640\">2011-07-08T21:03:54Z</date-ended>");
+        xml.append("<job id=\"2027ce89-7924-4ecf-a963-30090ada834f\" averageDuration=\"20000\">");
+        xml.append("<name>deploy</name><group>main-group</group><project>my-project</project>");
+        xml.append("<description>Deploy the application</description></job>");
+        xml.append("<description>deploy</description>");
+        xml.append("<argstring>").append(argstring.toString().trim()).append("</argstring>");
+        xml.append("<successfulNodes>");
+        for (int i = 0; i < nodes; i++) {
+            xml.append("<node name=\"node-").append(i).append(".example.com\"/>");
+        }
+        xml.append("</successfulNodes><failedNodes/>");
+        xml.append("</execution></executions></notification>");
+        try {
+            return xml.toString().getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
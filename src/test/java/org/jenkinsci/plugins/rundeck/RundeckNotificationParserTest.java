@@ -0,0 +1,103 @@
+package org.jenkinsci.plugins.rundeck;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.rundeck.api.domain.RundeckExecution;
+import org.rundeck.api.domain.RundeckExecution.ExecutionStatus;
+
+/**
+ * Tests for {@link RundeckNotificationParser}
+ */
+public class RundeckNotificationParserTest {
+
+    @Test
+    public void parseNotification() throws IOException {
+        List<RundeckExecution> executions = parse(new RundeckNotificationParser(), "notification.xml");
+        assertEquals(1, executions.size());
+        RundeckExecution execution = executions.get(0);
+
+        assertEquals(Long.valueOf(42), execution.getId());
+        assertEquals("http://localhost:4440/execution/follow/42", execution.getUrl());
+        assertEquals(ExecutionStatus.SUCCEEDED, execution.getStatus());
+        assertEquals("admin", execution.getStartedBy());
+        assertEquals(new Date(1310159014640L), execution.getStartedAt());
+        assertEquals(new Date(1310159034640L), execution.getEndedAt());
+        assertNull(execution.getAbortedBy());
+        assertEquals("deploy the version", execution.getDescription());
+        assertEquals("-version 1.0 -env \"prod eu\"", execution.getArgstring());
+
+        assertEquals("2027ce89-7924-4ecf-a963-30090ada834f", execution.getJob().getId());
+        assertEquals("deploy", execution.getJob().getName());
+        assertEquals("main-group/sub-group", execution.getJob().getGroup());
+        assertEquals("my-project", execution.getJob().getProject());
+        assertEquals("Deploy the application", execution.getJob().getDescription());
+    }
+
+    @Test
+    public void parseAllExecutions() throws IOException {
+        String xml = "<notification><executions count=\"2\">"
+                     + "<execution id=\"1\" status=\"succeeded\"><job id=\"a\"><options><option/></options></job></execution>"
+                     + "<execution id=\"2\" status=\"failed\"><job id=\"b\"/></execution>"
+                     + "</executions></notification>";
+        List<RundeckExecution> executions = new RundeckNotificationParser().parse(new ByteArrayInputStream(xml.getBytes()));
+
+        assertEquals(2, executions.size());
+        assertEquals(Long.valueOf(1), executions.get(0).getId());
+        assertEquals("a", executions.get(0).getJob().getId());
+        assertEquals(ExecutionStatus.FAILED, executions.get(1).getStatus());
+        assertEquals("b", executions.get(1).getJob().getId());
+    }
+
+    @Test
+    public void payloadSizeLimit() {
+        assertRejected(new RundeckNotificationParser(512, 1024, 32), "notification.xml");
+    }
+
+    @Test
+    public void textLengthLimit() {
+        assertRejected(new RundeckNotificationParser(4096, 10, 32), "notification.xml");
+    }
+
+    @Test
+    public void depthLimit() {
+        assertRejected(new RundeckNotificationParser(4096, 1024, 3), "notification.xml");
+    }
+
+    @Test
+    public void notificationWithoutExecution() {
+        try {
+            new RundeckNotificationParser().parse(new ByteArrayInputStream("<notification/>".getBytes()));
+            fail("Expected exception!");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private void assertRejected(RundeckNotificationParser parser, String resource) {
+        try {
+            parse(parser, resource);
+            fail("Expected exception!");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private List<RundeckExecution> parse(RundeckNotificationParser parser, String resource) throws IOException {
+        InputStream input = getClass().getResourceAsStream(resource);
+        try {
+            return parser.parse(input);
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+    }
+}
@@ -35,6 +35,7 @@ public class RundeckNotifierBackwardCompatibilityTest extends HudsonTestCase {
         assertEquals("login", instance.getLogin());
         assertEquals("password", instance.getPassword());
         assertEquals("9", descriptor.getApiVersion(instance));
+        assertEquals("9", descriptor.getInstanceApiVersion("Default"));
     }
     
     @LocalData
@@ -4,6 +4,7 @@ import hudson.FilePath;
 import hudson.model.*;
 import hudson.model.Cause.UpstreamCause;
 import hudson.scm.SubversionSCM;
+import hudson.util.FormValidation;
 import java.io.File;
 import java.io.IOException;
 import java.io.StringWriter;
@@ -11,6 +12,9 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.Properties;
 
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.time.DateUtils;
 import org.jenkinsci.plugins.rundeck.RundeckNotifier.RundeckExecutionBuildBadgeAction;
@@ -147,6 +151,110 @@ public class RundeckNotifierTest extends HudsonTestCase {
         assertTrue(s.contains("Fake error for testing"));
     }
 
+    public void testJobRecreatedWithANewId() throws Exception {
+        RundeckNotifier notifier = new RundeckNotifier("Default", "my-project:deploy", createOptions(), null, null, false, true, null, null);
+        MockRundeckClient client = new MockRundeckClient("recreated", "recreated") {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public RundeckExecution triggerJob(RunJob runJob) {
+                if ("old-uuid".equals(runJob.getJobId())) {
+                    throw new RundeckApiException("Job ID does not exist: old-uuid");
+                }
+                return super.triggerJob(runJob);
+            }
+
+            @Override
+            public RundeckJob findJob(String project, String groupPath, String name) {
+                return createJob("new-uuid");
+            }
+        };
+        notifier.getDescriptor().addRundeckInstance("Default", client);
+        // loaded before the job was deleted and created again
+        RundeckJobCatalog.forClient(client).put(createJob("old-uuid"));
+
+        FreeStyleProject project = createFreeStyleProject();
+        project.getBuildersList().add(new MockBuilder(Result.SUCCESS));
+        project.getPublishersList().add(notifier);
+
+        FreeStyleBuild build = assertBuildStatusSuccess(project.scheduleBuild2(0).get());
+        String s = FileUtils.readFileToString(build.getLogFile());
+        assertTrue(s.contains("The job my-project:deploy is now new-uuid"));
+        assertTrue(s.contains("Notification succeeded !"));
+        assertEquals("new-uuid", RundeckJobCatalog.forClient(client).find("my-project:deploy").getId());
+        assertNull(RundeckJobCatalog.forClient(client).find("old-uuid"));
+    }
+
+    private static RundeckJob createJob(String id) {
+        RundeckJob job = new RundeckJob();
+        job.setId(id);
+        job.setName("deploy");
+        job.setProject("my-project");
+        return job;
+    }
+
+    public void testCurrentApiVersionIsReadFromTheError() {
+        assertEquals(Integer.valueOf(11), RundeckNotifier.RundeckDescriptor.getCurrentApiVersion(new RundeckApiException(
+                "Unsupported API Version \"12\". API Request: /api/12/system/info. Reason: Current version: 11")));
+        assertNull(RundeckNotifier.RundeckDescriptor.getCurrentApiVersion(new RundeckApiException(
+                "Unsupported API Version \"12\"")));
+    }
+
+    public void testNegotiatedApiVersionIsNotSavedAsConfigured() throws Exception {
+        RundeckNotifier.RundeckDescriptor descriptor = new RundeckNotifier.RundeckDescriptor();
+        JSONArray instances = new JSONArray();
+        instances.add(createInstance("configured", "http://localhost:1", "9"));
+        instances.add(createInstance("negotiated", "http://localhost:2", ""));
+        JSONObject json = new JSONObject();
+        json.put("inst", instances);
+
+        descriptor.configure(null, json);
+
+        assertEquals("9", descriptor.getInstanceApiVersion("configured"));
+        assertEquals("", descriptor.getNegotiatedApiVersion("configured"));
+        // the field stays empty, whatever the version negotiated in the background
+        assertEquals("", descriptor.getInstanceApiVersion("negotiated"));
+    }
+
+    private static JSONObject createInstance(String name, String url, String apiVersion) {
+        JSONObject instance = new JSONObject();
+        instance.put("name", name);
+        instance.put("url", url);
+        instance.put("login", "admin");
+        instance.put("password", "admin");
+        instance.put("apiversion", apiVersion);
+        return instance;
+    }
+
+    public void testFailedJobValidationIsNotCached() throws Exception {
+        RundeckNotifier.RundeckDescriptor descriptor = new RundeckNotifier("Default", "1", null, null, null, false, false, null, null).getDescriptor();
+        final boolean[] down = { true };
+        descriptor.addRundeckInstance("Default", new MockRundeckClient("validation", "validation") {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public RundeckJob getJob(String jobId) {
+                if (down[0]) {
+                    throw new RundeckApiException("Rundeck is restarting");
+                }
+                RundeckJob job = new RundeckJob();
+                job.setId(jobId);
+                job.setName("deploy");
+                job.setProject("my-project");
+                return job;
+            }
+        });
+
+        FormValidation validation = descriptor.doCheckJobIdentifier("42", "Default", null, null);
+        assertEquals(FormValidation.Kind.ERROR, validation.kind);
+        assertTrue(validation.getMessage().contains("Rundeck is restarting"));
+
+        down[0] = false;
+        assertEquals(FormValidation.Kind.OK, descriptor.doCheckJobIdentifier("42", "Default", null, null).kind);
+    }
+
     public void testExpandEnvVarsInOptions() throws Exception {
         RundeckNotifier notifier = new RundeckNotifier("Default", "1", createOptions(), null, null, false, true, null, null); 
         notifier.getDescriptor().addRundeckInstance("Default", new MockRundeckClient() {
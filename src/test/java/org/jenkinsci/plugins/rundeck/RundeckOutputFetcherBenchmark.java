@@ -0,0 +1,107 @@
+package org.jenkinsci.plugins.rundeck;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+
+import org.rundeck.api.domain.RundeckOutput;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Benchmark of the transfer of execution output, with and without compression : a local HTTP server plays the part of
+ * Rundeck (gzip-compressing its responses when asked to), and the output is tailed page by page with
+ * {@link RundeckOutputFetcher}. Reports the bytes on the wire and the tail throughput. Not run by the test suite, launch
+ * it manually with : mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.jenkinsci.plugins.rundeck.RundeckOutputFetcherBenchmark
+ */
+public class RundeckOutputFetcherBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 200;
+
+    private static final int ITERATIONS = 1000;
+
+    public static void main(String[] args) throws Exception {
+        int maxlines = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        final byte[] page = buildOutputPage(maxlines);
+        final byte[] compressedPage = RundeckOutputFetcherTest.gzip(page);
+
+        // small responses would otherwise wait for the delayed ACK of the loopback
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/api/10/execution/42/output/state", new HttpHandler() {
+
+            public void handle(HttpExchange exchange) throws IOException {
+                String encoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                byte[] body = page;
+                if (encoding != null && encoding.contains("gzip")) {
+                    body = compressedPage;
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream response = exchange.getResponseBody();
+                response.write(body);
+                response.close();
+            }
+        });
+        server.start();
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort();
+            System.out.println("Output page of " + page.length + " bytes (" + maxlines + " lines), " + compressedPage.length
+                               + " bytes compressed");
+
+            run(new RundeckOutputFetcher(url, "token", 10, false), maxlines, WARMUP_ITERATIONS);
+            run(new RundeckOutputFetcher(url, "token", 10, true), maxlines, WARMUP_ITERATIONS);
+
+            report("identity", new RundeckOutputFetcher(url, "token", 10, false), maxlines);
+            report("gzip", new RundeckOutputFetcher(url, "token", 10, true), maxlines);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static long run(RundeckOutputFetcher fetcher, int maxlines, int iterations) {
+        long start = System.nanoTime();
+        int offset = 0;
+        for (int i = 0; i < iterations; i++) {
+            RundeckOutput output = fetcher.getExecutionOutputState(42L, offset, -1, maxlines);
+            if (output.getLogEntries().size() != maxlines) {
+                throw new IllegalStateException("Got " + output.getLogEntries().size() + " lines instead of " + maxlines);
+            }
+            offset = output.getOffset();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String name, RundeckOutputFetcher fetcher, int maxlines) {
+        long nanos = run(fetcher, maxlines, ITERATIONS);
+        double seconds = nanos / 1000000000.0;
+        System.out.println(String.format("%-10s : %10d bytes on the wire (%7.1f per page), %10.0f lines/s, %8.1f us/page",
+                                         name, fetcher.getBytesOnWire(), (double) fetcher.getBytesOnWire() / ITERATIONS,
+                                         maxlines * ITERATIONS / seconds, nanos / 1000.0 / ITERATIONS));
+    }
+
+    private static byte[] buildOutputPage(int lines) {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<output><id>42</id><offset>123456</offset><completed>false</completed>");
+        xml.append("<execCompleted>false</execCompleted><hasFailedNodes>false</hasFailedNodes>");
+        xml.append("<execState>running</execState><lastModified>1389196183000</lastModified>");
+        xml.append("<execDuration>60000</execDuration><totalSize>1048576</totalSize><entries>");
+        for (int i = 0; i < lines; i++) {
+            xml.append("<entry time=\"10:29:").append(10 + i % 50).append("\" absolute_time=\"2014-01-08T15:29:")
+               .append(10 + i % 50).append("Z\" log=\"[INFO] Deploying artifact ").append(i)
+               .append(" of the application to /opt/application/releases/1.0.").append(i % 7)
+               .append("\" level=\"NORMAL\" user=\"admin\" command=\"\" stepctx=\"1\" node=\"node-")
+               .append(i % 4).append(".example.com\"/>");
+        }
+        xml.append("</entries></output>");
+        try {
+            return xml.toString().getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
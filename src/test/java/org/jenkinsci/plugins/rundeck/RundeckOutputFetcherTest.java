@@ -0,0 +1,197 @@
+package org.jenkinsci.plugins.rundeck;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.rundeck.api.RundeckApiException;
+import org.rundeck.api.domain.RundeckOutput;
+import org.rundeck.api.domain.RundeckOutputEntry.RundeckLogLevel;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests for {@link RundeckOutputFetcher}
+ */
+public class RundeckOutputFetcherTest {
+
+    private static final String OUTPUT = "<result success='true' apiversion='10'><output><id>42</id><offset>1234</offset>"
+                                         + "<completed>false</completed><execCompleted>false</execCompleted>"
+                                         + "<hasFailedNodes>false</hasFailedNodes><execState>running</execState>"
+                                         + "<lastModified>1389196183000</lastModified><entries>"
+                                         + "<entry time='10:29:43' absolute_time='2014-01-08T10:29:43Z' level='NORMAL'"
+                                         + " log='hello' node='node-1' user='admin'/>"
+                                         + "<entry time='10:29:44' level='ERROR' node='node-1'>world</entry>"
+                                         + "</entries></output></result>";
+
+    private HttpServer server;
+
+    private String requestedEncoding;
+
+    private String requestedToken;
+
+    private String requestedQuery;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/api/10/execution/42/output/state", new HttpHandler() {
+
+            public void handle(HttpExchange exchange) throws IOException {
+                requestedEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                requestedToken = exchange.getRequestHeaders().getFirst("X-Rundeck-Auth-Token");
+                requestedQuery = exchange.getRequestURI().getQuery();
+                byte[] body = OUTPUT.getBytes("UTF-8");
+                if (requestedEncoding != null && requestedEncoding.contains("gzip")) {
+                    body = gzip(body);
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream response = exchange.getResponseBody();
+                response.write(body);
+                response.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void compressedOutputIsFetched() {
+        RundeckOutputFetcher fetcher = new RundeckOutputFetcher(getUrl(), "secret", 10, true);
+        RundeckOutput output = fetcher.getExecutionOutputState(42L, 100, -1, 50);
+
+        assertEquals(RundeckOutputFetcher.ACCEPT_ENCODING, requestedEncoding);
+        assertEquals("secret", requestedToken);
+        assertEquals("offset=100&maxlines=50", requestedQuery);
+        assertOutput(output);
+        assertTrue(fetcher.getBytesOnWire() > 0);
+        assertTrue(fetcher.getBytesOnWire() < OUTPUT.length());
+    }
+
+    @Test
+    public void uncompressedOutputIsFetched() {
+        RundeckOutputFetcher fetcher = new RundeckOutputFetcher(getUrl() + "/", "secret", 10, false);
+        assertOutput(fetcher.getExecutionOutputState(42L, 0, 1389196183000L, 0));
+
+        assertNull(requestedEncoding);
+        assertEquals("offset=0&lastmod=1389196183000", requestedQuery);
+        assertEquals(OUTPUT.length(), fetcher.getBytesOnWire());
+    }
+
+    @Test
+    public void httpErrorsAreReported() {
+        RundeckOutputFetcher fetcher = new RundeckOutputFetcher(getUrl(), "secret", 10, true);
+        try {
+            fetcher.getExecutionOutputState(43L, 0, -1, 50);
+            fail("the 404 should be reported");
+        } catch (RundeckApiException e) {
+            assertFalse(RundeckCluster.isUnreachable(e, true));
+        }
+    }
+
+    @Test
+    public void unreachableServersAreReportedAsIOErrors() {
+        server.stop(0);
+        RundeckOutputFetcher fetcher = new RundeckOutputFetcher(getUrl(), "secret", 10, true);
+        try {
+            fetcher.getExecutionOutputState(42L, 0, -1, 50);
+            fail("the server is stopped");
+        } catch (RundeckApiException e) {
+            assertTrue(RundeckCluster.isUnreachable(e, true));
+        }
+    }
+
+    @Test
+    public void deflatedStreamsAreDecoded() throws Exception {
+        byte[] body = OUTPUT.getBytes("UTF-8");
+        // zlib-wrapped, as specified
+        assertOutput(RundeckOutputFetcher.parse(RundeckOutputFetcher.decode(new ByteArrayInputStream(deflate(body, false)),
+                                                                            "deflate")));
+        // raw deflate, as sent by some servers
+        assertOutput(RundeckOutputFetcher.parse(RundeckOutputFetcher.decode(new ByteArrayInputStream(deflate(body, true)),
+                                                                            "Deflate")));
+        // unknown encodings are passed through
+        InputStream identity = RundeckOutputFetcher.decode(new ByteArrayInputStream(body), null);
+        assertEquals(OUTPUT, IOUtils.toString(identity, "UTF-8"));
+    }
+
+    @Test
+    public void errorMessagesAreReported() throws Exception {
+        String error = "<result error='true'><error><message>Execution ID does not exist: 43</message></error></result>";
+        try {
+            RundeckOutputFetcher.parse(new ByteArrayInputStream(error.getBytes("UTF-8")));
+            fail("the error should be reported");
+        } catch (RundeckApiException e) {
+            assertEquals("Execution ID does not exist: 43", e.getMessage());
+        }
+    }
+
+    @Test
+    public void absoluteTimesAreParsed() {
+        assertEquals(1389176983000L, RundeckOutputFetcher.parseAbsoluteTime("2014-01-08T10:29:43Z"));
+        assertEquals(1389176983250L, RundeckOutputFetcher.parseAbsoluteTime("2014-01-08T10:29:43.250Z"));
+        assertEquals(-1, RundeckOutputFetcher.parseAbsoluteTime(null));
+        assertEquals(-1, RundeckOutputFetcher.parseAbsoluteTime("10:29:43"));
+    }
+
+    private void assertOutput(RundeckOutput output) {
+        assertEquals(Integer.valueOf(1234), output.getOffset());
+        assertEquals(Boolean.FALSE, output.isCompleted());
+        assertEquals(Boolean.FALSE, output.isExecCompleted());
+        assertEquals(Long.valueOf(1389196183000L), output.getLastModified());
+        assertEquals("running", output.getExecState());
+        assertEquals(2, output.getLogEntries().size());
+        assertEquals("hello", output.getLogEntries().get(0).getMessage());
+        assertEquals("10:29:43", output.getLogEntries().get(0).getTime());
+        assertEquals("node-1", output.getLogEntries().get(0).getNode());
+        assertEquals(RundeckLogLevel.NORMAL, output.getLogEntries().get(0).getLevel());
+        assertEquals(1389176983000L,
+                     ((RundeckOutputFetcher.TimedOutputEntry) output.getLogEntries().get(0)).getAbsoluteTime());
+        assertEquals(-1, ((RundeckOutputFetcher.TimedOutputEntry) output.getLogEntries().get(1)).getAbsoluteTime());
+        assertEquals("world", output.getLogEntries().get(1).getMessage());
+        assertEquals(RundeckLogLevel.ERROR, output.getLogEntries().get(1).getLevel());
+    }
+
+    private String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        gzip.write(data);
+        gzip.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] data, boolean raw) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DeflaterOutputStream deflate = new DeflaterOutputStream(bytes, new Deflater(Deflater.DEFAULT_COMPRESSION, raw));
+        deflate.write(data);
+        deflate.close();
+        return bytes.toByteArray();
+    }
+}
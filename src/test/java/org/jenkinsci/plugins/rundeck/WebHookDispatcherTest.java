@@ -0,0 +1,220 @@
+package org.jenkinsci.plugins.rundeck;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.rundeck.api.domain.RundeckExecution;
+import org.rundeck.api.domain.RundeckExecution.ExecutionStatus;
+
+/**
+ * Tests for {@link WebHookDispatcher}
+ */
+public class WebHookDispatcherTest {
+
+    @Test
+    public void rejectsNotificationsWhenQueueIsFull() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(3);
+        WebHookDispatcher dispatcher = new WebHookDispatcher(1, 2) {
+
+            @Override
+            protected void dispatch(List<RundeckExecution> executions) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                for (int i = 0; i < executions.size(); i++) {
+                    done.countDown();
+                }
+            }
+        };
+
+        // the first one is being dispatched, the next two are waiting in the queue
+        assertTrue(dispatcher.submit(new RundeckExecution()));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertTrue(dispatcher.submit(new RundeckExecution()));
+        assertTrue(dispatcher.submit(new RundeckExecution()));
+        assertEquals(2, dispatcher.getQueueSize());
+
+        assertFalse(dispatcher.submit(new RundeckExecution()));
+        assertEquals(3, dispatcher.getAcceptedCount());
+        assertEquals(1, dispatcher.getRejectedCount());
+
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void queuedNotificationsAreDispatchedAsOneBatch() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+        final List<Integer> batchSizes = new CopyOnWriteArrayList<Integer>();
+        WebHookDispatcher dispatcher = new WebHookDispatcher(1, 10) {
+
+            @Override
+            protected void dispatch(List<RundeckExecution> executions) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                batchSizes.add(executions.size());
+                done.countDown();
+            }
+        };
+
+        assertTrue(dispatcher.submit(new RundeckExecution()));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 5; i++) {
+            assertTrue(dispatcher.submit(new RundeckExecution()));
+        }
+
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(1, 5), batchSizes);
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void failedDispatchIsRetried() throws Exception {
+        File directory = createJournalDirectory();
+        WebHookJournal journal = new WebHookJournal(directory);
+        FailingDispatcher dispatcher = new FailingDispatcher(journal, 1);
+        try {
+            dispatcher.startReplay();
+            assertTrue(dispatcher.accept(Collections.singletonList(createExecution(42L))));
+
+            waitFor(dispatcher, 1);
+            assertEquals(2, dispatcher.submits.get());
+            assertEquals(1, dispatcher.getFailedCount());
+            assertTrue(journal.getPendingOffsets().isEmpty());
+        } finally {
+            dispatcher.shutdown();
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void failedDispatchIsDeadLetteredNotDeduplicated() throws Exception {
+        File directory = createJournalDirectory();
+        WebHookJournal journal = new WebHookJournal(directory);
+        FailingDispatcher dispatcher = new FailingDispatcher(journal, WebHookDispatcher.MAX_ATTEMPTS);
+        try {
+            dispatcher.startReplay();
+            assertTrue(dispatcher.accept(Collections.singletonList(createExecution(42L))));
+            long deadline = System.currentTimeMillis() + 10000;
+            while (journal.getDeadLetters().isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(WebHookDispatcher.MAX_ATTEMPTS, dispatcher.getFailedCount());
+            // moved to the dead-letter file : not pending anymore
+            assertEquals(Long.valueOf(42), journal.getDeadLetters().get(0).getId());
+            assertTrue(journal.getPendingOffsets().isEmpty());
+
+            // Rundeck sends it again : not a duplicate, since it was not dispatched
+            assertTrue(dispatcher.accept(Collections.singletonList(createExecution(42L))));
+            waitFor(dispatcher, 1);
+            assertEquals(0, dispatcher.getDuplicateCount());
+
+            // dispatched now : the next one is a duplicate
+            assertTrue(dispatcher.accept(Collections.singletonList(createExecution(42L))));
+            deadline = System.currentTimeMillis() + 10000;
+            while (dispatcher.getDuplicateCount() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, dispatcher.getDuplicateCount());
+            assertEquals(1, dispatcher.getDispatchedCount());
+        } finally {
+            dispatcher.shutdown();
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void notificationsAreDeferredUntilReadyWithoutJournal() throws Exception {
+        FailingDispatcher dispatcher = new FailingDispatcher(null, 0);
+        try {
+            assertTrue(dispatcher.accept(Collections.<RundeckExecution> emptyList()));
+            assertTrue(dispatcher.accept(Collections.singletonList(createExecution(42L))));
+            Thread.sleep(100);
+            // the triggers are not loaded yet
+            assertEquals(0, dispatcher.submits.get());
+
+            dispatcher.startReplay();
+            waitFor(dispatcher, 1);
+            assertEquals(1, dispatcher.submits.get());
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    private static File createJournalDirectory() throws IOException {
+        File directory = File.createTempFile("rundeck-journal", "");
+        directory.delete();
+        return directory;
+    }
+
+    private static void waitFor(WebHookDispatcher dispatcher, long dispatched) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (dispatcher.getDispatchedCount() < dispatched && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(dispatched, dispatcher.getDispatchedCount());
+    }
+
+    private static RundeckExecution createExecution(Long id) {
+        RundeckExecution execution = new RundeckExecution();
+        execution.setId(id);
+        execution.setStatus(ExecutionStatus.SUCCEEDED);
+        return execution;
+    }
+
+    /**
+     * Dispatcher whose first batches fail to be submitted to the Jenkins queue
+     */
+    private static class FailingDispatcher extends WebHookDispatcher {
+
+        private final AtomicInteger failures;
+
+        private final AtomicInteger submits = new AtomicInteger();
+
+        private FailingDispatcher(WebHookJournal journal, int failures) {
+            super(1, 10, journal);
+            this.failures = new AtomicInteger(failures);
+        }
+
+        @Override
+        ScheduleBatch createBatch() {
+            return new ScheduleBatch() {
+
+                @Override
+                public int submit() {
+                    submits.incrementAndGet();
+                    if (failures.getAndDecrement() > 0) {
+                        throw new IllegalStateException("queue is down");
+                    }
+                    return 0;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.jenkinsci.plugins.rundeck;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.rundeck.api.domain.RundeckExecution;
+import org.rundeck.api.domain.RundeckExecution.ExecutionStatus;
+import org.rundeck.api.domain.RundeckJob;
+
+/**
+ * Tests for {@link WebHookJournal}
+ */
+public class WebHookJournalTest {
+
+    private File directory;
+
+    @Before
+    public void before() throws IOException {
+        directory = File.createTempFile("rundeck-journal", "");
+        directory.delete();
+    }
+
+    @After
+    public void after() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void pendingRecordsAreReplayedAfterReopening() throws IOException {
+        WebHookJournal journal = new WebHookJournal(directory, 256);
+        List<Long> offsets = appendExecutions(journal, 10);
+        for (int i = 0; i < 6; i++) {
+            journal.acknowledge(offsets.get(i));
+        }
+        journal.close();
+
+        journal = new WebHookJournal(directory, 256);
+        List<Long> pending = journal.getPendingOffsets();
+        assertEquals(offsets.subList(6, 10), pending);
+        RundeckExecution execution = journal.read(pending.get(0));
+        assertEquals(Long.valueOf(6), execution.getId());
+        assertEquals(ExecutionStatus.SUCCEEDED, execution.getStatus());
+        assertEquals("job-6", execution.getJob().getName());
+        assertEquals("-option value", execution.getArgstring());
+        journal.close();
+    }
+
+    @Test
+    public void acknowledgedSegmentsAreDeleted() throws IOException {
+        WebHookJournal journal = new WebHookJournal(directory, 256);
+        List<Long> offsets = appendExecutions(journal, 20);
+        assertTrue(segments().length > 2);
+        for (Long offset : offsets) {
+            journal.acknowledge(offset);
+        }
+        journal.checkpoint();
+        assertEquals(1, segments().length);
+        journal.close();
+
+        journal = new WebHookJournal(directory, 256);
+        assertTrue(journal.getPendingOffsets().isEmpty());
+        journal.close();
+    }
+
+    @Test
+    public void acknowledgedRecordsAreNotReplayedAfterACrash() throws IOException {
+        WebHookJournal journal = new WebHookJournal(directory, 256);
+        List<Long> offsets = appendExecutions(journal, 10);
+        // the oldest record is still pending : the others must not be replayed
+        for (int i = 1; i < 10; i++) {
+            journal.acknowledge(offsets.get(i));
+        }
+
+        // not closed, nor checkpointed
+        WebHookJournal reopened = new WebHookJournal(directory, 256);
+        assertEquals(offsets.subList(0, 1), reopened.getPendingOffsets());
+        reopened.close();
+        journal.close();
+
+        journal = new WebHookJournal(directory, 256);
+        assertEquals(offsets.subList(0, 1), journal.getPendingOffsets());
+        journal.close();
+    }
+
+    @Test
+    public void deadLettersAreNotReplayed() throws IOException {
+        WebHookJournal journal = new WebHookJournal(directory, 256);
+        List<Long> offsets = appendExecutions(journal, 20);
+        journal.deadLetter(offsets.get(0));
+        for (int i = 1; i < 20; i++) {
+            journal.acknowledge(offsets.get(i));
+        }
+        journal.checkpoint();
+        assertEquals(1, segments().length);
+        journal.close();
+
+        journal = new WebHookJournal(directory, 256);
+        assertTrue(journal.getPendingOffsets().isEmpty());
+        List<RundeckExecution> deadLetters = journal.getDeadLetters();
+        assertEquals(1, deadLetters.size());
+        assertEquals(Long.valueOf(0), deadLetters.get(0).getId());
+        journal.close();
+    }
+
+    @Test
+    public void tornWriteIsTruncated() throws IOException {
+        WebHookJournal journal = new WebHookJournal(directory);
+        List<Long> offsets = appendExecutions(journal, 3);
+        journal.close();
+
+        File[] segments = segments();
+        RandomAccessFile file = new RandomAccessFile(segments[segments.length - 1], "rw");
+        try {
+            file.seek(file.length());
+            file.write(new byte[] { 0, 0, 0, 42, 1, 2, 3 });
+        } finally {
+            file.close();
+        }
+
+        journal = new WebHookJournal(directory);
+        assertEquals(offsets, journal.getPendingOffsets());
+        long offset = journal.append(createExecution(3));
+        journal.awaitDurable(offset);
+        assertEquals(Long.valueOf(3), journal.read(offset).getId());
+        journal.close();
+    }
+
+    private List<Long> appendExecutions(WebHookJournal journal, int count) throws IOException {
+        List<Long> offsets = new ArrayList<Long>();
+        for (int i = 0; i < count; i++) {
+            long offset = journal.append(createExecution(i));
+            journal.awaitDurable(offset);
+            offsets.add(offset);
+        }
+        return offsets;
+    }
+
+    private RundeckExecution createExecution(long id) {
+        RundeckExecution execution = new RundeckExecution();
+        execution.setId(id);
+        execution.setStatus(ExecutionStatus.SUCCEEDED);
+        execution.setArgstring("-option value");
+        RundeckJob job = new RundeckJob();
+        job.setId("uuid-" + id);
+        job.setName("job-" + id);
+        job.setProject("project");
+        execution.setJob(job);
+        return execution;
+    }
+
+    private File[] segments() {
+        File[] segments = directory.listFiles(new FilenameFilter() {
+
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".log");
+            }
+        });
+        Arrays.sort(segments);
+        return segments;
+    }
+}